@@ -27,6 +27,7 @@ import javax.swing.border.LineBorder;
 import com.nm.var.src.Asset;
 import com.nm.var.src.Option;
 import com.nm.var.src.OptionType;
+import com.nm.var.src.ReturnSeriesCache;
 import com.nm.var.src.VarUtils;
 
 /**
@@ -321,7 +322,8 @@ public class AddOptionDialog extends JDialog
                 timeToMaturity = Integer.parseInt( txtTimeToMaturity.getText() );
                 optionAsset = assets.get( cboAssets.getSelectedIndex() );
                 data = optionAsset.getData();
-                volatility = VarUtils.computeVolatility_Standard( VarUtils.getReturnsFromFile( data ) );
+                volatility = VarUtils.computeVolatility_Standard( ReturnSeriesCache.getInstance()
+                                                                                   .getReturns( data ) );
             }
             else
             {
@@ -0,0 +1,47 @@
+package com.nm.var.src;
+
+/**
+ * Draws doubles, bounded ints and normal numbers from the longs of a generator, the normal numbers
+ * with the {@link ZigguratNormal ziggurat method}.
+ */
+public abstract class AbstractRandomGenerator implements RandomGenerator
+{
+    /** Scales the 53 high bits of a long to a double in [0, 1). */
+    private static final double DOUBLE_UNIT = 0x1.0p-53;
+
+    @Override
+    public double nextDouble()
+    {
+        return ( nextLong() >>> 11 ) * DOUBLE_UNIT;
+    }
+
+    @Override
+    public int nextInt( int bound )
+    {
+        if( bound <= 0 )
+        {
+            throw new IllegalArgumentException( "bound must be positive" );
+        }
+        // reject the few draws above the last whole multiple of the bound, like java.util.Random
+        int bits, value;
+        do
+        {
+            bits = (int) ( nextLong() >>> 33 );
+            value = bits % bound;
+        }
+        while( bits - value + ( bound - 1 ) < 0 );
+        return value;
+    }
+
+    @Override
+    public double nextGaussian()
+    {
+        return ZigguratNormal.next( this );
+    }
+
+    @Override
+    public void nextGaussians( double[] values, int from, int to )
+    {
+        ZigguratNormal.fill( this, values, from, to );
+    }
+}
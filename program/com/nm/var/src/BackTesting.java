@@ -50,7 +50,7 @@ public class BackTesting
 
         ModelBuilding modelBuilding = new ModelBuilding( portfolioValues, stockPriceDataFiles,
                                                          confidence, timePeriod );
-        double[] returns = VarUtils.getReturnsFromFile( prevStockData );
+        double[] returns = ReturnSeriesCache.getInstance().getReturns( prevStockData );
         int position = returns.length - 1 - numberOfDaysToTest;
         double[] estimations = modelBuilding.computeForBackTesting( returns, numberOfDaysToTest );
         output += "Backtesting Model Building:\n";
@@ -62,8 +62,9 @@ public class BackTesting
         Portfolio portfolioWithOneStock = getPortfolioWithOneStock();
         HistoricalSimulation hs = new HistoricalSimulation( portfolioWithOneStock, confidence );
         double[] estimations = hs.estimateVaRForBackTestingOneStock( numberOfDaysToTest );
-        double[] allReturns = VarUtils.getReturnsFromFile( portfolioWithOneStock.getStockPriceDataFiles()
-                                                                                .get( 0 ) );
+        double[] allReturns = ReturnSeriesCache.getInstance()
+                                               .getReturns( portfolioWithOneStock.getStockPriceDataFiles()
+                                                                                 .get( 0 ) );
         int position = allReturns.length - 1 - numberOfDaysToTest;
         output += "Backtesting Historical Simulation:\n";
         compareEstimationsWithActualLosses_OneStock( estimations, allReturns, position,
@@ -75,8 +76,9 @@ public class BackTesting
     {
         Portfolio portfolioWithOneStock = getPortfolioWithOneStock();
         MonteCarloSimulation mc = new MonteCarloSimulation( portfolioWithOneStock, confidence, 10 );
-        double[] allReturns = VarUtils.getReturnsFromFile( portfolioWithOneStock.getStockPriceDataFiles()
-                                                                                .get( 0 ) );
+        double[] allReturns = ReturnSeriesCache.getInstance()
+                                               .getReturns( portfolioWithOneStock.getStockPriceDataFiles()
+                                                                                 .get( 0 ) );
         mc.setTimePeriod( 1 );
         double[] estimations = mc.estimateVaRForBacktesting_OneStock( numberOfDaysToTest );
         int position = allReturns.length - 1 - numberOfDaysToTest;
@@ -107,7 +109,7 @@ public class BackTesting
         ModelBuilding mb = new ModelBuilding( portfolio, confidence, timePeriod );
         File data = portfolio.getAssets().get( 0 ).getData();
         double value = portfolio.getAssets().get( 0 ).getInvestment();
-        double[] returns = VarUtils.getReturnsFromFile( data );
+        double[] returns = ReturnSeriesCache.getInstance().getReturns( data );
         int position = returns.length - 1 - numberOfDaysToTest;
         double[] estimations = mb.computeForBackTesting( returns, numberOfDaysToTest );
         compareEstimationsWithActualLosses_OneStock( estimations, returns, position, value );
@@ -120,8 +122,8 @@ public class BackTesting
         HistoricalSimulation hs = new HistoricalSimulation( portfolio, confidence );
         hs.setVarHorizon( timePeriod );
         double[] estimations = hs.estimateVaRForBackTestingOneStock( numberOfDaysToTest );
-        double[] allReturns = VarUtils.getReturnsFromFile( portfolio.getStockPriceDataFiles()
-                                                                    .get( 0 ) );
+        double[] allReturns = ReturnSeriesCache.getInstance()
+                                               .getReturns( portfolio.getStockPriceDataFiles().get( 0 ) );
         int position = allReturns.length - 1 - numberOfDaysToTest;
         compareEstimationsWithActualLosses_OneStock( estimations, allReturns, position,
                                                      portfolio.getAssetsValue() );
@@ -133,8 +135,8 @@ public class BackTesting
         output += "Backtesting Monte Carlo Simulation:\n";
 
         MonteCarloSimulation mc = new MonteCarloSimulation( portfolio, confidence, timePeriod );
-        double[] allReturns = VarUtils.getReturnsFromFile( portfolio.getStockPriceDataFiles()
-                                                                    .get( 0 ) );
+        double[] allReturns = ReturnSeriesCache.getInstance()
+                                               .getReturns( portfolio.getStockPriceDataFiles().get( 0 ) );
         mc.setTimePeriod( 1 );
         double[] estimations = mc.estimateVaRForBacktesting_OneStock( numberOfDaysToTest );
         int position = allReturns.length - 1 - numberOfDaysToTest;
@@ -3,28 +3,109 @@ package com.nm.var.src;
 /**
  * Class implementing the Binomial Tree option pricing algorithm.
  * Can be initialised with an {@link Option} or separate values.
+ * <p>
+ * The lattice is rolled back one step at a time in a single array of option values, so pricing
+ * takes time proportional to the square of the number of steps but memory proportional to the
+ * number of steps, and nothing is printed.
+ * <p>
+ * An accelerated tree corrects the price of an American option by the error the same lattice makes
+ * on the corresponding European option, whose exact price Black-Scholes gives, and extrapolates
+ * the corrected prices of lattices of n and 2n steps to an infinite number of steps (Richardson
+ * extrapolation). It is about as accurate with ACCELERATED_STEPS steps as a plain tree with
+ * thousands.
+ * <p>
+ * The moves default to those of Cox, Ross and Rubinstein, whose price oscillates as the number of
+ * steps changes. A Leisen-Reimer lattice instead converges smoothly, as 1 / steps^2 for a European
+ * option, and prices to about a cent with 51 to 101 steps. Its price is already smooth in the
+ * number of steps, so an accelerated Leisen-Reimer tree is only corrected by the control variate.
  */
 public class BinomialTree
 {
-    private double S, X, T, volatility, interest;
-    private int    optionType;
-    /** The time step. One day is desirable. */
-    // private int n = 1;
-    private int      numberOfSteps;
-    private double   dt;
-    private double   p;
-    private double   optionPrice;
+    /** Fewest steps chosen by default, which prices short options to about a cent. */
+    public static final int MINIMUM_STEPS     = 100;
+    /** Most steps chosen by default, which prices to well within a cent for usual options. */
+    public static final int MAXIMUM_STEPS     = 500;
+    /** Steps of the coarser lattice of an accelerated tree chosen by default. */
+    public static final int ACCELERATED_STEPS = 50;
+    private double          S, X, T, volatility, interest;
+    private int             optionType;
+    private int             numberOfSteps;
+    /** Parameterisation of the up and down moves. */
+    private LatticeType     latticeType;
+    /** True to correct by the European price and extrapolate from n and 2n steps. */
+    private boolean         accelerated;
+    private double          dt;
+    private double          p;
+    private double          optionPrice;
 
     /**
-     * Constructor to initialise a binomial tree using parameters of an option
+     * Constructor to initialise a binomial tree using parameters of an option, with the default
+     * number of steps (see {@link #getDefaultSteps(double)}).
      * @param s initial stock price
      * @param x strike price
-     * @param t in years, time to maturity
+     * @param t in days, time to maturity
+     * @param volatility of the underlying asset, daily
+     * @param interest rate of option, daily
+     * @param type of option
+     */
+    public BinomialTree( double s, double x, double t, double volatility, double interest, int type )
+    {
+        this( s, x, t, volatility, interest, type, getDefaultSteps( t ) );
+    }
+
+    /**
+     * Constructor to initialise a binomial tree with a chosen number of steps.
+     * @param s initial stock price
+     * @param x strike price
+     * @param t time to maturity, in the unit of the volatility and interest rate
      * @param volatility of the underlying asset
      * @param interest rate of option
      * @param type of option
+     * @param numberOfSteps number of time steps to maturity, at least 1
      */
-    public BinomialTree( double s, double x, double t, double volatility, double interest, int type )
+    public BinomialTree( double s, double x, double t, double volatility, double interest,
+                         int type, int numberOfSteps )
+    {
+        this( s, x, t, volatility, interest, type, numberOfSteps, false );
+    }
+
+    /**
+     * Constructor to initialise a Cox-Ross-Rubinstein binomial tree, accelerated or not, with a
+     * chosen number of steps.
+     * @param s initial stock price
+     * @param x strike price
+     * @param t time to maturity, in the unit of the volatility and interest rate
+     * @param volatility of the underlying asset
+     * @param interest rate of option
+     * @param type of option
+     * @param numberOfSteps number of time steps to maturity, at least 1, of the coarser lattice
+     *            if accelerated
+     * @param accelerated true to correct the price by the control variate and extrapolate it
+     */
+    public BinomialTree( double s, double x, double t, double volatility, double interest,
+                         int type, int numberOfSteps, boolean accelerated )
+    {
+        this( s, x, t, volatility, interest, type, numberOfSteps,
+              LatticeType.COX_ROSS_RUBINSTEIN, accelerated );
+    }
+
+    /**
+     * Constructor to initialise a binomial tree of a chosen lattice type.
+     * @param s initial stock price
+     * @param x strike price
+     * @param t time to maturity, in the unit of the volatility and interest rate
+     * @param volatility of the underlying asset
+     * @param interest rate of option
+     * @param type of option
+     * @param numberOfSteps number of time steps to maturity, at least 1, of the coarser lattice
+     *            if accelerated; rounded up to an odd number for a Leisen-Reimer lattice, and to
+     *            an even number for an accelerated Cox-Ross-Rubinstein one
+     * @param latticeType parameterisation of the up and down moves
+     * @param accelerated true to correct the price by the control variate, and extrapolate it on a
+     *            Cox-Ross-Rubinstein lattice
+     */
+    public BinomialTree( double s, double x, double t, double volatility, double interest,
+                         int type, int numberOfSteps, LatticeType latticeType, boolean accelerated )
     {
         S = s;
         X = x;
@@ -32,55 +113,123 @@ public class BinomialTree
         this.volatility = volatility;
         this.interest = interest;
         this.optionType = type;
+        this.numberOfSteps = Math.max( numberOfSteps, 1 );
+        if( latticeType == LatticeType.LEISEN_REIMER )
+        {
+            this.numberOfSteps |= 1;
+        }
+        else if( accelerated )
+        {
+            // the price oscillates between odd and even steps, so n and 2n must both be even
+            this.numberOfSteps += this.numberOfSteps & 1;
+        }
+        this.latticeType = latticeType;
+        this.accelerated = accelerated;
         buildStockPriceTree();
     }
 
     /**
-     * Constructor to initialise a binomial tree using an option.
-     * Infers parameters from the option.
+     * Constructor to initialise a binomial tree using an option, with the default number of
+     * steps. Infers parameters from the option.
      * @param option the option to price
      */
     public BinomialTree( Option option )
     {
-        this.S = option.getInitialStockPrice();
-        this.X = option.getStrike();
-        this.T = option.getTimeToMaturity(); // in days
-        this.volatility = option.getDailyVolatility();
-        this.interest = option.getInterest();
-        this.optionType = option.getOptionType();
-        buildStockPriceTree();
+        this( option.getInitialStockPrice(), option.getStrike(),
+              option.getTimeToMaturity(), // in days
+              option.getDailyVolatility(), option.getInterest(), option.getOptionType() );
     }
-    
+
     /**
-     * Builds the binomial tree with stock prices going up and down.
+     * Prices an option with an accelerated tree of ACCELERATED_STEPS steps, at a given stock
+     * price and time to maturity rather than the option's own.
+     * @param option the option to price, giving the strike, volatility, interest rate and type
+     * @param stockPrice the price of the stock
+     * @param days time to maturity in days
+     * @return the priced tree
      */
-    public void buildStockPriceTree()
+    public static BinomialTree accelerated( Option option, double stockPrice, double days )
     {
-        double u, d;
+        return new BinomialTree( stockPrice, option.getStrike(), days, option.getDailyVolatility(),
+                                 option.getInterest(), option.getOptionType(), ACCELERATED_STEPS,
+                                 true );
+    }
 
-        // p is probability of up move, 1-p probability of down move
+    /**
+     * @param days time to maturity in days
+     * @return one step per day, between MINIMUM_STEPS and MAXIMUM_STEPS
+     */
+    public static int getDefaultSteps( double days )
+    {
+        return (int) Math.min( Math.max( Math.ceil( days ), MINIMUM_STEPS ), MAXIMUM_STEPS );
+    }
 
-        // convert T to days
-        // double days = T * DAYS_IN_YEAR;
-        // int monthlySteps = (int) days / DAYS_IN_MONTH;
+    /**
+     * Builds the binomial tree with stock prices going up and down, and prices the option on it.
+     */
+    public void buildStockPriceTree()
+    {
+        // u >= 1 and 0 < d <= 1 only if the volatility is not negative
+        if( volatility < 0 )
+        {
+            // no lattice for a negative volatility, the price is left at 0
+            optionPrice = 0.0;
+            return;
+        }
+        if( !accelerated )
+        {
+            optionPrice = calculateOptionPrice( numberOfSteps, isAmerican() );
+            return;
+        }
+        if( latticeType == LatticeType.LEISEN_REIMER )
+        {
+            // 2n steps would be even, and the error is already smooth and small
+            optionPrice = getCorrectedPrice( numberOfSteps );
+            return;
+        }
+        // the error of a lattice falls roughly as 1 / steps, so 2 P(2n) - P(n) cancels most of it
+        double coarse = getCorrectedPrice( numberOfSteps );
+        double fine = getCorrectedPrice( 2 * numberOfSteps );
+        optionPrice = 2 * fine - coarse;
+    }
 
-        // dailySteps = days / day in year
-        int numberOfDays = (int) Math.floor( T * 252 );
+    /**
+     * Prices the option on a lattice, correcting the price of an American option by the error the
+     * lattice makes on the European one: fA + fBS - fE.
+     * @param steps number of time steps
+     * @return the corrected price
+     */
+    private double getCorrectedPrice( int steps )
+    {
+        double european = calculateOptionPrice( steps, false );
+        if( !isAmerican() )
+        {
+            return european;
+        }
+        int flag = isCall() ? BlackScholes.CALL : BlackScholes.PUT;
+        double blackScholes = new BlackScholes().compute( flag, S, X, T, interest, volatility );
+        return calculateOptionPrice( steps, true ) + blackScholes - european;
+    }
+
+    /**
+     * Calculates the option price by rolling a lattice back from maturity. After the step to
+     * day column, values[row] holds the option value at the node reached by row down moves, and
+     * prices[row] the stock price there, S * u^(column - row) * d^row.
+     * @param steps number of time steps
+     * @param american true to allow early exercise
+     * @return the price of the option
+     */
+    private double calculateOptionPrice( int steps, boolean american )
+    {
+        // p is probability of up move, 1-p probability of down move
 
         // dt = T / steps
-        dt = T / numberOfDays;
+        dt = T / steps;
 
         // http://en.wikipedia.org/wiki/Binomial_options_pricing_model
 
-        u = Math.exp( ( volatility * Math.sqrt( dt ) ) );
-        d = 1 / u;
-
-        // u >= 1, 0 < d <= 1
-        if( ( u < 1 ) || ( d < 0 ) || ( d > 1 ) )
-        {
-            System.out.println( "Error calculating u and d." );
-            return;
-        }
+        double u = Math.exp( ( volatility * Math.sqrt( dt ) ) );
+        double d = 1 / u;
 
         // p = (e^(rdt) - d) / (u-d) (between 0 and 1) if dt < (variance)/(r-q)^2
         double ert = Math.exp( interest * dt );
@@ -88,152 +237,97 @@ public class BinomialTree
         double uminusd = u - d;
         p = ertminusd / uminusd;
 
-        if( p < 0 || p > 1 )
+        double sigmaRootT = volatility * Math.sqrt( T );
+        if( latticeType == LatticeType.LEISEN_REIMER && sigmaRootT > 0 )
         {
-            System.out.println( "Error: p = " + p );
+            // p and the probability p' of an up move under the stock measure invert N(d2) and
+            // N(d1), then u = e^(rdt) p' / p and d follows from the risk neutral drift
+            double d1 = ( Math.log( S / X ) + ( interest + volatility * volatility / 2 ) * T )
+                        / sigmaRootT;
+            double d2 = d1 - sigmaRootT;
+            p = invertNormal( d2, steps );
+            u = ert * invertNormal( d1, steps ) / p;
+            d = ( ert - p * u ) / ( 1 - p );
         }
+        // 1 / u moves a node back a step, d / u down a row
+        double back = 1 / u;
 
-        // numberOfSteps = (int) ( T * 12 ) + 1;
-        numberOfSteps = numberOfDays + 1;
-
-        double[][] tree = new double[numberOfSteps][numberOfSteps];
-        tree[0][0] = S;
-
-        for( int row = 0 ; row < numberOfSteps ; row++ )
-        {
-            int startDay = row;
-            for( int day = startDay ; day < numberOfSteps ; day++ )
-            {
-                if( row == 0 && day == 0 )
-                {
-                    continue;
-                }
-                else if( row == day )
-                {
-                    tree[row][day] = tree[row - 1][day - 1] * d;
-                    continue;
-                }
-                // up
-                tree[row][day] = tree[row][day - 1] * u;
-                // down
-            }
-        }
-
-        //printTree( tree );
-
-        calculateOptionPrices( tree );
-
-    }
-    
-    /**
-     * Calculates the option prices using a tree of stock prices.
-     * @param tree model of stock prices going up and down in a binomial tree
-     */
-    private void calculateOptionPrices( double[][] tree )
-    {
-        double[][] values = new double[tree.length][tree.length];
+        boolean call = isCall();
+        double[] values = new double[steps + 1];
+        double[] prices = new double[steps + 1];
 
         // compute values at final nodes
         // at each final node (expiration of Option) option value is intrinsic/exercise value
 
         // for Call - Max [(Sn - X), 0] Sn = price of stock on that day
         // for Put - Max [(X - Sn), 0]
-        for( int row = 0 ; row < numberOfSteps ; row++ )
+        prices[0] = S * Math.pow( u, steps );
+        for( int row = 0 ; row <= steps ; row++ )
         {
-            int column = numberOfSteps - 1;
-
-            switch( optionType )
+            if( row > 0 )
             {
-                case VarUtils.AMERICAN_CALL:
-                    values[row][column] = Math.max( ( tree[row][column] - X ), 0 );
-                    break;
-                case VarUtils.AMERICAN_PUT:
-                    values[row][column] = Math.max( ( X - tree[row][column] ), 0 );
-                    break;
-                case VarUtils.EUROPEAN_CALL:
-                    values[row][column] = Math.max( ( tree[row][column] - X ), 0 );
-                    break;
-                case VarUtils.EUROPEAN_PUT:
-                    values[row][column] = Math.max( ( X - tree[row][column] ), 0 );
-                    break;
+                prices[row] = prices[row - 1] * d * back;
             }
+            values[row] = getIntrinsicValue( prices[row], call );
         }
-        System.out.println( "-----------------------------------" );
-        printTree( values );
 
         double eMinusRT = Math.exp( -1.0 * interest * dt );
 
-        for( int column = numberOfSteps - 2 ; column >= 0 ; column-- )
+        for( int column = steps - 1 ; column >= 0 ; column-- )
         {
             for( int row = 0 ; row <= column ; row++ )
             {
-                double binomialValue = 0.0;
-                double intrinsicValue = 0.0;
-                switch( optionType )
+                double binomialValue = eMinusRT
+                                       * ( ( p * values[row] ) + ( 1 - p ) * values[row + 1] );
+                if( american )
                 {
-                    case VarUtils.AMERICAN_CALL:
-                        binomialValue = eMinusRT
-                                        * ( ( p * values[row][column + 1] ) + ( 1 - p )
-                                                                              * values[row + 1][column + 1] );
-                        // intrinsic value for call is Max(Sn - X, 0)
-                        intrinsicValue = Math.max( tree[row][column] - X, 0 );
-                        values[row][column] = Math.max( binomialValue, intrinsicValue );
-                        break;
-                    case VarUtils.AMERICAN_PUT:
-                        // early exercise possible, value = Max [Binomial Value, Exercise Value]
-                        binomialValue = eMinusRT
-                                        * ( ( p * values[row][column + 1] ) + ( 1 - p )
-                                                                              * values[row + 1][column + 1] );
-                        intrinsicValue = Math.max( X - tree[row][column], 0 );
-                        // intrinsic value for put is Max(X-Sn, 0)
-                        values[row][column] = Math.max( binomialValue, intrinsicValue );
-                        break;
-                    case VarUtils.EUROPEAN_CALL:
-                        // no option of early exercise, so binomial value applies
-                        binomialValue = eMinusRT
-                                        * ( ( p * values[row][column + 1] ) + ( 1 - p )
-                                                                              * values[row + 1][column + 1] );
-                        values[row][column] = binomialValue;
-                        break;
-                    case VarUtils.EUROPEAN_PUT:
-                        binomialValue = eMinusRT
-                                        * ( ( p * values[row][column + 1] ) + ( 1 - p )
-                                                                              * values[row + 1][column + 1] );
-                        values[row][column] = binomialValue;
-                        break;
+                    // early exercise possible, value = Max [Binomial Value, Exercise Value]
+                    prices[row] *= back;
+                    binomialValue = Math.max( binomialValue, getIntrinsicValue( prices[row], call ) );
                 }
+                // no option of early exercise for European options, so binomial value applies
+                values[row] = binomialValue;
             }
         }
-        System.out.println( "--------------------------------" );
-        printTree( values );
-        optionPrice = values[0][0];
+        return values[0];
+    }
+
+    /**
+     * Peizer-Pratt method 2 inversion, the probability of an up move of a lattice of n steps such
+     * that the binomial distribution approaches N(z).
+     * @param z the argument of the normal distribution
+     * @param n the number of steps, odd
+     * @return the probability, in (0, 1)
+     */
+    private static double invertNormal( double z, int n )
+    {
+        double ratio = z / ( n + 1.0 / 3 + 0.1 / ( n + 1 ) );
+        double root = Math.sqrt( 0.25 - 0.25 * Math.exp( -ratio * ratio * ( n + 1.0 / 6 ) ) );
+        return z < 0 ? 0.5 - root : 0.5 + root;
+    }
+
+    private boolean isAmerican()
+    {
+        return optionType == VarUtils.AMERICAN_CALL || optionType == VarUtils.AMERICAN_PUT;
+    }
+
+    private boolean isCall()
+    {
+        return optionType == VarUtils.AMERICAN_CALL || optionType == VarUtils.EUROPEAN_CALL;
     }
+
     /**
-     * Prints the tree as a 2D table for visualisation of computation.
-     * @param tree
+     * @return Max(Sn - X, 0) for a call, Max(X - Sn, 0) for a put, 0 for an unknown type
      */
-    private void printTree( double[][] tree )
+    private double getIntrinsicValue( double stockPrice, boolean call )
     {
-        for( int row = 0 ; row < tree[0].length ; row++ )
+        if( optionType < VarUtils.AMERICAN_PUT || optionType > VarUtils.EUROPEAN_CALL )
         {
-            for( int column = 0 ; column < tree.length ; column++ )
-            {
-                System.out.print( VarUtils.roundTwoDP( tree[row][column] ) + "\t" );
-            }
-            System.out.println();
+            return 0.0;
         }
+        return call ? Math.max( stockPrice - X, 0 ) : Math.max( X - stockPrice, 0 );
     }
 
-    // TODO control variate technique
-    /*
-     * 1. value American option use tree to get fA
-     * 2. value corresponding European option using same tree to get fE
-     * 3. value European option using Black-Scholes to get fBS
-     * 4. take fA + fBS - fE as estimate of price of American option
-     * 5. (fBS - fE) can be thought of as the error of the tree method,
-     * assume error for American option is the same.
-     */
-    
     /**
      * @return the final option price computed using the binomial tree method.
      */
@@ -242,4 +336,20 @@ public class BinomialTree
         return optionPrice;
     }
 
+    /**
+     * @return the number of time steps of the lattice
+     */
+    public int getNumberOfSteps()
+    {
+        return numberOfSteps;
+    }
+
+    /**
+     * @return the parameterisation of the up and down moves
+     */
+    public LatticeType getLatticeType()
+    {
+        return latticeType;
+    }
+
 }
@@ -1,5 +1,7 @@
 package com.nm.var.src;
 
+import java.util.concurrent.RecursiveAction;
+
 /**
  * A class to implement the Black-Scholes formula for calculating option prices.
  * 
@@ -9,9 +11,11 @@ package com.nm.var.src;
 public class BlackScholes
 {   
     /** Identifier of a call option. */
-    public static final int CALL = 0;
+    public static final int CALL           = 0;
     /** Identifier of a put option. */
-    public static final int PUT  = 1;
+    public static final int PUT            = 1;
+    /** Smallest batch split across the worker threads. */
+    static final int        PARALLEL_BATCH = 1 << 14;
     
     /** Empty constructor. */
     public BlackScholes()
@@ -54,4 +58,119 @@ public class BlackScholes
         else
             return -1.0;
     }
+
+    /**
+     * Computes the prices of a batch of European Call/Put options with the same strike, e.g. one
+     * option under many scenarios. The terms depending only on the maturity and volatility are
+     * computed once for each run of equal maturities and volatilities, and batches of at least
+     * PARALLEL_BATCH options are split across the {@link WorkerPool}. Each price is the one
+     * {@link #compute(int, double, double, double, double, double)} gives, to rounding.
+     * 
+     * @param flag 0 for call, 1 for put
+     * @param S starting price of each option
+     * @param X strike price of the options
+     * @param T time left to maturity of each option
+     * @param r risk-free interest rate
+     * @param v volatility of each option
+     * @param prices array receiving the price of each option, -1 for an unknown flag
+     */
+    public void compute( int flag, double[] S, double X, double[] T, double r, double[] v,
+                         double[] prices )
+    {
+        Batch batch = new Batch( flag, S, X, T, r, v, prices, 0, S.length );
+        if( S.length < PARALLEL_BATCH )
+        {
+            batch.computeRange();
+        }
+        else if( RecursiveAction.inForkJoinPool() )
+        {
+            batch.invoke();
+        }
+        else
+        {
+            WorkerPool.getInstance().invoke( batch );
+        }
+    }
+
+    /**
+     * Range of a batch of options, split in halves until small enough to price on one thread.
+     */
+    private static class Batch extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+        private final int         flag;
+        private final double[]    S, T, v, prices;
+        private final double      X, r;
+        private final int         from, to;
+
+        private Batch( int flag, double[] S, double X, double[] T, double r, double[] v,
+                       double[] prices, int from, int to )
+        {
+            this.flag = flag;
+            this.S = S;
+            this.X = X;
+            this.T = T;
+            this.r = r;
+            this.v = v;
+            this.prices = prices;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if( to - from <= PARALLEL_BATCH )
+            {
+                computeRange();
+            }
+            else
+            {
+                int middle = ( from + to ) >>> 1;
+                invokeAll( new Batch( flag, S, X, T, r, v, prices, from, middle ),
+                           new Batch( flag, S, X, T, r, v, prices, middle, to ) );
+            }
+        }
+
+        private void computeRange()
+        {
+            if( flag != CALL && flag != PUT )
+            {
+                for( int i = from ; i < to ; i++ )
+                {
+                    prices[i] = -1.0;
+                }
+                return;
+            }
+            // terms of the current maturity and volatility
+            double maturity = Double.NaN, volatility = Double.NaN;
+            double drift = 0.0, volatilityRoot = 0.0, discountedStrike = 0.0;
+            for( int i = from ; i < to ; i++ )
+            {
+                if( T[i] != maturity || v[i] != volatility )
+                {
+                    maturity = T[i];
+                    volatility = v[i];
+                    drift = ( r + volatility * volatility / 2 ) * maturity;
+                    volatilityRoot = volatility * Math.sqrt( maturity );
+                    discountedStrike = X * Math.exp( -r * maturity );
+                }
+                double d1 = ( Math.log( S[i] / X ) + drift ) / volatilityRoot;
+                double d2 = d1 - volatilityRoot;
+                // S n(d1) = X exp(-rT) n(d2), so the density at d2 needs no second exponential
+                double density1 = Math.exp( -0.5 * d1 * d1 );
+                double density2 = density1 * S[i] / discountedStrike;
+                if( flag == CALL )
+                {
+                    prices[i] = S[i] * VarUtils.CNDF( d1, density1 )
+                                - discountedStrike * VarUtils.CNDF( d2, density2 );
+                }
+                else
+                {
+                    prices[i] = discountedStrike * VarUtils.CNDF( -d2, density2 )
+                                - S[i] * VarUtils.CNDF( -d1, density1 );
+                }
+            }
+        }
+    }
 }
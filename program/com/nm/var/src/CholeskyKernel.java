@@ -0,0 +1,72 @@
+package com.nm.var.src;
+
+/**
+ * Correlates blocks of independent Gaussian shocks by applying the lower triangular Cholesky
+ * factor of a covariance matrix to all the scenarios of a block at once.
+ * <p>
+ * Blocks are flat arrays holding the shocks of one dimension for every scenario, then those of
+ * the next dimension, so the inner loop runs over consecutive scenarios. Only the lower triangle
+ * of the factor is used, and nothing is allocated when a block is correlated.
+ */
+public final class CholeskyKernel
+{
+    /** Number of assets, i.e. the size of the factor. */
+    private final int      dimension;
+    /** Lower triangle of the factor, row after row. */
+    private final double[] factor;
+
+    /**
+     * @param factor lower triangular matrix, e.g. from {@link VarUtils#decomposeMatrix(double[][])}
+     */
+    public CholeskyKernel( double[][] factor )
+    {
+        this.dimension = factor.length;
+        this.factor = new double[dimension * ( dimension + 1 ) / 2];
+        int index = 0;
+        for( int row = 0 ; row < dimension ; row++ )
+        {
+            for( int column = 0 ; column <= row ; column++ )
+            {
+                this.factor[index++] = factor[row][column];
+            }
+        }
+    }
+
+    /**
+     * @return the number of assets the factor correlates
+     */
+    public int getDimension()
+    {
+        return dimension;
+    }
+
+    /**
+     * Computes factor * shocks for each scenario of a block.
+     *
+     * @param shocks independent shocks, the shock of dimension i in scenario s at i * blockSize + s
+     * @param correlated array the size of shocks receiving the correlated shocks, in the same layout
+     * @param blockSize number of scenarios the arrays have room for
+     * @param numberOfScenarios number of scenarios to correlate, from the start of the block
+     */
+    public void apply( double[] shocks, double[] correlated, int blockSize, int numberOfScenarios )
+    {
+        int index = 0;
+        for( int row = 0 ; row < dimension ; row++ )
+        {
+            int rowOffset = row * blockSize;
+            for( int s = 0 ; s < numberOfScenarios ; s++ )
+            {
+                correlated[rowOffset + s] = 0.0;
+            }
+            for( int column = 0 ; column <= row ; column++ )
+            {
+                double weight = factor[index++];
+                int columnOffset = column * blockSize;
+                for( int s = 0 ; s < numberOfScenarios ; s++ )
+                {
+                    correlated[rowOffset + s] += weight * shocks[columnOffset + s];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.nm.var.src;
+
+/**
+ * Enumeration of the ways a covariance matrix of returns can be estimated.
+ */
+public enum CovarianceMethod
+{
+    /** Equally weighted sample covariance of each pair of series. */
+    SAMPLE,
+    /** Exponentially weighted moving average, placing higher weight on recent returns. */
+    EWMA;
+}
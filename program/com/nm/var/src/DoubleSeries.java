@@ -0,0 +1,217 @@
+package com.nm.var.src;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A growable series of primitive doubles, used in place of {@code ArrayList<Double>} for
+ * investments, prices and simulated values so that loops over them do not unbox every element.
+ * <p>
+ * Bulk operations work directly on the backing array.
+ */
+public class DoubleSeries
+{
+    /** Number of elements a series created without a capacity can hold before growing. */
+    private static final int DEFAULT_CAPACITY = 16;
+    /** Backing array, of which the first size elements are in use. */
+    private double[]         values;
+    /** Number of elements in the series. */
+    private int              size;
+
+    /**
+     * Creates an empty series.
+     */
+    public DoubleSeries()
+    {
+        this( DEFAULT_CAPACITY );
+    }
+
+    /**
+     * Creates an empty series which can hold some elements before growing.
+     *
+     * @param capacity number of elements to allocate room for
+     */
+    public DoubleSeries( int capacity )
+    {
+        values = new double[Math.max( capacity, 1 )];
+    }
+
+    /**
+     * Creates a series holding the given values. The array is used directly, not copied.
+     *
+     * @param values the values of the series
+     */
+    public DoubleSeries( double[] values )
+    {
+        this.values = values;
+        this.size = values.length;
+    }
+
+    /**
+     * @param list list of values to copy
+     * @return a series holding the same values as the list
+     */
+    public static DoubleSeries valueOf( List<Double> list )
+    {
+        DoubleSeries series = new DoubleSeries( list.size() );
+        for( Double value : list )
+        {
+            series.add( value );
+        }
+        return series;
+    }
+
+    /**
+     * Adds a value at the end of the series.
+     *
+     * @param value the value to add
+     */
+    public void add( double value )
+    {
+        if( size == values.length )
+        {
+            // a series wrapping an empty array has no room to double
+            values = Arrays.copyOf( values, Math.max( size * 2, DEFAULT_CAPACITY ) );
+        }
+        values[size++] = value;
+    }
+
+    /**
+     * @param index position in the series
+     * @return the value at that position
+     */
+    public double get( int index )
+    {
+        if( index >= size )
+        {
+            throw new IndexOutOfBoundsException( "Index: " + index + ", Size: " + size );
+        }
+        return values[index];
+    }
+
+    /**
+     * @param index position in the series
+     * @param value the value to store at that position
+     */
+    public void set( int index, double value )
+    {
+        if( index >= size )
+        {
+            throw new IndexOutOfBoundsException( "Index: " + index + ", Size: " + size );
+        }
+        values[index] = value;
+    }
+
+    /**
+     * @return the number of values in the series
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * @return true if the series holds no values
+     */
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    /**
+     * Removes every value from the series.
+     */
+    public void clear()
+    {
+        size = 0;
+    }
+
+    /**
+     * @return a copy of the values of the series
+     */
+    public double[] toArray()
+    {
+        return Arrays.copyOf( values, size );
+    }
+
+    /**
+     * @return the sum of the values
+     */
+    public double sum()
+    {
+        double sum = 0.0;
+        for( int i = 0 ; i < size ; i++ )
+        {
+            sum += values[i];
+        }
+        return sum;
+    }
+
+    /**
+     * @param other series of the same size
+     * @return the sum of the products of the values at the same positions in both series
+     */
+    public double dot( DoubleSeries other )
+    {
+        return dot( other.values, other.size );
+    }
+
+    /**
+     * @param other array holding at least as many values as the series
+     * @return the sum of the products of the values at the same positions
+     */
+    public double dot( double[] other )
+    {
+        return dot( other, other.length );
+    }
+
+    private double dot( double[] other, int otherSize )
+    {
+        if( otherSize != size )
+        {
+            throw new IllegalArgumentException( "Series sizes differ: " + size + ", " + otherSize );
+        }
+        double sum = 0.0;
+        for( int i = 0 ; i < size ; i++ )
+        {
+            sum += values[i] * other[i];
+        }
+        return sum;
+    }
+
+    /**
+     * @param factor number to multiply each value by
+     * @return a new series holding the scaled values
+     */
+    public DoubleSeries scale( double factor )
+    {
+        double[] scaled = new double[size];
+        for( int i = 0 ; i < size ; i++ )
+        {
+            scaled[i] = values[i] * factor;
+        }
+        return new DoubleSeries( scaled );
+    }
+
+    /**
+     * Computes the natural log of the ratio of each value to the next one, which for a series of
+     * prices ordered most recent first gives the daily returns.
+     *
+     * @return an array of size() - 1 log differences
+     */
+    public double[] logDiff()
+    {
+        double[] differences = new double[size - 1];
+        for( int i = 0 ; i < differences.length ; i++ )
+        {
+            differences[i] = Math.log( values[i] / values[i + 1] );
+        }
+        return differences;
+    }
+
+    @Override
+    public String toString()
+    {
+        return Arrays.toString( toArray() );
+    }
+}
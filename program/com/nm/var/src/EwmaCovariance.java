@@ -0,0 +1,138 @@
+package com.nm.var.src;
+
+import java.util.ArrayList;
+
+/**
+ * Builds the covariance and correlation matrices of a set of assets using an exponentially
+ * weighted moving average of the products of their returns:<br>
+ * covariance(i, j) = sum over days t of weight(t) * return(i, t) * return(j, t)<br>
+ * where weight(t) = (1 - lambda) * lambda^t, normalised so the weights add up to 1, and t = 0 is
+ * the most recent day. Returns are assumed to have a mean of zero.
+ * <p>
+ * Each series is scaled by the square root of the weights once, so every element of the matrix
+ * is a plain dot product of two scaled series, computed by {@link SymmetricProducts}.
+ */
+public class EwmaCovariance
+{
+    /** Decay factor used when none is given. */
+    public static final double DEFAULT_LAMBDA = 0.94;
+    /** The decay factor. */
+    private final double       lambda;
+
+    /**
+     * Creates a builder using the default decay factor.
+     */
+    public EwmaCovariance()
+    {
+        this( DEFAULT_LAMBDA );
+    }
+
+    /**
+     * @param lambda the decay factor, between 0 and 1
+     */
+    public EwmaCovariance( double lambda )
+    {
+        this.lambda = lambda;
+    }
+
+    /**
+     * Computes the covariance matrix of several series of returns, using the number of days
+     * common to all of them.
+     *
+     * @param returnList series of returns, most recent first, one for each asset
+     * @return matrix where [x][y] is the covariance between asset x and asset y
+     */
+    public double[][] getCovarianceMatrix( ArrayList<double[]> returnList )
+    {
+        double[][] returns = returnList.toArray( new double[returnList.size()][] );
+        int numberOfDays = Integer.MAX_VALUE;
+        for( double[] series : returns )
+        {
+            numberOfDays = Math.min( numberOfDays, series.length );
+        }
+        return getCovarianceMatrix( returns, returns.length == 0 ? 0 : numberOfDays );
+    }
+
+    /**
+     * Computes the covariance matrix of several series of returns.
+     *
+     * @param returns series of returns, most recent first, one for each asset
+     * @param numberOfDays number of days to use from the start of each series
+     * @return matrix where [x][y] is the covariance between asset x and asset y
+     */
+    public double[][] getCovarianceMatrix( double[][] returns, int numberOfDays )
+    {
+        int numberOfAssets = returns.length;
+        double[] weights = getRootWeights( numberOfDays );
+
+        // one contiguous run of scaled returns per asset
+        double[] scaled = new double[numberOfAssets * numberOfDays];
+        for( int asset = 0 ; asset < numberOfAssets ; asset++ )
+        {
+            double[] series = returns[asset];
+            int offset = asset * numberOfDays;
+            for( int day = 0 ; day < numberOfDays ; day++ )
+            {
+                scaled[offset + day] = series[day] * weights[day];
+            }
+        }
+        return SymmetricProducts.compute( scaled, numberOfAssets, numberOfDays );
+    }
+
+    /**
+     * @return the square root of the normalised weight of each day
+     */
+    private double[] getRootWeights( int numberOfDays )
+    {
+        double[] weights = new double[numberOfDays];
+        double weight = 1 - lambda;
+        double total = 0.0;
+        for( int day = 0 ; day < numberOfDays ; day++ )
+        {
+            weights[day] = weight;
+            total += weight;
+            weight *= lambda;
+        }
+        for( int day = 0 ; day < numberOfDays ; day++ )
+        {
+            weights[day] = Math.sqrt( weights[day] / total );
+        }
+        return weights;
+    }
+
+    /**
+     * Converts a covariance matrix into a correlation matrix.
+     *
+     * @param covariances symmetric matrix of covariances
+     * @return matrix where [x][y] is the correlation between asset x and asset y
+     */
+    public static double[][] getCorrelationMatrix( double[][] covariances )
+    {
+        int numberOfAssets = covariances.length;
+        double[] deviations = new double[numberOfAssets];
+        for( int asset = 0 ; asset < numberOfAssets ; asset++ )
+        {
+            deviations[asset] = Math.sqrt( covariances[asset][asset] );
+        }
+        double[][] correlations = new double[numberOfAssets][numberOfAssets];
+        for( int x = 0 ; x < numberOfAssets ; x++ )
+        {
+            correlations[x][x] = 1.0;
+            for( int y = x + 1 ; y < numberOfAssets ; y++ )
+            {
+                double correlation = covariances[x][y] / ( deviations[x] * deviations[y] );
+                correlations[x][y] = correlation;
+                correlations[y][x] = correlation;
+            }
+        }
+        return correlations;
+    }
+
+    /**
+     * @return the decay factor
+     */
+    public double getLambda()
+    {
+        return lambda;
+    }
+}
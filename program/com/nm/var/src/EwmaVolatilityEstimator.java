@@ -0,0 +1,44 @@
+package com.nm.var.src;
+
+/**
+ * Exponentially weighted moving average estimate of variance, placing higher weight on more recent
+ * returns.
+ * <p>
+ * The weights are those of the recursive calculation this class replaces: after n returns have
+ * been fed, the k-th most recent one (k from 0) is weighted by (1 - lambda) * lambda^(2k) and the
+ * initial variance by lambda^n. Both parts are kept separately so each update is O(1) without
+ * raising lambda to the power of the day.
+ */
+public class EwmaVolatilityEstimator extends VolatilityEstimator
+{
+    /** The decay factor. */
+    private final double lambda;
+    /** Weighted sum of the squared returns fed so far. */
+    private double       weightedSquares;
+    /** Initial variance, decayed by lambda for each return fed. */
+    private double       decayedInitialVariance;
+
+    /**
+     * @param lambda the decay factor, between 0 and 1
+     * @param initialVariance variance assumed before the first return
+     */
+    public EwmaVolatilityEstimator( double lambda, double initialVariance )
+    {
+        this.lambda = lambda;
+        this.decayedInitialVariance = initialVariance;
+    }
+
+    @Override
+    public void update( double dailyReturn )
+    {
+        weightedSquares = lambda * lambda * weightedSquares
+                          + ( 1 - lambda ) * dailyReturn * dailyReturn;
+        decayedInitialVariance *= lambda;
+    }
+
+    @Override
+    public double getVariance()
+    {
+        return weightedSquares + decayedInitialVariance;
+    }
+}
@@ -0,0 +1,383 @@
+package com.nm.var.src;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RecursiveTask;
+
+import org.apache.commons.math3.analysis.MultivariateFunction;
+import org.apache.commons.math3.exception.MathIllegalStateException;
+import org.apache.commons.math3.exception.TooManyEvaluationsException;
+import org.apache.commons.math3.optim.InitialGuess;
+import org.apache.commons.math3.optim.MaxEval;
+import org.apache.commons.math3.optim.PointValuePair;
+import org.apache.commons.math3.optim.nonlinear.scalar.GoalType;
+import org.apache.commons.math3.optim.nonlinear.scalar.ObjectiveFunction;
+import org.apache.commons.math3.optim.nonlinear.scalar.noderiv.NelderMeadSimplex;
+import org.apache.commons.math3.optim.nonlinear.scalar.noderiv.SimplexOptimizer;
+import org.apache.commons.math3.stat.StatUtils;
+
+/**
+ * Singleton estimator of the GARCH(1,1) parameters which best fit a series of returns, by
+ * maximising the likelihood of the returns under the model.
+ * <p>
+ * The long run variance is taken as the sample variance of the returns, so gamma = 1 - alpha -
+ * beta, and only alpha and beta are searched for. They are mapped to an unconstrained plane so
+ * the search never leaves 0 <= alpha, beta and alpha + beta < 1. The Nelder-Mead search is started
+ * from several points in parallel on the {@link WorkerPool} and the best fit is kept.
+ * <p>
+ * Fitted parameters are cached by a fingerprint of the returns, so the same series is only fitted
+ * once.
+ */
+public class GarchEstimator
+{
+    /** Single instance of the estimator used by all models. */
+    private static final GarchEstimator instance           = new GarchEstimator();
+    /** Fewest returns a series needs for the fitted parameters to be used. */
+    public static final int             MIN_RETURNS        = 50;
+    /** Number of fitted series kept before the least recently used are forgotten. */
+    private static final int            MAX_ENTRIES        = 4096;
+    /** Greatest alpha + beta searched, keeping the long run variance weight above zero. */
+    private static final double         MAX_PERSISTENCE    = 0.9999;
+    /** Maximum number of evaluations of the likelihood in each search. */
+    private static final int            MAX_EVALUATIONS    = 2000;
+    /** Relative and absolute tolerance on the likelihood to stop a search. */
+    private static final double         TOLERANCE          = 1e-10;
+    /** Points (alpha, beta) the searches start from. */
+    private static final double[][]     STARTING_POINTS    = { { 0.05, 0.90 }, { 0.10, 0.85 },
+            { 0.03, 0.96 }, { 0.20, 0.70 }, { 0.15, 0.50 }, { 0.08, 0.60 } };
+    /** Fitted parameters keyed by fingerprint of the returns, in least recently used order. */
+    private final LinkedHashMap<Fingerprint, GarchParameters> fits;
+    /** Number of requests answered from the cache. */
+    private long                        hits;
+    /** Number of series which had to be fitted. */
+    private long                        misses;
+
+    /**
+     * Identifies a series of returns by its length and a 64-bit hash of its values.
+     */
+    private static final class Fingerprint
+    {
+        private final int  length;
+        private final long hash;
+
+        private Fingerprint( double[] returns, int length )
+        {
+            long hash = 0x9E3779B97F4A7C15L;
+            for( int i = 0 ; i < length ; i++ )
+            {
+                hash = mix( hash ^ Double.doubleToLongBits( returns[i] ) );
+            }
+            this.length = length;
+            this.hash = hash;
+        }
+
+        /** Finaliser of the MurmurHash3 64-bit hash, spreading every bit over the whole word. */
+        private static long mix( long value )
+        {
+            value = ( value ^ ( value >>> 33 ) ) * 0xFF51AFD7ED558CCDL;
+            value = ( value ^ ( value >>> 33 ) ) * 0xC4CEB9FE1A85EC53L;
+            return value ^ ( value >>> 33 );
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return (int) ( hash ^ ( hash >>> 32 ) );
+        }
+
+        @Override
+        public boolean equals( Object other )
+        {
+            if( !( other instanceof Fingerprint ) )
+            {
+                return false;
+            }
+            Fingerprint fingerprint = (Fingerprint) other;
+            return length == fingerprint.length && hash == fingerprint.hash;
+        }
+    }
+
+    /** Creates an estimator with an empty cache. */
+    private GarchEstimator()
+    {
+        fits = new LinkedHashMap<Fingerprint, GarchParameters>( 16, 0.75f, true );
+    }
+
+    /**
+     * @return the singleton instance of the estimator.
+     */
+    public static GarchEstimator getInstance()
+    {
+        return instance;
+    }
+
+    /**
+     * Gets the parameters which best fit the most recent returns of a series, fitting them only if
+     * the same returns have not been fitted before.
+     *
+     * @param returns series of returns, most recent first
+     * @param numberOfReturns number of returns to use from the start of the series
+     * @return the fitted parameters, or null if there are fewer than {@link #MIN_RETURNS} returns
+     *         or they cannot be fitted, as when they do not vary
+     */
+    public GarchParameters getParameters( double[] returns, int numberOfReturns )
+    {
+        if( numberOfReturns < MIN_RETURNS )
+        {
+            return null;
+        }
+        Fingerprint fingerprint = new Fingerprint( returns, numberOfReturns );
+        synchronized( this )
+        {
+            // series which cannot be fitted are cached as null, so they are not searched again
+            if( fits.containsKey( fingerprint ) )
+            {
+                hits++;
+                return fits.get( fingerprint );
+            }
+            misses++;
+        }
+
+        // fit outside the lock so other series can be fitted meanwhile
+        GarchParameters parameters = fit( returns, numberOfReturns );
+        synchronized( this )
+        {
+            fits.put( fingerprint, parameters );
+            Iterator<Map.Entry<Fingerprint, GarchParameters>> iterator = fits.entrySet().iterator();
+            while( fits.size() > MAX_ENTRIES )
+            {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+        return parameters;
+    }
+
+    /**
+     * Fits several series at once, spreading them across the cores.
+     *
+     * @param returnList series of returns, most recent first
+     * @return the fitted parameters of each series, null for series which are too short or
+     *         cannot be fitted
+     */
+    public List<GarchParameters> getParameters( List<double[]> returnList )
+    {
+        final List<RecursiveTask<GarchParameters>> tasks = new ArrayList<RecursiveTask<GarchParameters>>();
+        for( final double[] returns : returnList )
+        {
+            tasks.add( new RecursiveTask<GarchParameters>()
+            {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected GarchParameters compute()
+                {
+                    return getParameters( returns, returns.length );
+                }
+            } );
+        }
+        return WorkerPool.getInstance().invoke( new RecursiveTask<List<GarchParameters>>()
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected List<GarchParameters> compute()
+            {
+                invokeAll( tasks );
+                List<GarchParameters> parameters = new ArrayList<GarchParameters>( tasks.size() );
+                for( RecursiveTask<GarchParameters> task : tasks )
+                {
+                    parameters.add( task.join() );
+                }
+                return parameters;
+            }
+        } );
+    }
+
+    /**
+     * Searches for the parameters maximising the likelihood, from each starting point in parallel.
+     *
+     * @return the best fit, or null if the returns do not vary or no search finds a finite
+     *         likelihood
+     */
+    private GarchParameters fit( double[] returns, int numberOfReturns )
+    {
+        // oldest first, as the variance is updated through time
+        final double[] squaredReturns = new double[numberOfReturns];
+        for( int day = 0 ; day < numberOfReturns ; day++ )
+        {
+            double dailyReturn = returns[numberOfReturns - 1 - day];
+            squaredReturns[day] = dailyReturn * dailyReturn;
+        }
+        final double longRunVariance = StatUtils.variance( returns, 0, numberOfReturns );
+        if( !( longRunVariance > 0 ) )
+        {
+            // every variance of the model would be 0, so the likelihood is not defined
+            return null;
+        }
+
+        final List<RecursiveTask<PointValuePair>> searches = new ArrayList<RecursiveTask<PointValuePair>>();
+        for( final double[] start : STARTING_POINTS )
+        {
+            searches.add( new RecursiveTask<PointValuePair>()
+            {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected PointValuePair compute()
+                {
+                    return search( squaredReturns, longRunVariance, start );
+                }
+            } );
+        }
+        RecursiveTask<PointValuePair> best = new RecursiveTask<PointValuePair>()
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected PointValuePair compute()
+            {
+                invokeAll( searches );
+                PointValuePair best = null;
+                for( RecursiveTask<PointValuePair> search : searches )
+                {
+                    PointValuePair result = search.join();
+                    if( result != null && ( best == null || result.getValue() > best.getValue() ) )
+                    {
+                        best = result;
+                    }
+                }
+                return best;
+            }
+        };
+        // already on a worker when fitting several series at once
+        PointValuePair result = RecursiveTask.inForkJoinPool() ? best.invoke()
+                                                                : WorkerPool.getInstance()
+                                                                            .invoke( best );
+        if( result == null || Double.isNaN( result.getValue() )
+            || Double.isInfinite( result.getValue() ) )
+        {
+            return null;
+        }
+        double[] weights = toWeights( result.getPoint() );
+        return new GarchParameters( 1 - weights[0] - weights[1], weights[0], weights[1],
+                                    result.getValue() );
+    }
+
+    /**
+     * Runs a Nelder-Mead search from one starting point.
+     *
+     * @return the best point found, or null if the search did not converge
+     */
+    private static PointValuePair search( final double[] squaredReturns,
+                                          final double longRunVariance, double[] start )
+    {
+        MultivariateFunction likelihood = new MultivariateFunction()
+        {
+            @Override
+            public double value( double[] point )
+            {
+                double[] weights = toWeights( point );
+                return getLogLikelihood( squaredReturns, longRunVariance, weights[0], weights[1] );
+            }
+        };
+        SimplexOptimizer optimizer = new SimplexOptimizer( TOLERANCE, TOLERANCE );
+        try
+        {
+            return optimizer.optimize( new MaxEval( MAX_EVALUATIONS ),
+                                       new ObjectiveFunction( likelihood ), GoalType.MAXIMIZE,
+                                       new InitialGuess( toPoint( start[0], start[1] ) ),
+                                       new NelderMeadSimplex( 2 ) );
+        }
+        catch( TooManyEvaluationsException e )
+        {
+            // a flat or non-finite likelihood, the other starting points may still converge
+            return null;
+        }
+        catch( MathIllegalStateException e )
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Computes the Gaussian log likelihood of a series of returns under a GARCH(1,1) model, leaving
+     * out the constant terms.
+     *
+     * @param squaredReturns squared returns, oldest first
+     * @param longRunVariance the overall variance of the returns, also used as the first variance
+     * @param alpha weight of the previous squared return
+     * @param beta weight of the previous variance
+     * @return the log likelihood
+     */
+    static double getLogLikelihood( double[] squaredReturns, double longRunVariance, double alpha,
+                                    double beta )
+    {
+        double omega = ( 1 - alpha - beta ) * longRunVariance;
+        double variance = longRunVariance;
+        double logLikelihood = 0.0;
+        for( double squaredReturn : squaredReturns )
+        {
+            logLikelihood -= Math.log( variance ) + squaredReturn / variance;
+            variance = omega + alpha * squaredReturn + beta * variance;
+        }
+        return 0.5 * logLikelihood;
+    }
+
+    /**
+     * Maps a point of the search plane to weights alpha and beta with alpha, beta >= 0 and alpha +
+     * beta < 1.
+     */
+    private static double[] toWeights( double[] point )
+    {
+        double persistence = MAX_PERSISTENCE * logistic( point[0] );
+        double alpha = persistence * logistic( point[1] );
+        return new double[] { alpha, persistence - alpha };
+    }
+
+    /**
+     * @return the point of the search plane mapped to weights alpha and beta
+     */
+    private static double[] toPoint( double alpha, double beta )
+    {
+        double persistence = alpha + beta;
+        return new double[] { logit( persistence / MAX_PERSISTENCE ), logit( alpha / persistence ) };
+    }
+
+    private static double logistic( double x )
+    {
+        return 1 / ( 1 + Math.exp( -x ) );
+    }
+
+    private static double logit( double p )
+    {
+        return Math.log( p / ( 1 - p ) );
+    }
+
+    /**
+     * Forgets every fitted series. Statistics are kept.
+     */
+    public synchronized void clear()
+    {
+        fits.clear();
+    }
+
+    /**
+     * @return the number of requests answered from the cache
+     */
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    /**
+     * @return the number of series which had to be fitted
+     */
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+}
@@ -0,0 +1,78 @@
+package com.nm.var.src;
+
+/**
+ * Weights of a GARCH(1,1) model of variance:<br>
+ * variance = gamma * longRunVariance + alpha * previousReturn^2 + beta * previousVariance
+ */
+public class GarchParameters
+{
+    /** Weight of the long run variance. */
+    private final double gamma;
+    /** Weight of the previous squared return. */
+    private final double alpha;
+    /** Weight of the previous variance. */
+    private final double beta;
+    /** Log likelihood of the returns the parameters were fitted to, NaN if not fitted. */
+    private final double logLikelihood;
+
+    /**
+     * @param gamma weight of the long run variance
+     * @param alpha weight of the previous squared return
+     * @param beta weight of the previous variance
+     * @param logLikelihood log likelihood of the returns the parameters were fitted to
+     */
+    public GarchParameters( double gamma, double alpha, double beta, double logLikelihood )
+    {
+        this.gamma = gamma;
+        this.alpha = alpha;
+        this.beta = beta;
+        this.logLikelihood = logLikelihood;
+    }
+
+    /**
+     * @return the weight of the long run variance
+     */
+    public double getGamma()
+    {
+        return gamma;
+    }
+
+    /**
+     * @return the weight of the previous squared return
+     */
+    public double getAlpha()
+    {
+        return alpha;
+    }
+
+    /**
+     * @return the weight of the previous variance
+     */
+    public double getBeta()
+    {
+        return beta;
+    }
+
+    /**
+     * @param longRunVariance the overall variance of the series of returns
+     * @return the constant term of the model, gamma * longRunVariance
+     */
+    public double getOmega( double longRunVariance )
+    {
+        return gamma * longRunVariance;
+    }
+
+    /**
+     * @return the log likelihood of the returns the parameters were fitted to
+     */
+    public double getLogLikelihood()
+    {
+        return logLikelihood;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "gamma=" + gamma + ", alpha=" + alpha + ", beta=" + beta;
+    }
+}
@@ -0,0 +1,46 @@
+package com.nm.var.src;
+
+/**
+ * GARCH(1,1) estimate of variance:<br>
+ * variance = omega + alpha * previousReturn^2 + beta * previousVariance
+ * <p>
+ * omega is usually gamma * longRunVariance, where gamma = 1 - alpha - beta.
+ */
+public class GarchVolatilityEstimator extends VolatilityEstimator
+{
+    /** Constant term, the weighted long run variance. */
+    private final double omega;
+    /** Weight of the previous squared return. */
+    private final double alpha;
+    /** Weight of the previous variance. */
+    private final double beta;
+    /** Current estimate of the variance. */
+    private double       variance;
+
+    /**
+     * @param omega constant term, the weighted long run variance
+     * @param alpha weight of the previous squared return
+     * @param beta weight of the previous variance
+     * @param initialVariance variance assumed before the first return
+     */
+    public GarchVolatilityEstimator( double omega, double alpha, double beta,
+                                     double initialVariance )
+    {
+        this.omega = omega;
+        this.alpha = alpha;
+        this.beta = beta;
+        this.variance = initialVariance;
+    }
+
+    @Override
+    public void update( double dailyReturn )
+    {
+        variance = omega + alpha * dailyReturn * dailyReturn + beta * variance;
+    }
+
+    @Override
+    public double getVariance()
+    {
+        return variance;
+    }
+}
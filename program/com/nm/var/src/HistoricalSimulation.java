@@ -12,8 +12,8 @@ import java.util.Arrays;
  */
 public class HistoricalSimulation
 {
-    /** List of investments for a portfolio. */
-    private ArrayList<Double> portfolioValues;
+    /** Series of investments for a portfolio. */
+    private DoubleSeries      portfolioValues;
     /** List of stock data files for a portfolio. */
     private ArrayList<File>   stockPriceDataFiles;
     /** The confidence level to compute VaR for. */
@@ -28,6 +28,8 @@ public class HistoricalSimulation
     private int               varHorizon   = 1;
     /** An array to store the compute final and maximum VaRs from computation. */
     private double[]          finalMaxVars = new double[2];
+    /** How returns of assets are aligned on their dates, null to pair them by index. */
+    private MissingDataPolicy missingDataPolicy;
 
     /**
      * Constructor to initialise a Historical Simulation model using a list of investments, list of stock price data files and a confidence level.
@@ -39,7 +41,7 @@ public class HistoricalSimulation
     public HistoricalSimulation( ArrayList<Double> portfolioValues,
                                  ArrayList<File> stockPriceDataFiles, int confidence )
     {
-        this.portfolioValues = portfolioValues;
+        this.portfolioValues = DoubleSeries.valueOf( portfolioValues );
         this.stockPriceDataFiles = stockPriceDataFiles;
         this.confidence = confidence;
         this.numberOfStocks = portfolioValues.size();
@@ -76,7 +78,8 @@ public class HistoricalSimulation
         else
         {
 
-            ArrayList<double[]> portfolioReturns = VarUtils.getReturnsFromFiles( stockPriceDataFiles );
+            ArrayList<double[]> portfolioReturns = VarUtils.getReturnsFromFiles( stockPriceDataFiles,
+                                                                                  missingDataPolicy );
 
             /*
              * System.out.println( "Historical Simulation VaR (" + numberOfStocks
@@ -111,8 +114,7 @@ public class HistoricalSimulation
      */
     public double computeValueAtRisk_OneStock()
     {
-        double[] returns = VarUtils.getReturnsFromFile( stockPriceDataFiles
-                                                                           .get( 0 ) );
+        double[] returns = VarUtils.getReturnsFromFile( stockPriceDataFiles.get( 0 ) );
         return getVaROneStock( returns );
     }
     
@@ -123,8 +125,7 @@ public class HistoricalSimulation
      */
     private double getVaROneStock( double[] returns )
     {
-        Arrays.sort( returns );
-        double percentile = VarUtils.getPercentile( returns, confidence );
+        double percentile = Quantiles.getPercentile( returns, 100 - confidence );
         double var = portfolioValues.get( 0 )
                      - ( portfolioValues.get( 0 ) * Math.exp( percentile ) );
         return var;
@@ -145,16 +146,43 @@ public class HistoricalSimulation
 
         // should be the smallest of the lengths of the array of returns.
         int[] lengthsOfReturns = new int[numberOfStocks];
-        for( double[] arr : portfolioReturns )
+        for( int n = 0 ; n < numberOfStocks ; n++ )
         {
-            lengthsOfReturns[portfolioReturns.indexOf( arr )] = arr.length;
+            // cached arrays are shared, so the same file twice gives the same array twice
+            lengthsOfReturns[n] = portfolioReturns.get( n ).length;
         }
         Arrays.sort( lengthsOfReturns );
         int numberOfReturns = lengthsOfReturns[0];
 
         System.out.println( "\t Days of data from returns: " + numberOfReturns );
 
-        double[] possiblePortfolioValues = new double[numberOfReturns];
+        TailStatistics tail = getTailOfPortfolioValues( portfolioReturns, numberOfReturns );
+        double valueAtPercentile = tail.getQuantile();
+        double portfolioValue = portfolioValues.sum();
+        valueAtPercentile = portfolioValue - valueAtPercentile;
+        var = Math.round( Math.abs( valueAtPercentile ) );
+        finalMaxVars[0] = var;
+        double maxVar = portfolioValue - tail.getMinimum();
+        finalMaxVars[1] = maxVar;
+        return var;
+    }
+
+    /**
+     * Revalues the stocks in the portfolio under each day of historical returns, keeping only the
+     * values in the lower tail.
+     * @param portfolioReturns returns of each stock
+     * @param numberOfReturns number of days of returns common to all stocks
+     * @return statistics of the tail of the possible values of the stocks, one for each day of
+     *         returns
+     */
+    private TailStatistics getTailOfPortfolioValues( ArrayList<double[]> portfolioReturns,
+                                                     int numberOfReturns )
+    {
+        int numberOfStocks = portfolioReturns.size();
+        double[] investments = portfolioValues.toArray();
+        double[][] returnsOfStocks = portfolioReturns.toArray( new double[numberOfStocks][] );
+        TailHeap possiblePortfolioValues = TailHeap.forPercentile( numberOfReturns,
+                                                                   100 - confidence, 0 );
 
         // calculate overall value for each previous return
         for( int i = 0 ; i < numberOfReturns ; i++ )
@@ -162,26 +190,11 @@ public class HistoricalSimulation
             double possibleChange = 0.0;
             for( int n = 0 ; n < numberOfStocks ; n++ )
             {
-                possibleChange += portfolioValues.get( n )
-                                  * Math.exp( portfolioReturns.get( n )[i] );
+                possibleChange += investments[n] * Math.exp( returnsOfStocks[n][i] );
             }
-            possiblePortfolioValues[i] = possibleChange;
-        }
-
-        Arrays.sort( possiblePortfolioValues );
-
-        double valueAtPercentile = VarUtils.getPercentile( possiblePortfolioValues, confidence );
-        double portfolioValue = 0.0;
-        for( double value : portfolioValues )
-        {
-            portfolioValue += value;
+            possiblePortfolioValues.add( possibleChange );
         }
-        valueAtPercentile = portfolioValue - valueAtPercentile;
-        var = Math.round( Math.abs( valueAtPercentile ) );
-        finalMaxVars[0] = var;
-        double maxVar = portfolioValue - possiblePortfolioValues[0];
-        finalMaxVars[1] = maxVar;
-        return var;
+        return possiblePortfolioValues.getTailStatistics( 100 - confidence );
     }
 
     /** Computes VaR for portfolio. */
@@ -190,7 +203,7 @@ public class HistoricalSimulation
         double initialPortFolioValue = 0.0;
         double finalPortfolioValue = 0.0;
 
-        ArrayList<Double> investments = portfolio.getInvestments();
+        DoubleSeries investments = portfolio.getInvestments();
 
         double initialOptionsValue = 0.0;
 
@@ -205,36 +218,22 @@ public class HistoricalSimulation
 
         /***************** STOCKS *********************/
         // use previous functionality to compute final prices of the portfolio and options
-        ArrayList<double[]> portfolioReturns = VarUtils.getReturnsFromFiles( portfolio.getStockPriceDataFiles() );
+        ArrayList<double[]> portfolioReturns = VarUtils.getReturnsFromFiles( portfolio.getStockPriceDataFiles(),
+                                                                              missingDataPolicy );
         int numberOfStocks = portfolioReturns.size();
 
         // should be the smallest of the lengths of the array of returns.
         int[] lengthsOfReturns = new int[numberOfStocks];
-        for( double[] arr : portfolioReturns )
+        for( int n = 0 ; n < numberOfStocks ; n++ )
         {
-            lengthsOfReturns[portfolioReturns.indexOf( arr )] = arr.length;
+            // cached arrays are shared, so the same file twice gives the same array twice
+            lengthsOfReturns[n] = portfolioReturns.get( n ).length;
         }
         Arrays.sort( lengthsOfReturns );
         int numberOfReturns = lengthsOfReturns[0];
 
-        double[] possiblePortfolioValues = new double[numberOfReturns];
-
-        // calculate overall value for each previous return
-        for( int i = 0 ; i < numberOfReturns ; i++ )
-        {
-            double possibleChange = 0.0;
-            for( int n = 0 ; n < numberOfStocks ; n++ )
-            {
-                possibleChange += portfolioValues.get( n )
-                                  * Math.exp( portfolioReturns.get( n )[i] );
-            }
-            possiblePortfolioValues[i] = possibleChange;
-        }
-
-        Arrays.sort( possiblePortfolioValues );
-
-        double stocksValueAtPercentile = VarUtils.getPercentile( possiblePortfolioValues,
-                                                                 confidence );
+        TailStatistics tail = getTailOfPortfolioValues( portfolioReturns, numberOfReturns );
+        double stocksValueAtPercentile = tail.getQuantile();
 
         /***************** OPTIONS *********************/
         double optionsFinalValue = 0.0, optionsMinValue = 0.0;
@@ -248,7 +247,7 @@ public class HistoricalSimulation
         finalPortfolioValue = stocksValueAtPercentile + optionsFinalValue;
 
         double portfolioFinalVaR = initialPortFolioValue - finalPortfolioValue;
-        double portfolioMinValue = possiblePortfolioValues[0] + optionsMinValue;
+        double portfolioMinValue = tail.getMinimum() + optionsMinValue;
         double portfolioMaxVaR = initialPortFolioValue - portfolioMinValue;
 
         finalMaxVars[0] = Math.round( portfolioFinalVaR );
@@ -267,39 +266,54 @@ public class HistoricalSimulation
     {
         double[] finalMinOptionsValue = new double[2];
         // get returns from file
-        double[] returns = VarUtils.getReturnsFromFile( option.getPriceData() );
+        double[] returns = ReturnSeriesCache.getInstance().getReturns( option.getPriceData() );
         int numberOfReturns = returns.length;
-        ArrayList<Double> possibleOptionValues = new ArrayList<Double>();
-        // compute possible value change for each return in data
-        double historicalValue = 0.0;
-        double stockPrice = 0.0;
+        TailHeap possibleOptionValues = TailHeap.forPercentile( numberOfReturns, 100 - confidence,
+                                                                0 );
+        // the option is repriced on each day of the data until it matures
         int initialTimeToMaturity = option.getTimeToMaturity();
-        for( int i = 0 ; i < numberOfReturns ; i++ )
+        int numberOfDays = Math.min( numberOfReturns, Math.max( initialTimeToMaturity + 1, 0 ) );
+        if( VarUtils.BS.equals( optionPricingType ) )
+        {
+            int type = VarUtils.convertToCallOrPut( option.getOptionType() );
+            if( type == VarUtils.ERROR_VAL )
+            {
+                return finalMinOptionsValue;
+            }
+            // every day is priced in one batch
+            double[] stockPrices = new double[numberOfDays];
+            double[] maturities = new double[numberOfDays];
+            double[] volatilities = new double[numberOfDays];
+            for( int i = 0 ; i < numberOfDays ; i++ )
+            {
+                // TODO need to check if this is the right price used
+                stockPrices[i] = Math.exp( returns[i] ) * option.getInitialStockPrice();
+                maturities[i] = initialTimeToMaturity - i;
+                volatilities[i] = option.getDailyVolatility();
+            }
+            double[] historicalValues = new double[numberOfDays];
+            new BlackScholes().compute( type, stockPrices, option.getStrike(), maturities,
+                                        option.getInterest(), volatilities, historicalValues );
+            for( double historicalValue : historicalValues )
+            {
+                possibleOptionValues.add( historicalValue );
+            }
+        }
+        else
         {
-            // TODO need to check if this is the right price used
-            int currentTimeToMaturity = initialTimeToMaturity - i;
-            stockPrice = Math.exp( returns[i] ) * option.getInitialStockPrice();
-            if( currentTimeToMaturity >= 0 )
+            double historicalValue = 0.0;
+            for( int i = 0 ; i < numberOfDays ; i++ )
             {
+                int currentTimeToMaturity = initialTimeToMaturity - i;
+                double stockPrice = Math.exp( returns[i] ) * option.getInitialStockPrice();
                 switch( optionPricingType )
                 {
-                    case VarUtils.BS:
-                        int type = VarUtils.convertToCallOrPut( option.getOptionType() );
-                        if( type == VarUtils.ERROR_VAL )
-                        {
-                            return finalMinOptionsValue;
-                        }
-                        BlackScholes bs = new BlackScholes();
-                        historicalValue = bs.compute( type, stockPrice, option.getStrike(),
-                                                      currentTimeToMaturity,
-                                                      option.getInterest(),
-                                                      option.getDailyVolatility() );
-                        break;
                     case VarUtils.BT:
                         // update the initial price and maturity to today's value
                         option.setInitialStockPrice( stockPrice );
                         option.setTimeToMaturity( currentTimeToMaturity );
-                        BinomialTree bt = new BinomialTree( option );
+                        BinomialTree bt = BinomialTree.accelerated( option, stockPrice,
+                                                                    currentTimeToMaturity );
                         historicalValue = bt.getOptionPrice();
                         break;
                     case VarUtils.MC:
@@ -309,25 +323,13 @@ public class HistoricalSimulation
                         historicalValue = mc.priceOptionUsingMonteCarlo( option )[0];
                         break;
                 }
-
                 possibleOptionValues.add( historicalValue );
             }
-            else
-            {
-                break;
-            }
-        }
-        double[] values = new double[possibleOptionValues.size()];
-        for( int i = 0 ; i < possibleOptionValues.size() ; i++ )
-        {
-            values[i] = possibleOptionValues.get( i );
         }
-        // sort possible values
-        Arrays.sort( values );
-
         // select value from percentile
-        double valueAtPercentile = VarUtils.getPercentile( values, confidence );
-        double minValue = values[0];
+        TailStatistics tail = possibleOptionValues.getTailStatistics( 100 - confidence );
+        double valueAtPercentile = tail.getQuantile();
+        double minValue = tail.getMinimum();
         finalMinOptionsValue = new double[] { valueAtPercentile, minValue };
         return finalMinOptionsValue;
     }
@@ -355,7 +357,7 @@ public class HistoricalSimulation
      */
     public double[] estimateVaRForBackTestingOneStock( int numberOfDaysToTest )
     {
-        double[] returns = VarUtils.getReturnsFromFile( stockPriceDataFiles.get( 0 ) );
+        double[] returns = ReturnSeriesCache.getInstance().getReturns( stockPriceDataFiles.get( 0 ) );
         int numberOfReturnsToUse = returns.length - 1 - numberOfDaysToTest;
         double[] estimations = new double[numberOfDaysToTest];
 
@@ -377,4 +379,13 @@ public class HistoricalSimulation
     {
         return finalMaxVars;
     }
+
+    /**
+     * @param missingDataPolicy how to align the returns of assets on their dates, or null to pair
+     *            them by index
+     */
+    public void setMissingDataPolicy( MissingDataPolicy missingDataPolicy )
+    {
+        this.missingDataPolicy = missingDataPolicy;
+    }
 }
@@ -0,0 +1,15 @@
+package com.nm.var.src;
+
+/**
+ * Enumeration of the ways the moves of a binomial tree can be parameterised.
+ */
+public enum LatticeType
+{
+    /** Cox-Ross-Rubinstein, u = e^(volatility * sqrt(dt)) and d = 1 / u. */
+    COX_ROSS_RUBINSTEIN,
+    /**
+     * Leisen-Reimer, the probabilities inverting the normal distributions of Black-Scholes by
+     * the Peizer-Pratt method, on an odd number of steps centred on the strike.
+     */
+    LEISEN_REIMER;
+}
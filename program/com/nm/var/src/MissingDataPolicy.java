@@ -0,0 +1,21 @@
+package com.nm.var.src;
+
+/**
+ * Enumeration of the ways to align the returns of assets whose price files do not cover the same
+ * days, e.g. because of different holidays or date ranges.
+ */
+public enum MissingDataPolicy
+{
+    /** Keep only the days on which every asset has a price. */
+    INTERSECT,
+    /**
+     * Keep every day on which any asset has a price, carrying forward the last price of an asset
+     * on days it has none. Days before the history of any asset begins are dropped.
+     */
+    FORWARD_FILL,
+    /**
+     * Keep every day on which any asset has a price. An asset has a return of zero on days it has
+     * no price, including days outside its history.
+     */
+    ZERO_FILL;
+}
@@ -5,15 +5,14 @@ package com.nm.var.src;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Arrays;
 
 /**
  * This class implements the Model-Building Value at Risk model. 
  */
 public class ModelBuilding
 {
-    /** List of investments made. */
-    private ArrayList<Double> portfolioValues;
+    /** Series of investments made. */
+    private DoubleSeries      portfolioValues;
     /** List of historical price data files for assets in same order to investments. */
     private ArrayList<File>   stockPriceDataFiles;
     /** The confidence at which to compute VaR. */
@@ -24,6 +23,10 @@ public class ModelBuilding
     private double            zDelta;
     /** The number of assets currently held in this model. */
     private int               numberOfStocks;
+    /** The way covariances between assets are estimated. */
+    private CovarianceMethod  covarianceMethod = CovarianceMethod.SAMPLE;
+    /** How returns of assets are aligned on their dates, null to pair them by index. */
+    private MissingDataPolicy missingDataPolicy;
 
     /**
      * Initialises a Model-Building VaR model using a portfolio.
@@ -50,7 +53,7 @@ public class ModelBuilding
     public ModelBuilding( ArrayList<Double> portfolioValues,
                           ArrayList<File> stockPriceDataFiles, int confidence, int timePeriod )
     {
-        this.portfolioValues = portfolioValues;
+        this.portfolioValues = DoubleSeries.valueOf( portfolioValues );
         this.stockPriceDataFiles = stockPriceDataFiles;
         this.confidence = confidence;
         this.timePeriod = timePeriod;
@@ -75,13 +78,8 @@ public class ModelBuilding
      */
     public double computeForMultipleStocks()
     {
-        ArrayList<double[]> returnList = new ArrayList<double[]>();
-
-        for( File stockFile : stockPriceDataFiles )
-        {
-            double[] returnsFromFile = VarUtils.getReturnsFromFile( stockFile );
-            returnList.add( returnsFromFile );
-        }
+        ArrayList<double[]> returnList = VarUtils.getReturnsFromFiles( stockPriceDataFiles,
+                                                                        missingDataPolicy );
 
         double portfolioVariance = getPortfolioVariance( returnList );
 
@@ -101,17 +99,29 @@ public class ModelBuilding
     private double getPortfolioVariance( ArrayList<double[]> returnList )
     {
         double[][] covarianceMatrix = VarUtils.generateCovarianceMatrix(
-                                                                         returnList, numberOfStocks );
+                                                                         returnList, numberOfStocks,
+                                                                         covarianceMethod );
+
+        return getPortfolioVariance( portfolioValues.toArray(), covarianceMatrix );
+    }
 
+    /**
+     * Computes the variance of the change in value of a portfolio of assets over a day.
+     * @param values investments in the assets
+     * @param covarianceMatrix covariances of the daily returns of the assets
+     * @return total variance of the portfolio.
+     */
+    public static double getPortfolioVariance( double[] values, double[][] covarianceMatrix )
+    {
         double portfolioVariance = 0.0;
 
         for( int i = 0 ; i < covarianceMatrix.length ; i++ )
         {
-            for( int j = 0 ; j < covarianceMatrix[0].length ; j++ )
+            double[] covariances = covarianceMatrix[i];
+            for( int j = 0 ; j < covariances.length ; j++ )
             {
                 // value_stock1 * value_stock2 * covariance_stock1stock2
-                double x = portfolioValues.get( i ) * portfolioValues.get( j )
-                           * covarianceMatrix[i][j];
+                double x = values[i] * values[j] * covariances[j];
                 portfolioVariance += x;
             }
         }
@@ -130,7 +140,8 @@ public class ModelBuilding
      */
     public double computeForOneStock()
     {
-        double volatility = VarUtils.computeVolatility_Standard( VarUtils.getReturnsFromFile( stockPriceDataFiles.get( 0 ) ) );
+        double[] returns = ReturnSeriesCache.getInstance().getReturns( stockPriceDataFiles.get( 0 ) );
+        double volatility = VarUtils.computeVolatility_Standard( returns );
         double VaR = Math.round( getVaR( volatility, portfolioValues.get( 0 ) ) );
         return VaR;
     }
@@ -150,8 +161,7 @@ public class ModelBuilding
         // calculate one-day VaR for day+1 -> numberOfDaysToTest from returns to date
         for( int day = 0 ; day < numberOfDaysToTest ; day++ )
         {
-            double[] returnsToUse = Arrays.copyOf( returns, numberOfReturnsToUse );
-            double volatility = VarUtils.computeVolatility_GARCH( returnsToUse );
+            double volatility = VarUtils.computeVolatility_GARCH( returns, numberOfReturnsToUse );
             estimations[day] = getVaR( volatility, portfolioValue );
             numberOfReturnsToUse++;
         }
@@ -246,4 +256,21 @@ public class ModelBuilding
 
     }
    
+
+    /**
+     * @param covarianceMethod the way covariances between assets are estimated
+     */
+    public void setCovarianceMethod( CovarianceMethod covarianceMethod )
+    {
+        this.covarianceMethod = covarianceMethod;
+    }
+
+    /**
+     * @param missingDataPolicy how to align the returns of assets on their dates, or null to pair
+     *            them by index
+     */
+    public void setMissingDataPolicy( MissingDataPolicy missingDataPolicy )
+    {
+        this.missingDataPolicy = missingDataPolicy;
+    }
 }
@@ -8,8 +8,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Random;
 
-import org.apache.commons.math3.linear.MatrixUtils;
-import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.distribution.NormalDistribution;
 import org.apache.commons.math3.stat.StatUtils;
 
 /**
@@ -17,17 +16,34 @@ import org.apache.commons.math3.stat.StatUtils;
  */
 public class MonteCarloSimulation
 {
+    /** Most scenarios a run with a target precision simulates. */
+    public static final int     MAXIMUM_SIMULATIONS = 1 << 22;
+    /** Number of standard deviations covered by a 95% confidence interval. */
+    private static final double Z_95                = 1.96;
+    /** Most values a tail heap keeps when streaming, beyond which a t-digest is used. */
+    private static final int    MAXIMUM_HEAP_SIZE   = 1 << 20;
+    /** Compression of the t-digests used when streaming, fine enough for tail percentiles. */
+    private static final double DIGEST_COMPRESSION  = 1000;
+    /** Number of scenarios whose results are held at once when streaming. */
+    private static final int    STREAM_CHUNK        = 1 << 16;
+
     /** Final VaR computed using this model. */
     private double            monteCarloFinalVar;
     /** Maximum VaR experienced during the simulation. */
     private double            monteCarloMaximumVar;
     /**
      * Random number generator using to generate Gaussian (Normal) and regularly distributed random
-     * numbers for simulating prices.
+     * numbers for simulating prices, and the seeds of runs when no seed is set.
      */
-    private Random            rng                 = new Random();
-    /** List of investments in assets. */
-    private ArrayList<Double> portfolioValues;
+    private RandomGenerator   rng                 = new SplitMixRandom( new Random().nextLong() );
+    /** The generator of the random streams of the scenarios. */
+    private RandomAlgorithm   randomAlgorithm     = RandomAlgorithm.SPLIT_MIX;
+    /** Seed of every run, if set. */
+    private long              seed;
+    /** True if every run uses the same seed, so that its results can be reproduced. */
+    private boolean           seeded;
+    /** Series of investments in assets. */
+    private DoubleSeries      portfolioValues;
     /** List of historical stock price data, in same order as investments. */
     private ArrayList<File>   stockPriceDataFiles;
     /** Number of assets in the portfolio. */
@@ -42,6 +58,426 @@ public class MonteCarloSimulation
     private Portfolio         portfolio;
     /** The option pricing model selected by the user. */
     private String            optionPricingType;
+    /** The way covariances between assets are estimated. */
+    private CovarianceMethod  covarianceMethod    = CovarianceMethod.SAMPLE;
+    /** How returns of assets are aligned on their dates, null to pair them by index. */
+    private MissingDataPolicy missingDataPolicy;
+    /** The way the shocks of the scenarios are drawn. */
+    private VarianceReduction varianceReduction   = VarianceReduction.NONE;
+    /** True to correct the final VaR by the simulation error of the first order VaR. */
+    private boolean           controlVariate;
+    /** Half width of the confidence interval of the final VaR at which to stop, 0 to run them all. */
+    private double            targetPrecision;
+    /** Milliseconds a run with a target precision may last, 0 for no limit. */
+    private long              timeBudget;
+    /** Half width of the 95% confidence interval of the final VaR of the last run. */
+    private double            monteCarloPrecision;
+    /** True to draw scenarios from a scrambled Sobol sequence instead of pseudo-random numbers. */
+    private boolean           quasiRandom;
+    /** Fraction of the variance of the final VaR removed in the last run of several stocks. */
+    private double            varianceReductionAchieved;
+    /** True to draw the daily shocks of several stocks towards the losses of the portfolio. */
+    private boolean           importanceSampling;
+    /** True to summarise the scenarios of several stocks as they run instead of keeping them. */
+    private boolean           streaming;
+    /** True to revalue options on a price surface instead of a binomial tree per scenario. */
+    private boolean           priceSurface;
+    /** Interpolation error of the price surface of the last option priced on one. */
+    private double            priceSurfaceError;
+
+    /**
+     * Simulates correlated daily paths of every stock in the scenarios of a block, one day at a
+     * time, keeping only the running statistics of each path: its cumulative returns, the lowest
+     * value of the portfolio so far and, after the last day, its final value. Memory is that of
+     * one day of the block whatever the time period, and results go into arrays which grow as
+     * more scenarios are run.
+     */
+    private class PortfolioScenarios implements SimulationBlocks.Block
+    {
+        private final CholeskyKernel    kernel;
+        private final double[]          investments;
+        private final VarianceReduction reduction;
+        /** Quasi-random sequence to draw the shocks from, or null for pseudo-random numbers. */
+        private final SobolSequence     sobol;
+        /** Final and minimum values of the portfolio simulated in each scenario. */
+        private double[]                finalValues, minValues;
+        /** First order change in value of each scenario, the control variate, or null. */
+        private double[]                linearChanges;
+        /** Mean of the independent shocks over the time period under importance sampling, or null. */
+        private final double[]          shift;
+        /** The shift correlated and spread over the days, added to each daily return of a stock. */
+        private final double[]          dailyShift;
+        /** Half the squared length of the shift. */
+        private final double            halfSquaredShift;
+        /** Likelihood ratio of each scenario under importance sampling, or null. */
+        private double[]                weights;
+        /** Lowest final value of each block without the shift, under importance sampling. */
+        private double[]                blockMinima;
+        /** Index of the scenario whose results are held first, when streaming. */
+        private int                     first;
+
+        private PortfolioScenarios( CholeskyKernel kernel, double[] investments, SobolSequence sobol,
+                                    double[] shift )
+        {
+            this.kernel = kernel;
+            this.investments = investments;
+            this.reduction = varianceReduction;
+            this.sobol = sobol;
+            this.finalValues = new double[0];
+            this.minValues = new double[0];
+            this.linearChanges = controlVariate ? new double[0] : null;
+            this.shift = shift;
+            this.dailyShift = shift == null ? null : new double[shift.length];
+            double squaredShift = 0.0;
+            if( shift != null )
+            {
+                // shifting each day by shift / root(days) shifts the sum of the days by
+                // shift * root(days), i.e. by shift in units of its standard deviation
+                kernel.apply( shift, dailyShift, 1, 1 );
+                for( int stock = 0 ; stock < shift.length ; stock++ )
+                {
+                    dailyShift[stock] /= Math.sqrt( timePeriod );
+                    squaredShift += shift[stock] * shift[stock];
+                }
+                this.weights = new double[0];
+                this.blockMinima = new double[0];
+            }
+            this.halfSquaredShift = squaredShift / 2;
+        }
+
+        /**
+         * Makes room for the results of a number of scenarios from the first held, before they
+         * are simulated.
+         */
+        private void ensureCapacity( int numberOfScenarios )
+        {
+            if( finalValues.length < numberOfScenarios )
+            {
+                finalValues = Arrays.copyOf( finalValues, numberOfScenarios );
+                minValues = Arrays.copyOf( minValues, numberOfScenarios );
+                if( linearChanges != null )
+                {
+                    linearChanges = Arrays.copyOf( linearChanges, numberOfScenarios );
+                }
+                if( weights != null )
+                {
+                    weights = Arrays.copyOf( weights, numberOfScenarios );
+                    int blockSize = SimulationBlocks.BLOCK_SIZE;
+                    blockMinima = Arrays.copyOf( blockMinima,
+                                                 ( numberOfScenarios + blockSize - 1 ) / blockSize );
+                }
+            }
+        }
+
+        /**
+         * @param numberOfScenarios number of scenarios simulated, from the first held
+         * @return the lowest final value of those scenarios without the shift
+         */
+        private double getUnshiftedMinimum( int numberOfScenarios )
+        {
+            int blockSize = SimulationBlocks.BLOCK_SIZE;
+            return StatUtils.min( blockMinima, 0, ( numberOfScenarios + blockSize - 1 ) / blockSize );
+        }
+
+        @Override
+        public void simulate( RandomGenerator random, int from, int to )
+        {
+            int blockSize = to - from;
+            int[] points = getSobolPoints( from, blockSize );
+            // one day of the block, shocks of each stock for every scenario in turn
+            double[] dailyShocks = new double[numberOfStocks * blockSize];
+            double[] dailyReturns = new double[numberOfStocks * blockSize];
+            double[] cumulativeReturns = new double[numberOfStocks * blockSize];
+            // sum of the independent shocks of each path, for the likelihood ratio
+            double[] sumsOfShocks = shift == null ? null : new double[numberOfStocks * blockSize];
+            double[] pathMinima = new double[blockSize];
+            Arrays.fill( pathMinima, Double.POSITIVE_INFINITY );
+
+            for( int day = 0 ; day < timePeriod ; day++ )
+            {
+                simulateDailyShocks( random, points, day, dailyShocks, blockSize );
+                kernel.apply( dailyShocks, dailyReturns, blockSize, blockSize );
+                for( int stock = 0 ; stock < numberOfStocks ; stock++ )
+                {
+                    int offset = stock * blockSize;
+                    double stockShift = shift == null ? 0.0 : dailyShift[stock];
+                    for( int s = offset ; s < offset + blockSize ; s++ )
+                    {
+                        cumulativeReturns[s] += dailyReturns[s] + stockShift;
+                        if( sumsOfShocks != null )
+                        {
+                            sumsOfShocks[s] += dailyShocks[s];
+                        }
+                    }
+                }
+                // the lowest values are those of the paths as drawn, unshifted under importance
+                // sampling, since they are not weighted
+                for( int s = 0 ; s < blockSize ; s++ )
+                {
+                    double value = getValue( cumulativeReturns, blockSize, s, day + 1 );
+                    pathMinima[s] = Math.min( pathMinima[s], value );
+                }
+            }
+
+            double blockMinimum = Double.POSITIVE_INFINITY;
+            // results are held from the first scenario held
+            int held = from - first;
+            for( int s = 0 ; s < blockSize ; s++ )
+            {
+                double sumOfFinalStockValues = 0.0, linearChange = 0.0, shiftProduct = 0.0;
+                for( int stock = 0 ; stock < numberOfStocks ; stock++ )
+                {
+                    // price = e^(return) * stockValue
+                    int index = stock * blockSize + s;
+                    sumOfFinalStockValues += Math.exp( cumulativeReturns[index] ) * investments[stock];
+                    linearChange += cumulativeReturns[index] * investments[stock];
+                    if( shift != null )
+                    {
+                        shiftProduct += shift[stock] * sumsOfShocks[index];
+                    }
+                }
+                finalValues[held + s] = sumOfFinalStockValues;
+                minValues[held + s] = pathMinima[s];
+                if( linearChanges != null )
+                {
+                    linearChanges[held + s] = linearChange;
+                }
+                if( shift != null )
+                {
+                    // ratio of the normal density to the shifted one at the shocks drawn, whose
+                    // sum over the days is root(days) * (z + shift)
+                    weights[held + s] = Math.exp( -shiftProduct / Math.sqrt( timePeriod )
+                                                  - halfSquaredShift );
+                    blockMinimum = Math.min( blockMinimum,
+                                             getValue( cumulativeReturns, blockSize, s, timePeriod ) );
+                }
+            }
+            if( shift != null )
+            {
+                blockMinima[held / SimulationBlocks.BLOCK_SIZE] = blockMinimum;
+            }
+        }
+
+        /**
+         * @param cumulativeReturns cumulative returns of each stock in the scenarios of a block
+         * @param blockSize number of scenarios in the block
+         * @param scenario index of the scenario in the block
+         * @param days number of days the returns are cumulated over, to take the shift off
+         * @return the value of the portfolio in a scenario, without the importance sampling shift
+         */
+        private double getValue( double[] cumulativeReturns, int blockSize, int scenario, int days )
+        {
+            double value = 0.0;
+            for( int stock = 0 ; stock < numberOfStocks ; stock++ )
+            {
+                double cumulativeReturn = cumulativeReturns[stock * blockSize + scenario];
+                if( shift != null )
+                {
+                    cumulativeReturn -= days * dailyShift[stock];
+                }
+                value += Math.exp( cumulativeReturn ) * investments[stock];
+            }
+            return value;
+        }
+
+        /**
+         * Gets the points of the scenarios of a block in the quasi-random sequence, in one buffer
+         * so that the block does not need a sequence for each scenario. Both scenarios of an
+         * antithetic pair share a point.
+         * 
+         * @return the coordinates of each point, or null for pseudo-random numbers
+         */
+        private int[] getSobolPoints( int from, int blockSize )
+        {
+            if( sobol == null )
+            {
+                return null;
+            }
+            boolean paired = reduction == VarianceReduction.ANTITHETIC;
+            // blocks start at a multiple of the block size, so pairs do not straddle them
+            int numberOfPoints = paired ? ( blockSize + 1 ) / 2 : blockSize;
+            int[] points = new int[numberOfPoints * sobol.getDimension()];
+            sobol.fillPoints( paired ? from / 2 : from, numberOfPoints, points );
+            return points;
+        }
+
+        /**
+         * Draws the independent shocks of one day for every scenario of a block, in opposite pairs
+         * for antithetic variates, or rescaled so that each stock's shocks have a mean of 0 and a
+         * variance of 1 over the block for moment matching.
+         * 
+         * @param random stream of the block, for pseudo-random numbers
+         * @param points quasi-random points of the block, or null
+         * @param day the day, whose shocks are the coordinates after those of the days before
+         * @param shocks block receiving the shock of each stock, blockSize elements apart
+         * @param blockSize number of scenarios in the block
+         */
+        private void simulateDailyShocks( RandomGenerator random, int[] points, int day,
+                                          double[] shocks, int blockSize )
+        {
+            boolean paired = reduction == VarianceReduction.ANTITHETIC;
+            if( points == null && !paired )
+            {
+                // every scenario draws from the stream of the block, so fill the day at once
+                random.nextGaussians( shocks, 0, numberOfStocks * blockSize );
+            }
+            else
+            {
+                for( int s = 0 ; s < blockSize ; s += paired ? 2 : 1 )
+                {
+                    // coordinates of the day in the point of the scenario
+                    int coordinates = points == null ? 0
+                                                     : ( paired ? s / 2 : s ) * sobol.getDimension()
+                                                       + day * numberOfStocks;
+                    for( int stock = 0 ; stock < numberOfStocks ; stock++ )
+                    {
+                        int index = stock * blockSize + s;
+                        shocks[index] = points == null ? random.nextGaussian()
+                                                       : SobolSequence.toGaussian( points[coordinates
+                                                                                          + stock] );
+                        if( paired && s + 1 < blockSize )
+                        {
+                            shocks[index + 1] = -shocks[index];
+                        }
+                    }
+                }
+            }
+
+            if( reduction == VarianceReduction.MOMENT_MATCHING && blockSize > 1 )
+            {
+                for( int stock = 0 ; stock < numberOfStocks ; stock++ )
+                {
+                    int offset = stock * blockSize;
+                    double mean = StatUtils.mean( shocks, offset, blockSize );
+                    double deviation = Math.sqrt( StatUtils.populationVariance( shocks, mean, offset,
+                                                                                blockSize ) );
+                    for( int s = offset ; s < offset + blockSize ; s++ )
+                    {
+                        shocks[s] = ( shocks[s] - mean ) / deviation;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Summaries of the scenarios of a portfolio, added as they are simulated so that memory does
+     * not grow with the number of scenarios. Final values, and first order changes for the control
+     * variate, go into a {@link TailHeap} when the tail is small enough, which gives the same
+     * percentiles as keeping every value, and into a {@link TDigest} otherwise or when they are
+     * weighted by importance sampling.
+     */
+    private class StreamedScenarios
+    {
+        /** Summaries of the final values and first order changes, the latter null if unused. */
+        private final QuantileSketch finalValues, linearChanges;
+        /** Lowest value of the portfolio on any path, and lowest final value. */
+        private double               minimumValue, minimumFinalValue;
+        /** Number of scenarios added. */
+        private long                 count;
+
+        private StreamedScenarios()
+        {
+            // an adaptive run may go up to the maximum number of scenarios
+            long mostScenarios = isAdaptive() ? MAXIMUM_SIMULATIONS : numberOfSimulations;
+            this.finalValues = newSketch( mostScenarios );
+            this.linearChanges = controlVariate ? newSketch( mostScenarios ) : null;
+            this.minimumValue = Double.POSITIVE_INFINITY;
+            this.minimumFinalValue = Double.POSITIVE_INFINITY;
+        }
+
+        private QuantileSketch newSketch( long mostScenarios )
+        {
+            if( importanceSampling
+                || TailHeap.getCapacity( mostScenarios, 100 - confidence, Z_95 ) > MAXIMUM_HEAP_SIZE )
+            {
+                return new TDigest( DIGEST_COMPRESSION );
+            }
+            return TailHeap.forPercentile( mostScenarios, 100 - confidence, Z_95 );
+        }
+
+        /**
+         * @param scenarios simulation whose held results to add
+         * @param numberOfScenarios number of results held
+         */
+        private void add( PortfolioScenarios scenarios, int numberOfScenarios )
+        {
+            for( int s = 0 ; s < numberOfScenarios ; s++ )
+            {
+                double finalValue = scenarios.finalValues[s];
+                if( !importanceSampling )
+                {
+                    finalValues.add( finalValue );
+                    minimumFinalValue = Math.min( minimumFinalValue, finalValue );
+                    if( linearChanges != null )
+                    {
+                        linearChanges.add( scenarios.linearChanges[s] );
+                    }
+                }
+                else
+                {
+                    double weight = scenarios.weights[s];
+                    ( (TDigest) finalValues ).add( finalValue, weight );
+                    if( linearChanges != null )
+                    {
+                        ( (TDigest) linearChanges ).add( scenarios.linearChanges[s], weight );
+                    }
+                }
+                minimumValue = Math.min( minimumValue, scenarios.minValues[s] );
+            }
+            if( importanceSampling )
+            {
+                minimumFinalValue = Math.min( minimumFinalValue,
+                                              scenarios.getUnshiftedMinimum( numberOfScenarios ) );
+            }
+            count += numberOfScenarios;
+        }
+
+        private double getFinalQuantile()
+        {
+            return getQuantile( finalValues );
+        }
+
+        private double getLinearQuantile()
+        {
+            return getQuantile( linearChanges );
+        }
+
+        /**
+         * @return the value at the percentile, at which the likelihood ratios of the values at or
+         *         below it reach the tail probability times the number of scenarios under
+         *         importance sampling
+         */
+        private double getQuantile( QuantileSketch sketch )
+        {
+            if( !importanceSampling )
+            {
+                return sketch.getPercentile( 100 - confidence );
+            }
+            return ( (TDigest) sketch ).getValueAtWeight( count * ( 100 - confidence ) / 100.0 );
+        }
+
+        /**
+         * @return half the width of the 95% confidence interval of the final value at the
+         *         percentile, like {@link MonteCarloSimulation#getPrecision(double[], double[], int)}
+         */
+        private double getPrecision()
+        {
+            if( !importanceSampling )
+            {
+                double[] interval = finalValues.getPercentileInterval( 100 - confidence, Z_95 );
+                return ( interval[1] - interval[0] ) / 2;
+            }
+            double tailProbability = ( 100 - confidence ) / 100.0;
+            TDigest weighted = (TDigest) finalValues;
+            double meanSquare = weighted.getSquaredWeightAtOrBelow( getFinalQuantile() ) / count;
+            double variance = Math.max( meanSquare - tailProbability * tailProbability, 0.0 );
+            double delta = Z_95 * Math.sqrt( variance / count );
+            double lower = weighted.getValueAtWeight( count * Math.max( tailProbability - delta, 0 ) );
+            double upper = weighted.getValueAtWeight( count * Math.min( tailProbability + delta, 1 ) );
+            return ( upper - lower ) / 2;
+        }
+    }
 
     /**
      * Initialises a Monte Carlo simulation model using just a confidence level and a time period.
@@ -68,7 +504,7 @@ public class MonteCarloSimulation
     public MonteCarloSimulation( ArrayList<Double> portfolioValues,
                                  ArrayList<File> stockPriceDataFiles, int confidence, int timePeriod )
     {
-        this.portfolioValues = portfolioValues;
+        this.portfolioValues = DoubleSeries.valueOf( portfolioValues );
         this.stockPriceDataFiles = stockPriceDataFiles;
         this.numberOfStocks = this.portfolioValues.size();
         this.confidence = confidence;
@@ -104,7 +540,8 @@ public class MonteCarloSimulation
      * Computes VaR for portfolio using Monte Carlo simulation and user-defined option pricing
      * types.
      * 
-     * @return an array containing final and max VaRs.
+     * @return an array containing final and max VaRs, and the precision of the final VaR of the
+     *         stocks (see {@link #getPrecision()}), NaN if it is not measured.
      */
     public double[] computeForPortfolio()
     {
@@ -157,7 +594,13 @@ public class MonteCarloSimulation
         double minPortfolioValue = finalMinStockValues[1] + optionsMinValue;
         double finalVaR = initialPortFolioValue - finalPortfolioValue;
         double maxVaR = initialPortFolioValue - minPortfolioValue;
-        double[] finalMaxVaR = { Math.round( finalVaR ), Math.round( maxVaR ) };
+        double precision = monteCarloPrecision;
+        if( !Double.isNaN( precision ) )
+        {
+            // NaN, after a quasi-random run, would be rounded to 0
+            precision = VarUtils.roundTwoDP( precision );
+        }
+        double[] finalMaxVaR = { Math.round( finalVaR ), Math.round( maxVaR ), precision };
         return finalMaxVaR;
     }
 
@@ -169,8 +612,8 @@ public class MonteCarloSimulation
     {
         if( numberOfStocks == 1 )
         {
-            double[] returnsFromFile = VarUtils
-                                               .getReturnsFromFile( stockPriceDataFiles.get( 0 ) );
+            double[] returnsFromFile = ReturnSeriesCache.getInstance()
+                                                        .getReturns( stockPriceDataFiles.get( 0 ) );
             double volatility = VarUtils
                                         .computeVolatility_EWMA( returnsFromFile );
             computeForOneStock( portfolioValues.get( 0 ), volatility );
@@ -199,19 +642,16 @@ public class MonteCarloSimulation
         {
             // store stock price from last day of each simulation
             finalValues[sim] = stockValues[sim][timePeriod - 1];
-            // sort the stock prices of each simulation for maximal VaR
-            // calculation
-            Arrays.sort( stockValues[sim] );
-            maximumLosses[sim] = stockValues[sim][0];
+            // lowest stock price of each simulation for maximal VaR calculation
+            maximumLosses[sim] = StatUtils.min( stockValues[sim] );
         }
 
-        // sort final losses for final VaR calculation
-        Arrays.sort( finalValues );
-
         // VaR computation using final stock values
-        double stockValueAtRequiredPercentile = VarUtils.getPercentile(
-                                                                        finalValues, confidence );
+        double stockValueAtRequiredPercentile = Quantiles.getPercentile( finalValues,
+                                                                         100 - confidence );
         double finalVaR = stockValue - stockValueAtRequiredPercentile;
+        this.monteCarloPrecision = quasiRandom ? Double.NaN
+                                               : getPrecision( finalValues, null, numberOfSimulations );
         /*
          * System.out.println( "Monte Carlo VaR simulated with "
          * + numberOfSimulations + " simulations of " + timePeriod
@@ -222,8 +662,7 @@ public class MonteCarloSimulation
         this.monteCarloFinalVar = finalVaR;
 
         // maximum VaR during stock price path simulation
-        Arrays.sort( maximumLosses );
-        double maximumVaR = stockValue - maximumLosses[0];
+        double maximumVaR = stockValue - StatUtils.min( maximumLosses );
         double[] estimations = { finalVaR, maximumVaR };
         /*
          * System.out.println( "Monte Carlo VaR (1 stock - Maximum): "
@@ -241,94 +680,146 @@ public class MonteCarloSimulation
      * @param stockValues the investments made in the assets, in same order as the stock data files.
      * @return final and minimal values simulated for the portfolio to compute VaR from.
      */
-    public double[] computeForMultipleStocks( ArrayList<Double> stockValues )
+    public double[] computeForMultipleStocks( DoubleSeries stockValues )
     {
-        ArrayList<double[]> returnList = new ArrayList<double[]>();
-
-        for( File stockFile : stockPriceDataFiles )
-        {
-            double[] returnsFromFile = VarUtils.getReturnsFromFile( stockFile );
-            returnList.add( returnsFromFile );
-        }
+        ArrayList<double[]> returnList = VarUtils.getReturnsFromFiles( stockPriceDataFiles,
+                                                                        missingDataPolicy );
         double[][] covarianceMatrix = VarUtils.generateCovarianceMatrix(
-                                                                         returnList, numberOfStocks );
+                                                                         returnList, numberOfStocks,
+                                                                         covarianceMethod );
         double[][] decomposedMatrix = VarUtils
                                               .decomposeMatrix( covarianceMatrix );
 
-        double[][] finalDayPrices = new double[numberOfStocks][numberOfSimulations];
-        double[][] maximumLosses = new double[numberOfStocks][numberOfSimulations];
-        int iteration = 0;
-        while( iteration < numberOfSimulations )
+        double[] investments = stockValues.toArray();
+        long seed = nextSeed();
+        SobolSequence sobol = newSobolSequence( numberOfStocks * timePeriod, seed );
+        double[] shift = importanceSampling ? getImportanceShift( decomposedMatrix, investments )
+                                            : null;
+        PortfolioScenarios scenarios = new PortfolioScenarios( new CholeskyKernel( decomposedMatrix ),
+                                                               investments, sobol, shift );
+        StreamedScenarios stream = streaming ? new StreamedScenarios() : null;
+        int simulated = simulateScenarios( scenarios, stream, seed );
+
+        double finalQuantile, minimumFinalValue, minimumValue, simulatedLinearQuantile = 0.0;
+        // the values in scenario order, to measure the variance reduction when they are kept
+        double[] scenarioValues = null, linearChanges = null, weights = null;
+        if( stream != null )
         {
-            // need to do this 1000 times, and then record the final prices and
-            // lowest prices (highest VaR)
-            ArrayList<double[]> simulatedReturns = simulateReturns();
-
-            double[] finalDayReturns = simulatedReturns.get( 0 );
-            double[] minReturns = simulatedReturns.get( 1 );
-
-            RealMatrix L = MatrixUtils.createRealMatrix( decomposedMatrix );
-
-            double[] correlatedFinalReturns = L.operate( finalDayReturns );
-            double[] correlatedMinReturns = L.operate( minReturns );
-
-            for( int stock = 0 ; stock < numberOfStocks ; stock++ )
+            finalQuantile = stream.getFinalQuantile();
+            minimumFinalValue = stream.minimumFinalValue;
+            minimumValue = stream.minimumValue;
+            if( controlVariate )
             {
-                // price = e^(return) * stockValue
-                finalDayPrices[stock][iteration] = Math
-                                                       .exp( correlatedFinalReturns[stock] )
-                                                   * stockValues.get( stock );
-                maximumLosses[stock][iteration] = Math
-                                                      .exp( correlatedMinReturns[stock] )
-                                                  * stockValues.get( stock );
+                simulatedLinearQuantile = stream.getLinearQuantile();
             }
-            iteration++;
         }
-
-        double[] portfolioFinalSimulatedValues = new double[numberOfSimulations];
-        double[] portfolioMinSimulatedValues = new double[numberOfSimulations];
-
-        for( int sim = 0 ; sim < numberOfSimulations ; sim++ )
+        else
         {
-            double sumOfFinalStockValues = 0.0, sumOfMinStockValues = 0.0;
-            for( int stock = 0 ; stock < numberOfStocks ; stock++ )
+            double[] portfolioFinalSimulatedValues = Arrays.copyOf( scenarios.finalValues,
+                                                                    simulated );
+            scenarioValues = portfolioFinalSimulatedValues.clone();
+            linearChanges = controlVariate ? Arrays.copyOf( scenarios.linearChanges, simulated )
+                                           : null;
+            weights = importanceSampling ? Arrays.copyOf( scenarios.weights, simulated ) : null;
+            if( importanceSampling )
+            {
+                finalQuantile = Quantiles.getWeightedPercentile( portfolioFinalSimulatedValues,
+                                                                 weights.clone(), 100 - confidence );
+                minimumFinalValue = scenarios.getUnshiftedMinimum( simulated );
+            }
+            else
+            {
+                TailStatistics finalTail = Quantiles.getTailStatistics( portfolioFinalSimulatedValues,
+                                                                        100 - confidence );
+                finalQuantile = finalTail.getQuantile();
+                minimumFinalValue = finalTail.getMinimum();
+            }
+            minimumValue = StatUtils.min( scenarios.minValues, 0, simulated );
+            if( controlVariate )
             {
-                sumOfFinalStockValues += finalDayPrices[stock][sim];
-                sumOfMinStockValues += maximumLosses[stock][sim];
+                simulatedLinearQuantile = importanceSampling
+                        ? Quantiles.getWeightedPercentile( linearChanges.clone(), weights.clone(),
+                                                           100 - confidence )
+                        : Quantiles.getPercentile( linearChanges.clone(), 100 - confidence );
             }
-            portfolioFinalSimulatedValues[sim] = sumOfFinalStockValues;
-            portfolioMinSimulatedValues[sim] = sumOfMinStockValues;
         }
+        double valueAtPercentile = finalQuantile;
 
-        Arrays.sort( portfolioFinalSimulatedValues );
-
-        double valueAtPercentile = VarUtils.getPercentile(
-                                                           portfolioFinalSimulatedValues,
-                                                           confidence );
+        double portfolioValue = stockValues.sum();
 
-        double portfolioValue = 0.0;
+        double finalVaR = portfolioValue - valueAtPercentile;
 
-        for( double stockValue : stockValues )
+        double linearQuantile = 0.0;
+        if( controlVariate )
         {
-            portfolioValue += stockValue;
+            // the first order VaR is known exactly from the Model-Building portfolio variance, so
+            // the error of its simulated estimate is taken off the simulated VaR
+            double tailProbability = ( 100 - confidence ) / 100.0;
+            linearQuantile = new NormalDistribution().inverseCumulativeProbability( tailProbability )
+                             * VarUtils.root( ModelBuilding.getPortfolioVariance( investments,
+                                                                                  covarianceMatrix )
+                                              * timePeriod );
+            finalVaR += simulatedLinearQuantile - linearQuantile;
+            valueAtPercentile = portfolioValue - finalVaR;
         }
 
-        double finalVaR = portfolioValue - valueAtPercentile;
-
         this.monteCarloFinalVar = finalVaR;
+        this.varianceReductionAchieved = 0.0;
+        boolean measured = varianceReduction != VarianceReduction.NONE || controlVariate
+                           || importanceSampling;
+        if( measured && scenarioValues != null )
+        {
+            this.varianceReductionAchieved = measureVarianceReduction( scenarioValues, weights,
+                                                                       finalQuantile,
+                                                                       linearChanges,
+                                                                       linearQuantile );
+        }
 
-        Arrays.sort( portfolioMinSimulatedValues );
-        double maximumVaR = portfolioValue - portfolioMinSimulatedValues[0];
+        double maximumVaR = portfolioValue - minimumValue;
 //        System.out.println( "Monte Carlo VaR (Portfolio - Maximum): "
 //                            + VarUtils.round( maximumVaR ) );
         this.monteCarloMaximumVar = maximumVaR;
 
-        double[] finalMinValues = { valueAtPercentile, portfolioFinalSimulatedValues[0] };
+        double[] finalMinValues = { valueAtPercentile, minimumFinalValue };
 
         return finalMinValues;
 
     }
 
+    /**
+     * Gets the mean of the sum of the independent daily shocks over the time period, in units of
+     * its standard deviation, under importance sampling: the direction in which the first order value of the portfolio falls fastest, scaled so that the
+     * shifted scenarios are centred on the first order quantile and about half of them fall in
+     * the tail.
+     * 
+     * @param decomposedMatrix lower triangular Cholesky factor of the covariance matrix
+     * @param investments the investments made in the assets
+     * @return the shift of each independent shock
+     */
+    private double[] getImportanceShift( double[][] decomposedMatrix, double[] investments )
+    {
+        // the first order change in value is investments . (factor * shocks), so its gradient
+        // with respect to the shocks is the transposed factor times the investments
+        double[] direction = new double[numberOfStocks];
+        double length = 0.0;
+        for( int column = 0 ; column < numberOfStocks ; column++ )
+        {
+            for( int row = column ; row < numberOfStocks ; row++ )
+            {
+                direction[column] += decomposedMatrix[row][column] * investments[row];
+            }
+            length += direction[column] * direction[column];
+        }
+        length = Math.sqrt( length );
+        double distance = VarUtils.inverseCNDF( confidence / 100.0 );
+        double[] shift = new double[numberOfStocks];
+        for( int stock = 0 ; length > 0 && stock < numberOfStocks ; stock++ )
+        {
+            shift[stock] = -distance * direction[stock] / length;
+        }
+        return shift;
+    }
+
     /**
      * Uses the Black-Scholes option pricing model alongside the Monte Carlo simulation model to
      * price an option.
@@ -339,48 +830,66 @@ public class MonteCarloSimulation
     public double[] priceOptionUsingBlackScholes( Option option )
     {
         double[] values = new double[2];
-        double interest = option.getInterest(), strike = option.getStrike(), dailyVolatility = option
-                                                                                                     .getDailyVolatility();
-        double initialStockPrice = option.getInitialStockPrice();
-        int timeToMaturity = option.getTimeToMaturity();
-        int numShares = 1, numOptions = 1;
-        int flag = VarUtils.convertToCallOrPut( option.getOptionType() );
+        final double interest = option.getInterest(), strike = option.getStrike(), dailyVolatility = option
+                                                                                                           .getDailyVolatility();
+        final double initialStockPrice = option.getInitialStockPrice();
+        final int timeToMaturity = option.getTimeToMaturity();
+        final int numShares = 1, numOptions = 1;
+        final int flag = VarUtils.convertToCallOrPut( option.getOptionType() );
         if( flag == VarUtils.ERROR_VAL )
         {
             return ( values );
         }
 
-        BlackScholes bs = new BlackScholes();
-        double[] finalDayPrices = new double[numberOfSimulations];
-        double[] minPrices = new double[numberOfSimulations];
-        double[][] optionPrices = new double[numberOfSimulations][timePeriod];
+        final double[] finalDayPrices = new double[numberOfSimulations];
+        final double[] minPrices = new double[numberOfSimulations];
 
-        for( int sim = 0 ; sim < numberOfSimulations ; sim++ )
+        long seed = nextSeed();
+        final SobolSequence sobol = newSobolSequence( timePeriod, seed );
+        SimulationBlocks.run( numberOfSimulations, randomAlgorithm, seed, new SimulationBlocks.Block()
         {
-            double stockPrice = initialStockPrice;
-
-            for( int day = 0 ; day < timePeriod ; day++ )
+            @Override
+            public void simulate( RandomGenerator random, int from, int to )
             {
-                double optionPrice = 0;
-                stockPrice = numShares
-                             * ( stockPrice + ( dailyVolatility * stockPrice * rng
-                                                                                  .nextGaussian() ) );
-                optionPrice = numOptions
-                              * bs.compute( flag, stockPrice, strike, timeToMaturity
-                                                                      - day, interest,
-                                            dailyVolatility );
-                // TODO check time to maturity decreased by 1 every run
-                optionPrices[sim][day] = optionPrice;
+                NormalGenerator normals = sobol == null ? random : sobol.startingAt( from );
+                BlackScholes bs = new BlackScholes();
+                int blockSize = to - from;
+                // the shocks of each path in turn, then the paths are priced a day at a time
+                double[] shocks = new double[blockSize * timePeriod];
+                normals.nextGaussians( shocks, 0, shocks.length );
+                double[] stockPrices = new double[blockSize];
+                double[] maturities = new double[blockSize];
+                double[] volatilities = new double[blockSize];
+                double[] optionPrices = new double[blockSize];
+                Arrays.fill( stockPrices, initialStockPrice );
+                Arrays.fill( volatilities, dailyVolatility );
+                Arrays.fill( minPrices, from, to, Double.NaN );
+                for( int day = 0 ; day < timePeriod ; day++ )
+                {
+                    // TODO check time to maturity decreased by 1 every run
+                    Arrays.fill( maturities, timeToMaturity - day );
+                    for( int s = 0 ; s < blockSize ; s++ )
+                    {
+                        stockPrices[s] = numShares
+                                         * ( stockPrices[s] + ( dailyVolatility * stockPrices[s]
+                                                                * shocks[s * timePeriod + day] ) );
+                    }
+                    bs.compute( flag, stockPrices, strike, maturities, interest, volatilities,
+                                optionPrices );
+                    for( int s = 0 ; s < blockSize ; s++ )
+                    {
+                        double optionPrice = numOptions * optionPrices[s];
+                        finalDayPrices[from + s] = optionPrice;
+                        // like StatUtils.min, days priced NaN are skipped
+                        if( optionPrice < minPrices[from + s] || Double.isNaN( minPrices[from + s] ) )
+                        {
+                            minPrices[from + s] = optionPrice;
+                        }
+                    }
+                }
             }
+        } );
 
-            double[] simPrices = Arrays.copyOf( optionPrices[sim],
-                                                optionPrices[sim].length );
-            finalDayPrices[sim] = simPrices[timePeriod - 1];
-            Arrays.sort( simPrices );
-            minPrices[sim] = simPrices[0];
-        }
-
-        Arrays.sort( minPrices );
         int discountPeriod = option.getTimeToMaturity() - timePeriod;
         if( discountPeriod < 1 )
         {
@@ -449,9 +958,7 @@ public class MonteCarloSimulation
         double finalValueOfOption = getDiscountedValue( meanExerciseValue, option.getInterest(),
                                                         option.getTimeToMaturity() - timePeriod );
 
-        Arrays.sort( exerciseValues );
-
-        double minExerciseValue = exerciseValues[0];
+        double minExerciseValue = StatUtils.min( exerciseValues );
 
         double minValueOfOption = getDiscountedValue( minExerciseValue, option.getInterest(),
                                                       option.getTimeToMaturity() - timePeriod );
@@ -496,25 +1003,39 @@ public class MonteCarloSimulation
         double[] finalDayOptionPrices = new double[numberOfSimulations];
         double[] minOptionPrices = new double[numberOfSimulations];
         double[] finalMinPrices = new double[2];
+        OptionPriceSurface surface = null;
+        if( priceSurface )
+        {
+            surface = buildPriceSurface( option, stockPrices );
+            priceSurfaceError = surface.getInterpolationError();
+        }
         BinomialTree bt;
         for( int simulation = 0 ; simulation < numberOfSimulations ; simulation++ )
         {
             for( int day = 0 ; day < timePeriod ; day++ )
             {
-                bt = new BinomialTree( stockPrices[simulation][day], option.getStrike(),
-                                       option.getTimeToMaturity() - day,
-                                       option.getDailyVolatility(), option.getInterest(),
-                                       option.getOptionType() );
+                double price;
+                if( surface != null )
+                {
+                    price = surface.getPrice( day, stockPrices[simulation][day] );
+                }
+                else
+                {
+                    // an accelerated tree of a few dozen steps is as accurate as a plain one of
+                    // hundreds
+                    int timeToMaturity = option.getTimeToMaturity() - day;
+                    bt = BinomialTree.accelerated( option, stockPrices[simulation][day],
+                                                   timeToMaturity );
+                    price = bt.getOptionPrice();
+                    bt = null;
+                }
                 // discount option price to today
-                optionPrices[simulation][day] = getDiscountedValue( bt.getOptionPrice(),
-                                                                    option.getInterest(),
+                optionPrices[simulation][day] = getDiscountedValue( price, option.getInterest(),
                                                                     option.getTimeToMaturity()
                                                                             - day );
-                bt = null;
             }
-            finalDayOptionPrices[simulation] = optionPrices[simulation][timePeriod];
-            Arrays.sort( optionPrices[simulation] );
-            minOptionPrices[simulation] = optionPrices[simulation][0];
+            finalDayOptionPrices[simulation] = optionPrices[simulation][timePeriod - 1];
+            minOptionPrices[simulation] = StatUtils.min( optionPrices[simulation] );
         }
 
         // get average of option prices
@@ -539,6 +1060,32 @@ public class MonteCarloSimulation
         return finalMinPrices;
     }
 
+    /**
+     * Builds the price surface of an option over the range of the simulated stock prices of
+     * each day.
+     * 
+     * @param option the option to price
+     * @param stockPrices simulated stock price of each simulation on each day
+     * @return the price surface
+     */
+    private OptionPriceSurface buildPriceSurface( Option option, double[][] stockPrices )
+    {
+        double[] lowestPrices = new double[timePeriod];
+        double[] highestPrices = new double[timePeriod];
+        for( int day = 0 ; day < timePeriod ; day++ )
+        {
+            lowestPrices[day] = Double.POSITIVE_INFINITY;
+            highestPrices[day] = Double.NEGATIVE_INFINITY;
+            for( int simulation = 0 ; simulation < numberOfSimulations ; simulation++ )
+            {
+                lowestPrices[day] = Math.min( lowestPrices[day], stockPrices[simulation][day] );
+                highestPrices[day] = Math.max( highestPrices[day], stockPrices[simulation][day] );
+            }
+        }
+        return new OptionPriceSurface( option, lowestPrices, highestPrices,
+                                       OptionPriceSurface.DEFAULT_NODES );
+    }
+
     /**
      * Simulates normally distributed returns for each asset over the specified time period using
      * the Monte Carlo simulation model.
@@ -547,35 +1094,265 @@ public class MonteCarloSimulation
      */
     public ArrayList<double[]> simulateReturns()
     {
-        double[][] simulatedReturns = new double[numberOfStocks][timePeriod];
         double[] minReturns = new double[numberOfStocks];
         double[] finalDayReturns = new double[numberOfStocks];
         ArrayList<double[]> minAndFinalReturns = new ArrayList<double[]>();
 
-        // simulate returns
+        simulateShocks( rng, finalDayReturns, minReturns, 1, 0 );
+
+        minAndFinalReturns.add( finalDayReturns );
+        minAndFinalReturns.add( minReturns );
+
+        return minAndFinalReturns;
+    }
+
+    /**
+     * Simulates normally distributed returns for each asset over the time period and records the
+     * final day and minimum return of each, for one scenario of a block.
+     * 
+     * @param random generator to draw the returns from
+     * @param finalShocks block receiving the final day return of each stock
+     * @param minShocks block receiving the minimum return of each stock
+     * @param blockSize number of scenarios in the blocks, the returns of a stock being blockSize
+     *            elements apart
+     * @param scenario index of the scenario in the block
+     */
+    private void simulateShocks( NormalGenerator random, double[] finalShocks, double[] minShocks,
+                                 int blockSize, int scenario )
+    {
         for( int stock = 0 ; stock < numberOfStocks ; stock++ )
         {
+            double dailyReturn = 0.0;
+            double minReturn = Double.POSITIVE_INFINITY;
             for( int day = 0 ; day < timePeriod ; day++ )
             {
-                simulatedReturns[stock][day] = rng.nextGaussian();
+                dailyReturn = random.nextGaussian();
+                if( dailyReturn < minReturn )
+                {
+                    minReturn = dailyReturn;
+                }
             }
+            finalShocks[stock * blockSize + scenario] = dailyReturn;
+            minShocks[stock * blockSize + scenario] = minReturn;
         }
+    }
 
-        // record minimum and final day returns for each stock
-        for( int i = 0 ; i < numberOfStocks ; i++ )
+    /**
+     * Runs the scenarios of a portfolio: numberOfSimulations of them, or with a target precision
+     * batches of growing size until the confidence interval of the final VaR is narrow enough, the
+     * time budget is spent or MAXIMUM_SIMULATIONS have run. Batches are made of whole blocks, so
+     * they draw the same numbers as a single run of as many scenarios. After the first batch, the
+     * time budget is checked every STREAM_CHUNK scenarios, so a run stops within one chunk of its
+     * budget even when a batch is large. Quasi-random runs always run numberOfSimulations
+     * scenarios, see {@link #isAdaptive()}.
+     * 
+     * @param scenarios simulation of the portfolio
+     * @param stream summaries to stream the scenarios into, or null to keep every result
+     * @param seed seed of the run
+     * @return the number of scenarios run
+     */
+    private int simulateScenarios( PortfolioScenarios scenarios, StreamedScenarios stream,
+                                   long seed )
+    {
+        if( !isAdaptive() )
         {
-            finalDayReturns[i] = simulatedReturns[i][timePeriod - 1];
+            runScenarios( scenarios, stream, 0, numberOfSimulations, seed );
+            this.monteCarloPrecision = getPrecision( scenarios, stream, numberOfSimulations );
+            return numberOfSimulations;
+        }
 
-            double[] returnsForStock = Arrays.copyOf( simulatedReturns[i],
-                                                      timePeriod );
-            Arrays.sort( returnsForStock );
-            minReturns[i] = returnsForStock[0];
+        long start = System.nanoTime();
+        int simulated = 0;
+        do
+        {
+            // grow by half of what has run so far, so the interval is not recomputed too often
+            long batchSize = roundUpToBlocks( Math.max( numberOfSimulations, simulated / 2 ) );
+            int end = (int) Math.min( simulated + batchSize, MAXIMUM_SIMULATIONS );
+            if( stream == null )
+            {
+                // room for the whole batch at once, not chunk by chunk
+                scenarios.ensureCapacity( end );
+            }
+            boolean firstBatch = simulated == 0;
+            while( simulated < end )
+            {
+                int last = Math.min( simulated + STREAM_CHUNK, end );
+                runScenarios( scenarios, stream, simulated, last, seed );
+                simulated = last;
+                if( !firstBatch && isOverBudget( start ) )
+                {
+                    break;
+                }
+            }
+            this.monteCarloPrecision = getPrecision( scenarios, stream, simulated );
         }
+        while( monteCarloPrecision > targetPrecision && simulated < MAXIMUM_SIMULATIONS
+               && !isOverBudget( start ) );
+        return simulated;
+    }
 
-        minAndFinalReturns.add( finalDayReturns );
-        minAndFinalReturns.add( minReturns );
+    /**
+     * @param start System.nanoTime() at the start of the run
+     * @return true if the run has a time budget and has spent it
+     */
+    private boolean isOverBudget( long start )
+    {
+        return timeBudget > 0 && System.nanoTime() - start >= timeBudget * 1000000L;
+    }
 
-        return minAndFinalReturns;
+    /**
+     * Runs a range of scenarios, keeping their results after those already run or, when
+     * streaming, holding STREAM_CHUNK of them at a time and adding them to the summaries in
+     * scenario order.
+     * 
+     * @param from index of the first scenario, a multiple of the block size
+     * @param to index after the last scenario
+     */
+    private void runScenarios( PortfolioScenarios scenarios, StreamedScenarios stream, int from,
+                               int to, long seed )
+    {
+        if( stream == null )
+        {
+            scenarios.ensureCapacity( to );
+            SimulationBlocks.run( from, to, randomAlgorithm, seed, scenarios );
+            return;
+        }
+        for( int first = from ; first < to ; first += STREAM_CHUNK )
+        {
+            int last = Math.min( first + STREAM_CHUNK, to );
+            scenarios.first = first;
+            scenarios.ensureCapacity( last - first );
+            SimulationBlocks.run( first, last, randomAlgorithm, seed, scenarios );
+            stream.add( scenarios, last - first );
+        }
+    }
+
+    /**
+     * The order statistics either side of the percentile only bound its error for independent
+     * scenarios, not for the points of a scrambled Sobol sequence, so a quasi-random run cannot
+     * stop at a target precision.
+     * 
+     * @return true if runs of several stocks stop once the target precision is reached
+     */
+    private boolean isAdaptive()
+    {
+        return targetPrecision > 0 && !quasiRandom;
+    }
+
+    /**
+     * @return half the width of the 95% confidence interval of the final value at the percentile,
+     *         from the summaries when streaming, NaN for quasi-random scenarios
+     */
+    private double getPrecision( PortfolioScenarios scenarios, StreamedScenarios stream,
+                                 int numberOfScenarios )
+    {
+        if( quasiRandom )
+        {
+            // not independent, so the order statistics do not give a confidence interval
+            return Double.NaN;
+        }
+        if( stream != null )
+        {
+            return stream.getPrecision();
+        }
+        return getPrecision( scenarios.finalValues, scenarios.weights, numberOfScenarios );
+    }
+
+    /**
+     * @return the number of scenarios rounded up to whole blocks
+     */
+    private static long roundUpToBlocks( int numberOfScenarios )
+    {
+        int blockSize = SimulationBlocks.BLOCK_SIZE;
+        return ( ( (long) numberOfScenarios + blockSize - 1 ) / blockSize ) * blockSize;
+    }
+
+    /**
+     * @param values simulated values, not modified
+     * @param weights likelihood ratio of each value under importance sampling, or null
+     * @param numberOfScenarios number of values to use, from the start of the array
+     * @return half the width of the 95% confidence interval of the value at the percentile
+     */
+    private double getPrecision( double[] values, double[] weights, int numberOfScenarios )
+    {
+        double[] data = Arrays.copyOf( values, numberOfScenarios );
+        if( weights == null )
+        {
+            double[] interval = Quantiles.getPercentileInterval( data, 100 - confidence, Z_95 );
+            return ( interval[1] - interval[0] ) / 2;
+        }
+
+        // the weighted fraction of scenarios below the quantile has the standard deviation of the
+        // weighted tail indicators over root n; its interval maps to an interval of the quantile
+        double[] weightsOfData = Arrays.copyOf( weights, numberOfScenarios );
+        double quantile = Quantiles.getWeightedPercentile( data, weightsOfData, 100 - confidence );
+        double[] inTail = new double[numberOfScenarios];
+        for( int s = 0 ; s < numberOfScenarios ; s++ )
+        {
+            inTail[s] = data[s] <= quantile ? weightsOfData[s] : 0.0;
+        }
+        double tailProbability = ( 100 - confidence ) / 100.0;
+        double delta = Z_95 * Math.sqrt( StatUtils.variance( inTail ) / numberOfScenarios );
+        double lower = Quantiles.getWeightedPercentile( data, weightsOfData,
+                                                        100 * Math.max( tailProbability - delta, 0 ) );
+        double upper = Quantiles.getWeightedPercentile( data, weightsOfData,
+                                                        100 * Math.min( tailProbability + delta, 1 ) );
+        return ( upper - lower ) / 2;
+    }
+
+    /**
+     * Estimates the fraction of the variance of the simulated final VaR removed by the variance
+     * reduction, from how the scenarios fall on either side of the quantile. Plain sampling
+     * counts each scenario below the quantile independently; antithetic pairs, matched blocks,
+     * the control variate and the likelihood ratios of importance sampling make those counts vary
+     * less.
+     * 
+     * @param values simulated final portfolio values, in scenario order
+     * @param weights likelihood ratio of each scenario under importance sampling, or null
+     * @param quantile the simulated value at the percentile
+     * @param linearChanges first order changes in value of each scenario, null without control
+     *            variate
+     * @param linearQuantile exact quantile of the first order change in value
+     * @return fraction of the variance removed, negative if the variance increased
+     */
+    private double measureVarianceReduction( double[] values, double[] weights, double quantile,
+                                             double[] linearChanges, double linearQuantile )
+    {
+        double tailProbability = ( 100 - confidence ) / 100.0;
+        // scenarios sharing the dependence introduced by the variance reduction
+        int groupSize = 1;
+        if( varianceReduction == VarianceReduction.ANTITHETIC )
+        {
+            groupSize = 2;
+        }
+        else if( varianceReduction == VarianceReduction.MOMENT_MATCHING )
+        {
+            groupSize = SimulationBlocks.BLOCK_SIZE;
+        }
+        int numberOfGroups = values.length / groupSize;
+        if( numberOfGroups < 2 )
+        {
+            return 0.0;
+        }
+
+        double[] groupMeans = new double[numberOfGroups];
+        for( int group = 0 ; group < numberOfGroups ; group++ )
+        {
+            double sum = 0.0;
+            for( int s = group * groupSize ; s < ( group + 1 ) * groupSize ; s++ )
+            {
+                double weight = weights == null ? 1.0 : weights[s];
+                double inTail = values[s] <= quantile ? weight : 0.0;
+                if( linearChanges != null )
+                {
+                    inTail -= ( linearChanges[s] <= linearQuantile ? weight : 0.0 ) - tailProbability;
+                }
+                sum += inTail;
+            }
+            groupMeans[group] = sum / groupSize;
+        }
+        double plainVariance = tailProbability * ( 1 - tailProbability );
+        return 1 - StatUtils.variance( groupMeans ) * groupSize / plainVariance;
     }
 
     /**
@@ -585,33 +1362,52 @@ public class MonteCarloSimulation
      * @param volatility
      * @return 2D array containing prices over the time period for simulation.
      */
-    private double[][] simulatePrices( double stockValue, double volatility )
+    private double[][] simulatePrices( final double stockValue, final double volatility )
     {
-        double[][] stockValues = new double[numberOfSimulations][timePeriod];
-
-        double possibleStockValue;
+        final double[][] stockValues = new double[numberOfSimulations][timePeriod];
 
-        for( int sim = 0 ; sim < numberOfSimulations ; sim++ )
+        long seed = nextSeed();
+        final SobolSequence sobol = newSobolSequence( timePeriod, seed );
+        SimulationBlocks.run( numberOfSimulations, randomAlgorithm, seed, new SimulationBlocks.Block()
         {
-            for( int day = 0 ; day < timePeriod ; day++ )
+            @Override
+            public void simulate( RandomGenerator random, int from, int to )
             {
-                if( day == 0 )
-                {
-                    possibleStockValue = stockValue
-                                         + ( volatility * rng.nextGaussian() * stockValue );
-                    stockValues[sim][day] = possibleStockValue;
-                }
-                else
+                NormalGenerator normals = sobol == null ? random : sobol.startingAt( from );
+                double[] shocks = new double[timePeriod];
+                for( int sim = from ; sim < to ; sim++ )
                 {
-                    possibleStockValue = stockValues[sim][day - 1]
-                                         + ( volatility * rng.nextGaussian() * stockValues[sim][day - 1] );
-                    stockValues[sim][day] = possibleStockValue;
+                    double possibleStockValue = stockValue;
+                    normals.nextGaussians( shocks, 0, timePeriod );
+                    for( int day = 0 ; day < timePeriod ; day++ )
+                    {
+                        possibleStockValue += volatility * shocks[day] * possibleStockValue;
+                        stockValues[sim][day] = possibleStockValue;
+                    }
                 }
             }
-        }
+        } );
         return stockValues;
     }
 
+    /**
+     * @param dimension number of normal numbers drawn for each scenario
+     * @param seed seed of the run, to scramble the sequence with
+     * @return the quasi-random sequence of the run, or null to draw pseudo-random numbers
+     */
+    private SobolSequence newSobolSequence( int dimension, long seed )
+    {
+        return quasiRandom ? new SobolSequence( dimension, seed ) : null;
+    }
+
+    /**
+     * @return the seed of the next run, drawn from the generator unless a seed is set.
+     */
+    private long nextSeed()
+    {
+        return seeded ? seed : rng.nextLong();
+    }
+
     /**
      * Estimates var for a certain number of days for backtesting.
      * 
@@ -621,13 +1417,12 @@ public class MonteCarloSimulation
     public double[] estimateVaRForBacktesting_OneStock( int numberOfDaysToTest )
     {
         double[] estimations = new double[numberOfDaysToTest];
-        double[] returns = VarUtils.getReturnsFromFile( stockPriceDataFiles.get( 0 ) );
+        double[] returns = ReturnSeriesCache.getInstance().getReturns( stockPriceDataFiles.get( 0 ) );
         int numberOfReturnsToUse = returns.length - 1 - numberOfDaysToTest;
 
         for( int day = 0 ; day < numberOfDaysToTest ; day++ )
         {
-            double[] returnsToUse = Arrays.copyOf( returns, numberOfReturnsToUse );
-            double volatility = VarUtils.computeVolatility_GARCH( returnsToUse );
+            double volatility = VarUtils.computeVolatility_GARCH( returns, numberOfReturnsToUse );
             double[] finalMaxVars = computeForOneStock( portfolioValues.get( 0 ), volatility );
             estimations[day] = finalMaxVars[0];
             numberOfReturnsToUse++;
@@ -659,7 +1454,7 @@ public class MonteCarloSimulation
      */
     public void setPortfolioValues( ArrayList<Double> portfolioValues )
     {
-        this.portfolioValues = portfolioValues;
+        this.portfolioValues = DoubleSeries.valueOf( portfolioValues );
     }
 
     /**
@@ -697,4 +1492,156 @@ public class MonteCarloSimulation
         this.optionPricingType = optionPricingType;
     }
 
+    /**
+     * @param covarianceMethod the way covariances between assets are estimated
+     */
+    public void setCovarianceMethod( CovarianceMethod covarianceMethod )
+    {
+        this.covarianceMethod = covarianceMethod;
+    }
+
+    /**
+     * @param missingDataPolicy how to align the returns of assets on their dates, or null to pair
+     *            them by index
+     */
+    public void setMissingDataPolicy( MissingDataPolicy missingDataPolicy )
+    {
+        this.missingDataPolicy = missingDataPolicy;
+    }
+
+    /**
+     * Makes every run draw the same random numbers, so that its results can be reproduced. The
+     * results of a run depend only on the seed, not on the number of threads simulating it.
+     * 
+     * @param seed the seed of every run
+     */
+    public void setSeed( long seed )
+    {
+        this.seed = seed;
+        this.seeded = true;
+        this.rng = randomAlgorithm.newGenerator( seed );
+    }
+
+    /**
+     * @param randomAlgorithm the generator of the pseudo-random numbers of the scenarios, each
+     *            block of scenarios drawing from its own stream of it
+     */
+    public void setRandomAlgorithm( RandomAlgorithm randomAlgorithm )
+    {
+        this.randomAlgorithm = randomAlgorithm;
+        this.rng = randomAlgorithm.newGenerator( seeded ? seed : rng.nextLong() );
+    }
+
+    /**
+     * @param varianceReduction the way the shocks of the scenarios are drawn
+     */
+    public void setVarianceReduction( VarianceReduction varianceReduction )
+    {
+        this.varianceReduction = varianceReduction;
+    }
+
+    /**
+     * @param controlVariate true to correct the final VaR of several stocks by the simulation error
+     *            of the first order VaR, whose exact value is given by the Model-Building portfolio
+     *            variance
+     */
+    public void setControlVariate( boolean controlVariate )
+    {
+        this.controlVariate = controlVariate;
+    }
+
+    /**
+     * @return the estimated fraction of the variance of the final VaR removed by the variance
+     *         reduction and control variate in the last run of several stocks, 0 if neither was used
+     */
+    public double getVarianceReduction()
+    {
+        return varianceReductionAchieved;
+    }
+
+    /**
+     * @param quasiRandom true to draw the shocks of the scenarios from a scrambled Sobol sequence,
+     *            which covers the space of shocks more evenly than pseudo-random numbers so that
+     *            fewer scenarios are needed for the same accuracy; the precision of such runs is
+     *            not measured and they ignore the target precision
+     */
+    public void setQuasiRandom( boolean quasiRandom )
+    {
+        this.quasiRandom = quasiRandom;
+    }
+
+    /**
+     * @param importanceSampling true to draw the daily shocks of several stocks from normal
+     *            distributions shifted towards the losses of the portfolio and weight each scenario
+     *            by its likelihood ratio, so that many more scenarios fall in the tail at high
+     *            confidence levels
+     */
+    public void setImportanceSampling( boolean importanceSampling )
+    {
+        this.importanceSampling = importanceSampling;
+    }
+
+    /**
+     * @param streaming true to summarise the final values of several stocks as scenarios run, in
+     *            memory that does not grow with the number of scenarios, instead of keeping every
+     *            value; the percentiles are the same unless the tail is too large for a
+     *            {@link TailHeap} or importance sampling is used, and the variance reduction is
+     *            not measured
+     */
+    public void setStreaming( boolean streaming )
+    {
+        this.streaming = streaming;
+    }
+
+    /**
+     * @param priceSurface true to revalue options priced by binomial trees on a surface of prices
+     *            built once for each day of the time period and interpolated at the simulated
+     *            stock prices, instead of a tree for every simulation and day; see
+     *            {@link #getPriceSurfaceError()}
+     */
+    public void setPriceSurface( boolean priceSurface )
+    {
+        this.priceSurface = priceSurface;
+    }
+
+    /**
+     * @return the largest interpolation error, before discounting, of the price surface of the
+     *         last option priced on one, 0 if none was
+     */
+    public double getPriceSurfaceError()
+    {
+        return priceSurfaceError;
+    }
+
+    /**
+     * Makes runs of several stocks simulate batches of scenarios until the final VaR is known to
+     * a given precision, instead of exactly numberOfSimulations scenarios. The first batch is of
+     * numberOfSimulations scenarios. Quasi-random runs, whose precision is not measured, ignore
+     * the target.
+     * 
+     * @param targetPrecision half width of the 95% confidence interval of the final VaR at which
+     *            to stop, in the currency of the portfolio, 0 to run numberOfSimulations scenarios
+     * @param timeBudget milliseconds after which to stop even if the precision is not reached, 0
+     *            for no limit other than MAXIMUM_SIMULATIONS
+     */
+    public void setTargetPrecision( double targetPrecision, long timeBudget )
+    {
+        this.targetPrecision = targetPrecision;
+        this.timeBudget = timeBudget;
+    }
+
+    /**
+     * Gets the precision of the final VaR of the last run, from the order statistics either side
+     * of the simulated percentile, or under importance sampling from the spread of the weighted
+     * number of scenarios below it. It does not account for the variance reduction and control
+     * variate, which make the VaR more precise than this. The points of a quasi-random run are
+     * not independent, so its precision is not measured.
+     * 
+     * @return half the width of the 95% confidence interval of the final VaR, NaN after a
+     *         quasi-random run
+     */
+    public double getPrecision()
+    {
+        return monteCarloPrecision;
+    }
 }
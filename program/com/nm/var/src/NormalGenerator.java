@@ -0,0 +1,21 @@
+package com.nm.var.src;
+
+/**
+ * Source of the standard normal numbers driving the scenarios of a Monte Carlo simulation.
+ */
+public interface NormalGenerator
+{
+    /**
+     * @return the next number, normally distributed with mean 0 and standard deviation 1
+     */
+    double nextGaussian();
+
+    /**
+     * Fills a range of an array with the next numbers, in the order nextGaussian would give them.
+     *
+     * @param values array receiving the numbers
+     * @param from first index of the range
+     * @param to index after the last of the range
+     */
+    void nextGaussians( double[] values, int from, int to );
+}
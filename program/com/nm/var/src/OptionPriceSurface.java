@@ -0,0 +1,179 @@
+package com.nm.var.src;
+
+/**
+ * Price of an option as a function of the stock price, tabulated once for each day of a
+ * simulation so that the option can be revalued in any number of scenarios by interpolation
+ * instead of a binomial tree per scenario.
+ * <p>
+ * Each day is a slice of evenly spaced stock prices, at a time to maturity of that many days
+ * less than the option's, priced by accelerated binomial trees. Between the nodes the price is
+ * interpolated by the monotone cubic spline of Fritsch and Carlson, whose slopes are limited so
+ * that the price of a put never rises with the stock price nor that of a call falls. The
+ * interpolation error is measured when the surface is built, by pricing the midpoint of every
+ * interval with a tree as well.
+ */
+public class OptionPriceSurface
+{
+    /** Number of stock prices of each slice chosen by default. */
+    public static final int DEFAULT_NODES = 65;
+    /** Lowest stock price and spacing of the stock prices of each day. */
+    private final double[]   lowestPrices, spacings;
+    /** Price of the option at each stock price of each day. */
+    private final double[][] prices;
+    /** Slope of the spline at each stock price of each day. */
+    private final double[][] slopes;
+    /** Largest difference between the spline and a tree at the middle of an interval. */
+    private double           interpolationError;
+
+    /**
+     * Prices the option on a grid of stock prices for each day, between the lowest and highest
+     * price the stock is expected to reach on that day.
+     *
+     * @param option the option to price, whose time to maturity is that of the first day
+     * @param lowestPrices lowest stock price of each day
+     * @param highestPrices highest stock price of each day
+     * @param numberOfNodes number of stock prices of each day, at least 2
+     */
+    public OptionPriceSurface( Option option, double[] lowestPrices, double[] highestPrices,
+                               int numberOfNodes )
+    {
+        int numberOfDays = lowestPrices.length;
+        int nodes = Math.max( numberOfNodes, 2 );
+        this.lowestPrices = lowestPrices.clone();
+        this.spacings = new double[numberOfDays];
+        this.prices = new double[numberOfDays][];
+        this.slopes = new double[numberOfDays][];
+        for( int day = 0 ; day < numberOfDays ; day++ )
+        {
+            int timeToMaturity = option.getTimeToMaturity() - day;
+            double range = highestPrices[day] - lowestPrices[day];
+            if( !( range > 0 ) )
+            {
+                // every scenario has the same stock price, so one node prices them all
+                BinomialTree tree = BinomialTree.accelerated( option, lowestPrices[day],
+                                                              timeToMaturity );
+                prices[day] = new double[] { tree.getOptionPrice() };
+                slopes[day] = new double[] { 0.0 };
+                continue;
+            }
+            spacings[day] = range / ( nodes - 1 );
+            prices[day] = new double[nodes];
+            for( int node = 0 ; node < nodes ; node++ )
+            {
+                double stockPrice = lowestPrices[day] + node * spacings[day];
+                prices[day][node] = BinomialTree.accelerated( option, stockPrice, timeToMaturity )
+                                                .getOptionPrice();
+            }
+            slopes[day] = getMonotoneSlopes( prices[day], spacings[day] );
+            for( int node = 0 ; node < nodes - 1 ; node++ )
+            {
+                double midpoint = lowestPrices[day] + ( node + 0.5 ) * spacings[day];
+                BinomialTree tree = BinomialTree.accelerated( option, midpoint, timeToMaturity );
+                double error = getPrice( day, midpoint ) - tree.getOptionPrice();
+                interpolationError = Math.max( interpolationError, Math.abs( error ) );
+            }
+        }
+    }
+
+    /**
+     * Fritsch-Carlson slopes: the mean of the secants either side of each node, 0 where the
+     * secants change sign, then scaled down on each interval where they would let the cubic
+     * overshoot.
+     *
+     * @param values the values at evenly spaced nodes
+     * @param spacing the distance between nodes
+     * @return the slope of the spline at each node
+     */
+    private static double[] getMonotoneSlopes( double[] values, double spacing )
+    {
+        int n = values.length;
+        double[] secants = new double[n - 1];
+        for( int k = 0 ; k < n - 1 ; k++ )
+        {
+            secants[k] = ( values[k + 1] - values[k] ) / spacing;
+        }
+        double[] slopes = new double[n];
+        slopes[0] = secants[0];
+        slopes[n - 1] = secants[n - 2];
+        for( int k = 1 ; k < n - 1 ; k++ )
+        {
+            slopes[k] = secants[k - 1] * secants[k] <= 0 ? 0.0
+                                                         : ( secants[k - 1] + secants[k] ) / 2;
+        }
+        for( int k = 0 ; k < n - 1 ; k++ )
+        {
+            if( secants[k] == 0 )
+            {
+                slopes[k] = 0.0;
+                slopes[k + 1] = 0.0;
+                continue;
+            }
+            double a = slopes[k] / secants[k];
+            double b = slopes[k + 1] / secants[k];
+            double length = a * a + b * b;
+            if( length > 9 )
+            {
+                // the monotone region of Fritsch and Carlson is within the circle of radius 3
+                double tau = 3 / Math.sqrt( length );
+                slopes[k] = tau * a * secants[k];
+                slopes[k + 1] = tau * b * secants[k];
+            }
+        }
+        return slopes;
+    }
+
+    /**
+     * Interpolates the price of the option on a day. Beyond the stock prices of the day the price
+     * is extended along the slope of the nearest end.
+     *
+     * @param day the day of the simulation, from 0
+     * @param stockPrice the price of the stock on that day
+     * @return the price of the option
+     */
+    public double getPrice( int day, double stockPrice )
+    {
+        double[] values = prices[day];
+        int last = values.length - 1;
+        if( last == 0 )
+        {
+            return values[0];
+        }
+        double spacing = spacings[day];
+        double position = ( stockPrice - lowestPrices[day] ) / spacing;
+        if( position <= 0 )
+        {
+            return values[0] + position * spacing * slopes[day][0];
+        }
+        if( position >= last )
+        {
+            return values[last] + ( position - last ) * spacing * slopes[day][last];
+        }
+        int k = (int) position;
+        double t = position - k;
+        double oneMinusT = 1 - t;
+        // cubic Hermite basis on the interval
+        double h00 = ( 1 + 2 * t ) * oneMinusT * oneMinusT;
+        double h10 = t * oneMinusT * oneMinusT;
+        double h01 = t * t * ( 3 - 2 * t );
+        double h11 = -t * t * oneMinusT;
+        return h00 * values[k] + h01 * values[k + 1]
+               + spacing * ( h10 * slopes[day][k] + h11 * slopes[day][k + 1] );
+    }
+
+    /**
+     * @return the largest difference between the interpolated price and a binomial tree at the
+     *         middle of the intervals between stock prices, where the spline is least accurate
+     */
+    public double getInterpolationError()
+    {
+        return interpolationError;
+    }
+
+    /**
+     * @return the number of days of the surface
+     */
+    public int getNumberOfDays()
+    {
+        return prices.length;
+    }
+}
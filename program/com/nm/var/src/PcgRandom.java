@@ -0,0 +1,66 @@
+package com.nm.var.src;
+
+/**
+ * Random number generator based on O'Neill's PCG32 (XSH RR) algorithm: a 64-bit linear
+ * congruential generator whose state is permuted by a xorshift and a random rotation into 32
+ * output bits. Each odd increment selects one of 2^63 independent sequences of period 2^64.
+ */
+public class PcgRandom extends AbstractRandomGenerator
+{
+    /** Multiplier of the linear congruential step. */
+    private static final long MULTIPLIER = 6364136223846793005L;
+    /** Current state. */
+    private long              state;
+    /** Odd increment of the linear congruential step, which selects the sequence. */
+    private final long        increment;
+
+    /**
+     * Creates a generator on a sequence chosen from the seed.
+     *
+     * @param seed any seed
+     */
+    public PcgRandom( long seed )
+    {
+        this( seed, SplitMixRandom.mix64( seed ) );
+    }
+
+    /**
+     * Creates a generator the way the reference pcg32_srandom does.
+     *
+     * @param seed initial state
+     * @param sequence selects the sequence, only its 63 low bits being used
+     */
+    public PcgRandom( long seed, long sequence )
+    {
+        this.increment = ( sequence << 1 ) | 1;
+        nextInt();
+        state += seed;
+        nextInt();
+    }
+
+    /**
+     * @return the next uniformly distributed int
+     */
+    public int nextInt()
+    {
+        long old = state;
+        state = old * MULTIPLIER + increment;
+        int xorShifted = (int) ( ( ( old >>> 18 ) ^ old ) >>> 27 );
+        return Integer.rotateRight( xorShifted, (int) ( old >>> 59 ) );
+    }
+
+    /**
+     * @return the next uniformly distributed long, from two outputs
+     */
+    @Override
+    public long nextLong()
+    {
+        return ( (long) nextInt() << 32 ) | ( nextInt() & 0xffffffffL );
+    }
+
+    @Override
+    public PcgRandom split()
+    {
+        return new PcgRandom( nextLong(), nextLong() );
+    }
+}
@@ -15,8 +15,8 @@ public class Portfolio
     private ArrayList<Option> options;
     /** List of historical stock data for the assets in this portfolio. */
     private ArrayList<File>   stockPriceDataFiles;
-    /** List of investments made in assets of this portfolio. */
-    private ArrayList<Double> investments;
+    /** Series of investments made in assets of this portfolio. */
+    private DoubleSeries      investments;
     /** List of assets held in this portfolio. */
     private ArrayList<Asset>  assets;
     /** Name of the portfolio for identification. */
@@ -29,7 +29,7 @@ public class Portfolio
     public Portfolio()
     {
         assets = new ArrayList<Asset>();
-        investments = new ArrayList<Double>();
+        investments = new DoubleSeries();
         stockPriceDataFiles = new ArrayList<File>();
         options = new ArrayList<Option>();
     }
@@ -56,7 +56,7 @@ public class Portfolio
     {
         this.options = options;
         this.stockPriceDataFiles = stockPriceData;
-        this.investments = investments;
+        this.investments = DoubleSeries.valueOf( investments );
     }
 
     /**
@@ -64,8 +64,8 @@ public class Portfolio
      */
     private void updatePortfolioAssets()
     {
-        stockPriceDataFiles = new ArrayList<File>();
-        investments = new ArrayList<Double>();
+        stockPriceDataFiles = new ArrayList<File>( assets.size() );
+        investments = new DoubleSeries( assets.size() );
 
         for( Asset asset : assets )
         {
@@ -119,7 +119,7 @@ public class Portfolio
     /**
      * @return the investments made in this portfolio.
      */
-    public ArrayList<Double> getInvestments()
+    public DoubleSeries getInvestments()
     {
         return investments;
     }
@@ -127,7 +127,7 @@ public class Portfolio
     /**
      * @param investments the investments to set
      */
-    public void setInvestments( ArrayList<Double> investments )
+    public void setInvestments( DoubleSeries investments )
     {
         this.investments = investments;
     }
@@ -164,13 +164,7 @@ public class Portfolio
      */
     public double getAssetsValue()
     {
-        double sum = 0.0;
-        for( double value : investments )
-        {
-            sum += value;
-        }
-
-        return sum;
+        return investments.sum();
     }
 
     /**
@@ -0,0 +1,577 @@
+package com.nm.var.src;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Calendar;
+
+/**
+ * Streaming parser for csv files of historical stock prices.
+ * <p>
+ * The file is read in chunks of bytes and each field is parsed straight from those bytes into
+ * growable primitive columns, so no String or boxed Double is created per row. The header row
+ * decides which columns are read; the variants found in the testing folder are recognised:
+ * <ul>
+ * <li>{@code Date,Open,High,Low,Close,Volume,Adj Close} (Yahoo)</li>
+ * <li>{@code Date, Open, High, Low, Close, Volume} preceded by a byte order mark</li>
+ * <li>{@code Date,Close}</li>
+ * </ul>
+ * Dates may be written as {@code 2013-12-03}, {@code 03/12/2013} or {@code 3-Dec-13}.
+ */
+public class PriceFileParser
+{
+    /** Roles a column of the csv file can have. */
+    private static final int      IGNORED         = 0, DATE = 1, OPEN = 2, HIGH = 3, LOW = 4,
+                                                  CLOSE = 5;
+    /** Size of the chunks the file is read in. */
+    private static final int      CHUNK_SIZE      = 64 * 1024;
+    /** Number of rows the columns are first allocated for. */
+    private static final int      INITIAL_ROWS    = 256;
+    /** Largest power of ten which is exactly representable as a double. */
+    private static final int      MAX_EXACT_POWER = 22;
+    /** Powers of ten used to scale parsed digits. */
+    private static final double[] POWERS_OF_TEN   = new double[MAX_EXACT_POWER + 1];
+    /** Three letter month names, in upper case. */
+    private static final String[] MONTHS          = { "JAN", "FEB", "MAR", "APR", "MAY", "JUN",
+            "JUL", "AUG", "SEP", "OCT", "NOV", "DEC" };
+    /** Two digit years up to this value are read as 20xx, the rest as 19xx. */
+    private static final int      CENTURY_PIVOT;
+    /** Charset used to read the header row. */
+    private static final Charset  LATIN1          = Charset.forName( "ISO-8859-1" );
+
+    static
+    {
+        POWERS_OF_TEN[0] = 1.0;
+        for( int i = 1 ; i <= MAX_EXACT_POWER ; i++ )
+        {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+        // same window as SimpleDateFormat: 80 years before to 20 years after today
+        CENTURY_PIVOT = ( Calendar.getInstance().get( Calendar.YEAR ) + 20 ) % 100;
+    }
+
+    /** Headings of the first line, while it is being read. */
+    private String[] headings;
+    /** Role of each column in the file, indexed by column; null until the header is read. */
+    private int[]    roles;
+    /** Dates read, as days since 1970-01-01. */
+    private int[]    dates  = new int[INITIAL_ROWS];
+    /** Price columns read, NaN where the file has no such column. */
+    private double[] open   = new double[INITIAL_ROWS];
+    private double[] high   = new double[INITIAL_ROWS];
+    private double[] low    = new double[INITIAL_ROWS];
+    private double[] close  = new double[INITIAL_ROWS];
+    /** Number of rows read so far. */
+    private int      numberOfDays;
+    /** Bytes of the field currently being read, reused for every field. */
+    private byte[]   field  = new byte[64];
+    /** Number of bytes in the current field. */
+    private int      fieldLength;
+    /** Column of the current field. */
+    private int      column;
+    /** Whether the current row has had a value written to it. */
+    private boolean  rowStarted;
+    /** Whether the closing price of the current row has been read. */
+    private boolean  closeRead;
+
+    /**
+     * Parses a whole csv file.
+     *
+     * @param file a csv file with historical price data
+     * @throws IOException if the file cannot be read
+     * @throws NumberFormatException if a closing price cannot be read
+     */
+    public void parse( File file ) throws IOException
+    {
+        InputStream in = new FileInputStream( file );
+        try
+        {
+            parse( in );
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Parses csv content from a stream. The stream is not closed.
+     *
+     * @param in stream of csv content
+     * @throws IOException if the stream cannot be read
+     * @throws NumberFormatException if a closing price cannot be read
+     */
+    public void parse( InputStream in ) throws IOException
+    {
+        numberOfDays = 0;
+        headings = new String[0];
+        roles = null;
+        fieldLength = 0;
+        column = 0;
+        rowStarted = false;
+        closeRead = false;
+        byte[] chunk = new byte[CHUNK_SIZE];
+        int read;
+        boolean firstChunk = true;
+        while( ( read = in.read( chunk ) ) > 0 )
+        {
+            int start = 0;
+            if( firstChunk && read >= 3 && ( chunk[0] & 0xFF ) == 0xEF
+                && ( chunk[1] & 0xFF ) == 0xBB && ( chunk[2] & 0xFF ) == 0xBF )
+            {
+                // skip the byte order mark
+                start = 3;
+            }
+            firstChunk = false;
+            for( int i = start ; i < read ; i++ )
+            {
+                byte b = chunk[i];
+                if( b == ',' )
+                {
+                    endField();
+                }
+                else if( b == '\n' )
+                {
+                    endField();
+                    endRow();
+                }
+                else if( b != '\r' )
+                {
+                    if( fieldLength == field.length )
+                    {
+                        field = Arrays.copyOf( field, fieldLength * 2 );
+                    }
+                    field[fieldLength++] = b;
+                }
+            }
+        }
+        if( fieldLength > 0 || column > 0 )
+        {
+            endField();
+            endRow();
+        }
+    }
+
+    /**
+     * Called at the end of each field of the file.
+     */
+    private void endField()
+    {
+        if( roles == null )
+        {
+            addHeading();
+        }
+        else
+        {
+            int role = column < roles.length ? roles[column] : IGNORED;
+            if( role != IGNORED && ( fieldLength > 0 || role == CLOSE ) )
+            {
+                if( !rowStarted )
+                {
+                    startRow();
+                }
+                storeField( role );
+            }
+        }
+        fieldLength = 0;
+        column++;
+    }
+
+    /**
+     * Called at the end of each line of the file. Blank lines are skipped.
+     */
+    private void endRow()
+    {
+        if( roles == null )
+        {
+            resolveHeadings();
+        }
+        else if( rowStarted )
+        {
+            if( !closeRead )
+            {
+                throw new NumberFormatException( "No closing price on row " + ( numberOfDays + 1 ) );
+            }
+            numberOfDays++;
+        }
+        rowStarted = false;
+        closeRead = false;
+        column = 0;
+    }
+
+    /**
+     * Records a heading of the first line.
+     */
+    private void addHeading()
+    {
+        headings = Arrays.copyOf( headings, column + 1 );
+        headings[column] = new String( field, 0, fieldLength, LATIN1 ).trim();
+    }
+
+    /**
+     * Works out the role of each column from the headings. The closing price is read from the
+     * {@code Close} column, or failing that the first column whose heading contains "Close".
+     */
+    private void resolveHeadings()
+    {
+        roles = new int[headings.length];
+        int closeColumn = -1;
+        for( int i = 0 ; i < headings.length ; i++ )
+        {
+            String heading = headings[i];
+            if( heading.equals( "Date" ) )
+            {
+                roles[i] = DATE;
+            }
+            else if( heading.equals( "Open" ) )
+            {
+                roles[i] = OPEN;
+            }
+            else if( heading.equals( "High" ) )
+            {
+                roles[i] = HIGH;
+            }
+            else if( heading.equals( "Low" ) )
+            {
+                roles[i] = LOW;
+            }
+            else if( heading.equals( "Close" ) )
+            {
+                closeColumn = i;
+            }
+            else if( closeColumn < 0 && heading.contains( "Close" ) )
+            {
+                closeColumn = i;
+            }
+        }
+        // same default as before the header was understood
+        roles[closeColumn < 0 ? 0 : closeColumn] = CLOSE;
+        headings = null;
+    }
+
+    /**
+     * Adds a row to the columns, growing them if needed.
+     */
+    private void startRow()
+    {
+        if( numberOfDays == dates.length )
+        {
+            int capacity = dates.length * 2;
+            dates = Arrays.copyOf( dates, capacity );
+            open = Arrays.copyOf( open, capacity );
+            high = Arrays.copyOf( high, capacity );
+            low = Arrays.copyOf( low, capacity );
+            close = Arrays.copyOf( close, capacity );
+        }
+        dates[numberOfDays] = PriceHistory.UNKNOWN_DATE;
+        open[numberOfDays] = Double.NaN;
+        high[numberOfDays] = Double.NaN;
+        low[numberOfDays] = Double.NaN;
+        close[numberOfDays] = Double.NaN;
+        rowStarted = true;
+    }
+
+    /**
+     * Parses the current field into the column of its role.
+     */
+    private void storeField( int role )
+    {
+        switch( role )
+        {
+            case DATE:
+                dates[numberOfDays] = parseDate( field, 0, fieldLength );
+                break;
+            case OPEN:
+                open[numberOfDays] = parsePrice( field, 0, fieldLength, false );
+                break;
+            case HIGH:
+                high[numberOfDays] = parsePrice( field, 0, fieldLength, false );
+                break;
+            case LOW:
+                low[numberOfDays] = parsePrice( field, 0, fieldLength, false );
+                break;
+            case CLOSE:
+                close[numberOfDays] = parsePrice( field, 0, fieldLength, true );
+                closeRead = true;
+                break;
+        }
+    }
+
+    /**
+     * Parses a decimal number from bytes. Plain numbers of up to 18 digits are scaled by a power of
+     * ten in a single correctly rounded division, giving the same result as
+     * {@link Double#parseDouble(String)}; anything else is handed to that method.
+     *
+     * @param bytes buffer holding the number
+     * @param offset first byte of the number
+     * @param length number of bytes
+     * @param required whether an unreadable value is an error rather than NaN
+     * @return the number
+     */
+    static double parsePrice( byte[] bytes, int offset, int length, boolean required )
+    {
+        int start = offset, end = offset + length;
+        while( start < end && bytes[start] == ' ' )
+        {
+            start++;
+        }
+        while( end > start && bytes[end - 1] == ' ' )
+        {
+            end--;
+        }
+        boolean negative = false;
+        int i = start;
+        if( i < end && ( bytes[i] == '-' || bytes[i] == '+' ) )
+        {
+            negative = bytes[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0, decimals = 0;
+        boolean point = false, plain = i < end;
+        for( ; i < end && plain ; i++ )
+        {
+            byte b = bytes[i];
+            if( b >= '0' && b <= '9' )
+            {
+                mantissa = mantissa * 10 + ( b - '0' );
+                digits++;
+                if( point )
+                {
+                    decimals++;
+                }
+            }
+            else if( b == '.' && !point )
+            {
+                point = true;
+            }
+            else
+            {
+                plain = false;
+            }
+        }
+        if( plain && digits > 0 && digits <= 18 && decimals <= MAX_EXACT_POWER
+            && mantissa < ( 1L << 53 ) )
+        {
+            double value = mantissa / POWERS_OF_TEN[decimals];
+            return negative ? -value : value;
+        }
+        if( !required && start == end )
+        {
+            return Double.NaN;
+        }
+        String text = new String( bytes, start, end - start, LATIN1 );
+        if( required )
+        {
+            return Double.parseDouble( text );
+        }
+        try
+        {
+            return Double.parseDouble( text );
+        }
+        catch( NumberFormatException e )
+        {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Parses a date written as {@code yyyy-MM-dd}, {@code dd/MM/yyyy} or {@code d-MMM-yy}.
+     *
+     * @return days since 1970-01-01, or {@link PriceHistory#UNKNOWN_DATE} if it cannot be read
+     */
+    static int parseDate( byte[] bytes, int offset, int length )
+    {
+        // up to three numbers separated by '-' or '/', the middle one possibly a month name
+        int first = 0, second = 0, third = 0;
+        int firstLength = 0, secondLength = 0, thirdLength = 0;
+        int part = 0, end = offset + length;
+        boolean alphabeticMonth = false;
+        byte separator = 0;
+        for( int i = offset ; i < end ; i++ )
+        {
+            byte b = bytes[i];
+            if( b == ' ' )
+            {
+                continue;
+            }
+            if( b == '-' || b == '/' )
+            {
+                if( part == 2 || ( part == 0 ? firstLength : secondLength ) == 0 )
+                {
+                    return PriceHistory.UNKNOWN_DATE;
+                }
+                separator = b;
+                part++;
+            }
+            else if( b >= '0' && b <= '9' )
+            {
+                int digit = b - '0';
+                switch( part )
+                {
+                    case 0:
+                        first = first * 10 + digit;
+                        firstLength++;
+                        break;
+                    case 1:
+                        second = second * 10 + digit;
+                        secondLength++;
+                        break;
+                    default:
+                        third = third * 10 + digit;
+                        thirdLength++;
+                        break;
+                }
+            }
+            else if( part == 1 && secondLength == 0 && i + 3 <= end )
+            {
+                second = parseMonth( bytes, i );
+                if( second == 0 )
+                {
+                    return PriceHistory.UNKNOWN_DATE;
+                }
+                secondLength = 3;
+                alphabeticMonth = true;
+                i += 2;
+            }
+            else
+            {
+                return PriceHistory.UNKNOWN_DATE;
+            }
+        }
+        if( part != 2 || thirdLength == 0 )
+        {
+            return PriceHistory.UNKNOWN_DATE;
+        }
+
+        int year, month, day;
+        if( firstLength == 4 && !alphabeticMonth && separator == '-' )
+        {
+            year = first;
+            month = second;
+            day = third;
+        }
+        else
+        {
+            day = first;
+            month = second;
+            year = third;
+            if( thirdLength == 2 )
+            {
+                year += year <= CENTURY_PIVOT ? 2000 : 1900;
+            }
+        }
+        if( month < 1 || month > 12 || day < 1 || day > getDaysInMonth( year, month ) )
+        {
+            return PriceHistory.UNKNOWN_DATE;
+        }
+        return toEpochDay( year, month, day );
+    }
+
+    /**
+     * @return month number of the three letter month name starting at offset, 0 if none
+     */
+    private static int parseMonth( byte[] bytes, int offset )
+    {
+        for( int m = 0 ; m < MONTHS.length ; m++ )
+        {
+            String name = MONTHS[m];
+            boolean matches = true;
+            for( int c = 0 ; c < 3 && matches ; c++ )
+            {
+                matches = ( bytes[offset + c] & 0xDF ) == name.charAt( c );
+            }
+            if( matches )
+            {
+                return m + 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return the number of days in a month of the Gregorian calendar
+     */
+    private static int getDaysInMonth( int year, int month )
+    {
+        switch( month )
+        {
+            case 2:
+                boolean leap = ( year % 4 == 0 && year % 100 != 0 ) || year % 400 == 0;
+                return leap ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    /**
+     * Converts a date of the Gregorian calendar to the number of days since 1970-01-01.
+     *
+     * @see <a href="http://howardhinnant.github.io/date_algorithms.html">days_from_civil</a>
+     */
+    static int toEpochDay( int year, int month, int day )
+    {
+        int y = month <= 2 ? year - 1 : year;
+        int era = ( y >= 0 ? y : y - 399 ) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = ( 153 * ( month + ( month > 2 ? -3 : 9 ) ) + 2 ) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * @return the number of rows of prices read
+     */
+    public int getNumberOfDays()
+    {
+        return numberOfDays;
+    }
+
+    /**
+     * @return dates read, as days since 1970-01-01; only the first getNumberOfDays() are used
+     */
+    public int[] getDates()
+    {
+        return dates;
+    }
+
+    /**
+     * @return opening prices read; only the first getNumberOfDays() are used
+     */
+    public double[] getOpen()
+    {
+        return open;
+    }
+
+    /**
+     * @return highest prices read; only the first getNumberOfDays() are used
+     */
+    public double[] getHigh()
+    {
+        return high;
+    }
+
+    /**
+     * @return lowest prices read; only the first getNumberOfDays() are used
+     */
+    public double[] getLow()
+    {
+        return low;
+    }
+
+    /**
+     * @return closing prices read; only the first getNumberOfDays() are used
+     */
+    public double[] getClose()
+    {
+        return close;
+    }
+}
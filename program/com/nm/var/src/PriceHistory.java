@@ -0,0 +1,140 @@
+package com.nm.var.src;
+
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Read-only view of the historical prices of one asset, laid out column by column in a
+ * {@link ByteBuffer}. The buffer is normally a memory-mapped file written by {@link PriceStore}, so
+ * reading a price does not require the original csv file to be parsed again.
+ * <p>
+ * Rows are kept in the same order as the csv file, i.e. the most recent day first.
+ */
+public class PriceHistory
+{
+    /** Value stored for a date which could not be read from the csv file. */
+    public static final int    UNKNOWN_DATE = Integer.MIN_VALUE;
+    /** Number of days of prices held. */
+    private final int          numberOfDays;
+    /** Dates of each day, as the number of days since 1970-01-01. */
+    private final IntBuffer    dates;
+    /** Opening prices, NaN if the csv file had no such column. */
+    private final DoubleBuffer open;
+    /** Highest prices, NaN if the csv file had no such column. */
+    private final DoubleBuffer high;
+    /** Lowest prices, NaN if the csv file had no such column. */
+    private final DoubleBuffer low;
+    /** Closing prices. */
+    private final DoubleBuffer close;
+
+    /**
+     * Creates a view over the columns of a price buffer.
+     *
+     * @param buffer buffer holding the columns, positioned anywhere
+     * @param numberOfDays number of rows in each column
+     * @param datesOffset byte offset of the dates column
+     * @param pricesOffset byte offset of the first price column
+     */
+    PriceHistory( ByteBuffer buffer, int numberOfDays, int datesOffset, int pricesOffset )
+    {
+        this.numberOfDays = numberOfDays;
+        this.dates = column( buffer, datesOffset ).asIntBuffer();
+        int columnLength = numberOfDays * 8;
+        this.open = column( buffer, pricesOffset ).asDoubleBuffer();
+        this.high = column( buffer, pricesOffset + columnLength ).asDoubleBuffer();
+        this.low = column( buffer, pricesOffset + 2 * columnLength ).asDoubleBuffer();
+        this.close = column( buffer, pricesOffset + 3 * columnLength ).asDoubleBuffer();
+    }
+
+    /**
+     * @return a buffer sharing the content of the source buffer, starting at offset.
+     */
+    private static ByteBuffer column( ByteBuffer buffer, int offset )
+    {
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position( offset );
+        return duplicate.slice();
+    }
+
+    /**
+     * @return the number of days of prices held
+     */
+    public int getNumberOfDays()
+    {
+        return numberOfDays;
+    }
+
+    /**
+     * @param day row of the csv file, 0 being the most recent day
+     * @return the date of the day as the number of days since 1970-01-01
+     */
+    public int getDate( int day )
+    {
+        return dates.get( day );
+    }
+
+    /**
+     * @param day row of the csv file, 0 being the most recent day
+     * @return the opening price on that day
+     */
+    public double getOpen( int day )
+    {
+        return open.get( day );
+    }
+
+    /**
+     * @param day row of the csv file, 0 being the most recent day
+     * @return the highest price on that day
+     */
+    public double getHigh( int day )
+    {
+        return high.get( day );
+    }
+
+    /**
+     * @param day row of the csv file, 0 being the most recent day
+     * @return the lowest price on that day
+     */
+    public double getLow( int day )
+    {
+        return low.get( day );
+    }
+
+    /**
+     * @param day row of the csv file, 0 being the most recent day
+     * @return the closing price on that day
+     */
+    public double getClose( int day )
+    {
+        return close.get( day );
+    }
+
+    /**
+     * @return series of closing prices, most recent first
+     */
+    public DoubleSeries getClosingPrices()
+    {
+        double[] closePrices = new double[numberOfDays];
+        close.duplicate().get( closePrices );
+        return new DoubleSeries( closePrices );
+    }
+
+    /**
+     * Computes the daily returns straight from the closing prices using natural logs.
+     *
+     * @return an array of returns, most recent first
+     */
+    public double[] getReturns()
+    {
+        double[] returns = new double[numberOfDays - 1];
+        double day2 = numberOfDays > 0 ? close.get( 0 ) : 0.0;
+        for( int i = 0 ; i < returns.length ; i++ )
+        {
+            double day1 = close.get( i + 1 );
+            returns[i] = Math.log( day2 / day1 );
+            day2 = day1;
+        }
+        return returns;
+    }
+}
@@ -0,0 +1,309 @@
+package com.nm.var.src;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Singleton store of historical stock prices in a columnar binary format.
+ * <p>
+ * The first time a csv file is requested it is parsed once and written to the store directory as
+ * dates, open, high, low and close columns. Later requests map the binary file with a
+ * {@link MappedByteBuffer} instead of parsing the csv again. A stored file is only reused while the
+ * path, size and last modified time of the csv file it was built from are unchanged.
+ */
+public class PriceStore
+{
+    /** Single instance of the store shared by all models. */
+    private static final PriceStore instance       = new PriceStore();
+    /** Identifies a file written by this class ("VARP"). */
+    private static final int        MAGIC          = 0x56415250;
+    /** Version of the binary layout, increased whenever the layout or parsing changes. */
+    private static final int        VERSION        = 2;
+    /** Extension of the files written to the store directory. */
+    private static final String     EXTENSION      = ".vps";
+    /** Size of the fixed part of the header in bytes. */
+    private static final int        HEADER_LENGTH  = 36;
+    /** Charset used to record the path of the csv file in the header. */
+    private static final Charset    UTF8           = Charset.forName( "UTF-8" );
+    /** Directory binary price files are written to, null to keep prices in memory only. */
+    private File                    storeDirectory = new File( System.getProperty( "java.io.tmpdir" ),
+                                                               "ValueAtRisk-prices" );
+
+    /** Empty constructor. */
+    private PriceStore()
+    {
+    }
+
+    /**
+     * @return the singleton instance of the store.
+     */
+    public static PriceStore getInstance()
+    {
+        return instance;
+    }
+
+    /**
+     * Gets the prices held in a csv file, from the store directory if the file has already been
+     * stored and has not changed since.
+     *
+     * @param file a csv file with historical price data.
+     * @return view of the prices in the file
+     */
+    public PriceHistory load( File file )
+    {
+        File directory = storeDirectory;
+        ByteBuffer columns = null;
+        if( directory != null && file.isFile() )
+        {
+            File storedFile = getStoredFile( directory, file );
+            try
+            {
+                PriceHistory stored = map( storedFile, file );
+                if( stored != null )
+                {
+                    return stored;
+                }
+                PriceFileParser parser = new PriceFileParser();
+                boolean complete = read( parser, file );
+                columns = layOut( parser, file );
+                if( !complete )
+                {
+                    // only part of the file was read, so it is used this once but not stored
+                    return wrap( columns );
+                }
+                write( columns, directory, storedFile );
+                PriceHistory written = map( storedFile, file );
+                if( written != null )
+                {
+                    return written;
+                }
+            }
+            catch( IOException e )
+            {
+                System.out.println( "Price store " + storedFile.getName() + " has a problem." );
+            }
+        }
+        if( columns == null )
+        {
+            PriceFileParser parser = new PriceFileParser();
+            read( parser, file );
+            columns = layOut( parser, file );
+        }
+        return wrap( columns );
+    }
+
+    /**
+     * @return the name the binary copy of a csv file is stored under.
+     */
+    private File getStoredFile( File directory, File file )
+    {
+        String path = getPath( file );
+        return new File( directory, file.getName() + "-" + Integer.toHexString( path.hashCode() )
+                                    + EXTENSION );
+    }
+
+    /**
+     * @return the canonical path of the file, or the absolute path if it cannot be resolved.
+     */
+    private static String getPath( File file )
+    {
+        try
+        {
+            return file.getCanonicalPath();
+        }
+        catch( IOException e )
+        {
+            return file.getAbsolutePath();
+        }
+    }
+
+    /**
+     * Maps a stored file into memory if it was built from the current version of the csv file.
+     *
+     * @param storedFile binary file in the store directory
+     * @param file csv file the binary file should have been built from
+     * @return view of the stored prices, or null if the stored file is missing or out of date
+     * @throws IOException if the stored file cannot be read
+     */
+    private PriceHistory map( File storedFile, File file ) throws IOException
+    {
+        if( !storedFile.isFile() )
+        {
+            return null;
+        }
+        RandomAccessFile raf = new RandomAccessFile( storedFile, "r" );
+        try
+        {
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+            if( buffer.capacity() < HEADER_LENGTH || buffer.getInt( 0 ) != MAGIC
+                || buffer.getInt( 4 ) != VERSION || buffer.getLong( 8 ) != file.lastModified()
+                || buffer.getLong( 16 ) != file.length() )
+            {
+                return null;
+            }
+            int numberOfDays = buffer.getInt( 24 );
+            int pathLength = buffer.getInt( 28 );
+            byte[] path = new byte[pathLength];
+            ByteBuffer pathBuffer = buffer.duplicate();
+            pathBuffer.position( HEADER_LENGTH );
+            pathBuffer.get( path );
+            if( !getPath( file ).equals( new String( path, UTF8 ) ) )
+            {
+                return null;
+            }
+            int datesOffset = buffer.getInt( 32 );
+            return new PriceHistory( buffer, numberOfDays, datesOffset,
+                                     getPricesOffset( datesOffset, numberOfDays ) );
+        }
+        finally
+        {
+            // the mapping stays valid after the file is closed
+            raf.close();
+        }
+    }
+
+    /**
+     * Writes the columns to a temporary file and moves it into place, so a partially written file
+     * is never mapped.
+     */
+    private void write( ByteBuffer columns, File directory, File storedFile ) throws IOException
+    {
+        if( !directory.isDirectory() && !directory.mkdirs() )
+        {
+            throw new IOException( "Cannot create " + directory );
+        }
+        File temporary = File.createTempFile( storedFile.getName(), ".tmp", directory );
+        RandomAccessFile raf = new RandomAccessFile( temporary, "rw" );
+        try
+        {
+            ByteBuffer content = columns.duplicate();
+            content.clear();
+            FileChannel channel = raf.getChannel();
+            while( content.hasRemaining() )
+            {
+                channel.write( content );
+            }
+        }
+        finally
+        {
+            raf.close();
+        }
+        if( !temporary.renameTo( storedFile ) )
+        {
+            // another process may have stored the same file, or the old copy is in the way
+            storedFile.delete();
+            if( !temporary.renameTo( storedFile ) )
+            {
+                temporary.delete();
+                throw new IOException( "Cannot store " + storedFile );
+            }
+        }
+    }
+
+    /**
+     * @return a view of columns held in a buffer in the stored file format.
+     */
+    private PriceHistory wrap( ByteBuffer columns )
+    {
+        int numberOfDays = columns.getInt( 24 );
+        int datesOffset = columns.getInt( 32 );
+        return new PriceHistory( columns, numberOfDays, datesOffset,
+                                 getPricesOffset( datesOffset, numberOfDays ) );
+    }
+
+    /**
+     * @return offset of the first price column, aligned so prices can be read as doubles.
+     */
+    private static int getPricesOffset( int datesOffset, int numberOfDays )
+    {
+        return align( datesOffset + numberOfDays * 4 );
+    }
+
+    /**
+     * @return offset rounded up to the next multiple of 8.
+     */
+    private static int align( int offset )
+    {
+        return ( offset + 7 ) & ~7;
+    }
+
+    /**
+     * Reads through a csv file, keeping the days read before any problem.
+     *
+     * @param parser parser receiving the dates and prices
+     * @param file a csv file with historical price data.
+     * @return true if the whole file was read
+     */
+    private static boolean read( PriceFileParser parser, File file )
+    {
+        try
+        {
+            parser.parse( file );
+            return true;
+        }
+        catch( IOException e )
+        {
+            System.out.println( "File" + file.getName() + " has a problem." );
+            return false;
+        }
+    }
+
+    /**
+     * Lays out the dates and prices read from a csv file in the stored file format.
+     *
+     * @param parser parser which has read the file
+     * @param file the csv file
+     * @return buffer containing the header and columns
+     */
+    private ByteBuffer layOut( PriceFileParser parser, File file )
+    {
+        byte[] path = getPath( file ).getBytes( UTF8 );
+        int numberOfDays = parser.getNumberOfDays();
+        int datesOffset = align( HEADER_LENGTH + path.length );
+        int pricesOffset = getPricesOffset( datesOffset, numberOfDays );
+        int columnLength = numberOfDays * 8;
+        ByteBuffer columns = ByteBuffer.allocate( pricesOffset + 4 * columnLength );
+        columns.putInt( 0, MAGIC );
+        columns.putInt( 4, VERSION );
+        columns.putLong( 8, file.lastModified() );
+        columns.putLong( 16, file.length() );
+        columns.putInt( 24, numberOfDays );
+        columns.putInt( 28, path.length );
+        columns.putInt( 32, datesOffset );
+        columns.position( HEADER_LENGTH );
+        columns.put( path );
+        columns.position( datesOffset );
+        columns.asIntBuffer().put( parser.getDates(), 0, numberOfDays );
+        double[][] prices = { parser.getOpen(), parser.getHigh(), parser.getLow(),
+                parser.getClose() };
+        for( int column = 0 ; column < prices.length ; column++ )
+        {
+            columns.position( pricesOffset + column * columnLength );
+            columns.asDoubleBuffer().put( prices[column], 0, numberOfDays );
+        }
+        columns.clear();
+        return columns;
+    }
+
+    /**
+     * @return the directory binary price files are written to
+     */
+    public File getStoreDirectory()
+    {
+        return storeDirectory;
+    }
+
+    /**
+     * @param storeDirectory the directory to write binary price files to, null to disable
+     */
+    public void setStoreDirectory( File storeDirectory )
+    {
+        this.storeDirectory = storeDirectory;
+    }
+}
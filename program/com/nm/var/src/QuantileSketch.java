@@ -0,0 +1,37 @@
+package com.nm.var.src;
+
+/**
+ * Summary of a stream of values, such as simulated portfolio values, from which percentiles can
+ * be estimated without keeping every value.
+ */
+public interface QuantileSketch
+{
+    /**
+     * @param value the next value of the stream
+     */
+    void add( double value );
+
+    /**
+     * @return the number of values added
+     */
+    long getCount();
+
+    /**
+     * @return the smallest value added
+     */
+    double getMinimum();
+
+    /**
+     * @param p the percentile, in (0, 100]
+     * @return the estimated value at the percentile
+     */
+    double getPercentile( double p );
+
+    /**
+     * @param p the percentile, in (0, 100]
+     * @param z number of standard deviations covered, 1.96 for a 95% interval
+     * @return the lower and upper bounds of the confidence interval of the percentile, from the
+     *         order statistics either side of it
+     */
+    double[] getPercentileInterval( double p, double z );
+}
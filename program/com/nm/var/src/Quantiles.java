@@ -0,0 +1,345 @@
+package com.nm.var.src;
+
+import java.util.Arrays;
+
+/**
+ * Percentiles of unsorted data found by selection rather than by sorting.
+ * <p>
+ * Selection is an introselect: a quickselect with median of three pivots, which falls back to
+ * sorting the remaining range if partitioning stops making progress, so it is O(n) on average and
+ * O(n log n) at worst. The data is reordered in place, so callers must pass an array they own.
+ * <p>
+ * Percentiles are estimated the same way as
+ * {@link org.apache.commons.math3.stat.descriptive.rank.Percentile}, interpolating between the
+ * values around position p * (n + 1) / 100.
+ */
+public abstract class Quantiles
+{
+    /** Ranges this small are sorted rather than partitioned. */
+    private static final int SMALL_RANGE = 16;
+
+    /**
+     * Reorders the data so the value at index k is the one a sort would put there, with no larger
+     * value before it and no smaller value after it.
+     *
+     * @param data values to reorder
+     * @param k index of the value to select, from 0
+     * @return the k-th smallest value
+     */
+    public static double select( double[] data, int k )
+    {
+        return select( data, 0, data.length, k );
+    }
+
+    /**
+     * Selects the k-th smallest value of a range of the data.
+     *
+     * @param data values to reorder
+     * @param from first index of the range
+     * @param to index after the last of the range
+     * @param k index of the value to select, within the range
+     * @return the value at index k once the range is reordered
+     */
+    public static double select( double[] data, int from, int to, int k )
+    {
+        int depthLimit = 2 * ( 32 - Integer.numberOfLeadingZeros( to - from ) );
+        while( to - from > SMALL_RANGE )
+        {
+            if( depthLimit-- == 0 )
+            {
+                // too many poor pivots, give up on partitioning
+                Arrays.sort( data, from, to );
+                return data[k];
+            }
+            int pivotIndex = partition( data, null, from, to );
+            if( pivotIndex == k )
+            {
+                return data[k];
+            }
+            else if( k < pivotIndex )
+            {
+                to = pivotIndex;
+            }
+            else
+            {
+                from = pivotIndex + 1;
+            }
+        }
+        Arrays.sort( data, from, to );
+        return data[k];
+    }
+
+    /**
+     * Partitions a range around the median of its first, middle and last values.
+     *
+     * @param weights weights moved along with the data, or null
+     * @return the final index of the pivot, with no larger value before it and no smaller after
+     */
+    private static int partition( double[] data, double[] weights, int from, int to )
+    {
+        int last = to - 1;
+        int middle = ( from + last ) >>> 1;
+        // order first, middle and last so the median is in the middle
+        if( data[middle] < data[from] )
+        {
+            swap( data, weights, middle, from );
+        }
+        if( data[last] < data[from] )
+        {
+            swap( data, weights, last, from );
+        }
+        if( data[last] < data[middle] )
+        {
+            swap( data, weights, last, middle );
+        }
+        double pivot = data[middle];
+        // the first and last values already sit on the right sides of the pivot
+        swap( data, weights, middle, last - 1 );
+        int i = from, j = last - 1;
+        while( true )
+        {
+            while( data[++i] < pivot )
+            {
+            }
+            while( pivot < data[--j] )
+            {
+            }
+            if( i >= j )
+            {
+                break;
+            }
+            swap( data, weights, i, j );
+        }
+        swap( data, weights, i, last - 1 );
+        return i;
+    }
+
+    private static void swap( double[] data, double[] weights, int i, int j )
+    {
+        double value = data[i];
+        data[i] = data[j];
+        data[j] = value;
+        if( weights != null )
+        {
+            double weight = weights[i];
+            weights[i] = weights[j];
+            weights[j] = weight;
+        }
+    }
+
+    /**
+     * Gets a percentile of the data, reordering it in place.
+     *
+     * @param data values, in any order
+     * @param p the percentile, in (0, 100]
+     * @return the estimated value at the percentile
+     */
+    public static double getPercentile( double[] data, double p )
+    {
+        return getTailStatistics( data, p ).getQuantile();
+    }
+
+    /**
+     * Gets a percentile of the data together with the mean of the lower tail and the minimum,
+     * reordering the data in place. The tail is made of the floor(p * (n + 1) / 100) smallest
+     * values, and at least of the minimum.
+     *
+     * @param data values, in any order
+     * @param p the percentile, in (0, 100]
+     * @return the value at the percentile, the mean of the values at or below it and the minimum
+     */
+    public static TailStatistics getTailStatistics( double[] data, double p )
+    {
+        int length = data.length;
+        if( length == 0 )
+        {
+            return new TailStatistics( Double.NaN, Double.NaN, Double.NaN, 0 );
+        }
+        double position = p * ( length + 1 ) / 100;
+        int tailSize = (int) getTailSize( length, p );
+        int lowerIndex = tailSize - 1;
+        double lower = select( data, lowerIndex );
+
+        // every value before the selected one is in the tail
+        double sum = 0.0;
+        double minimum = lower;
+        for( int i = 0 ; i <= lowerIndex ; i++ )
+        {
+            sum += data[i];
+            minimum = Math.min( minimum, data[i] );
+        }
+
+        double quantile;
+        if( position < 1 )
+        {
+            quantile = minimum;
+        }
+        else if( position >= length )
+        {
+            quantile = lower;
+        }
+        else
+        {
+            // interpolate towards the next value, the smallest of those after the selected one
+            double upper = data[tailSize];
+            for( int i = tailSize + 1 ; i < length ; i++ )
+            {
+                upper = Math.min( upper, data[i] );
+            }
+            quantile = lower + ( position - Math.floor( position ) ) * ( upper - lower );
+        }
+        return new TailStatistics( quantile, sum / tailSize, minimum, tailSize );
+    }
+
+    /**
+     * Gets a distribution-free confidence interval of a percentile from the order statistics of
+     * the data, reordering it in place. The number of values below the true percentile is
+     * binomial, so the interval runs between the values whose ranks are z standard deviations of
+     * that count either side of the expected rank.
+     *
+     * @param data values, in any order
+     * @param p the percentile, in (0, 100]
+     * @param z number of standard deviations covered, 1.96 for a 95% interval
+     * @return the lower and upper bounds of the interval
+     */
+    public static double[] getPercentileInterval( double[] data, double p, double z )
+    {
+        int length = data.length;
+        if( length == 0 )
+        {
+            return new double[] { Double.NaN, Double.NaN };
+        }
+        long[] indices = getIntervalIndices( length, p, z );
+        int lowerIndex = (int) indices[0], upperIndex = (int) indices[1];
+        double upper = select( data, upperIndex );
+        // every value before the upper bound is no larger than it
+        double lower = select( data, 0, upperIndex + 1, lowerIndex );
+        return new double[] { lower, upper };
+    }
+
+    /**
+     * @param length number of values
+     * @param p the percentile, in (0, 100]
+     * @return the number of smallest values making the tail at the percentile, at least 1
+     */
+    static long getTailSize( long length, double p )
+    {
+        double position = p * ( length + 1 ) / 100;
+        return (long) Math.min( Math.max( Math.floor( position ), 1 ), length );
+    }
+
+    /**
+     * @param length number of values
+     * @param p the percentile, in (0, 100]
+     * @param z number of standard deviations covered
+     * @return the indices, from 0, of the order statistics bounding the confidence interval of
+     *         the percentile
+     */
+    static long[] getIntervalIndices( long length, double p, double z )
+    {
+        double probability = p / 100;
+        double expectedRank = length * probability;
+        double deviation = z * Math.sqrt( length * probability * ( 1 - probability ) );
+        long lowerIndex = (long) Math.max( Math.floor( expectedRank - deviation ) - 1, 0 );
+        long upperIndex = (long) Math.min( Math.ceil( expectedRank + deviation ) - 1, length - 1 );
+        return new long[] { lowerIndex, Math.max( upperIndex, lowerIndex ) };
+    }
+
+    /**
+     * Sorts a range of values, moving their weights along with them.
+     *
+     * @param data values to sort
+     * @param weights weight of each value
+     * @param from first index of the range
+     * @param to index after the last of the range
+     */
+    static void sort( double[] data, double[] weights, int from, int to )
+    {
+        while( to - from > SMALL_RANGE )
+        {
+            int pivotIndex = partition( data, weights, from, to );
+            // recurse into the smaller side so the stack stays shallow
+            if( pivotIndex - from < to - pivotIndex )
+            {
+                sort( data, weights, from, pivotIndex );
+                from = pivotIndex + 1;
+            }
+            else
+            {
+                sort( data, weights, pivotIndex + 1, to );
+                to = pivotIndex;
+            }
+        }
+        insertionSort( data, weights, from, to );
+    }
+
+    private static void insertionSort( double[] data, double[] weights, int from, int to )
+    {
+        for( int i = from + 1 ; i < to ; i++ )
+        {
+            for( int j = i ; j > from && data[j] < data[j - 1] ; j-- )
+            {
+                swap( data, weights, j, j - 1 );
+            }
+        }
+    }
+
+    /**
+     * Gets a percentile of scenarios drawn by importance sampling, reordering both arrays in
+     * place. Each value is weighted by its likelihood ratio, whose expected value is 1, and the
+     * percentile is the smallest value at which the weights of the values at or below it reach p%
+     * of the number of values. Dividing by the number of values rather than the total weight
+     * keeps the noise of the weights outside the tail out of the estimate.
+     *
+     * @param data values, in any order
+     * @param weights likelihood ratio of each value
+     * @param p the percentile, in [0, 100]
+     * @return the value at the percentile, the largest value if the weights never reach it
+     */
+    public static double getWeightedPercentile( double[] data, double[] weights, double p )
+    {
+        if( data.length == 0 )
+        {
+            return Double.NaN;
+        }
+        double target = data.length * p / 100;
+
+        // quickselect on the weight rather than the rank; simulated values are not adversarial,
+        // so there is no fallback for poor pivots
+        int from = 0, to = data.length;
+        while( to - from > SMALL_RANGE )
+        {
+            int pivotIndex = partition( data, weights, from, to );
+            double lowerWeight = 0.0;
+            for( int i = from ; i <= pivotIndex ; i++ )
+            {
+                lowerWeight += weights[i];
+            }
+            if( lowerWeight < target )
+            {
+                target -= lowerWeight;
+                from = pivotIndex + 1;
+            }
+            else if( lowerWeight - weights[pivotIndex] < target || pivotIndex == from )
+            {
+                return data[pivotIndex];
+            }
+            else
+            {
+                to = pivotIndex;
+            }
+        }
+
+        // sort the remaining pairs, then accumulate their weights
+        insertionSort( data, weights, from, to );
+        for( int i = from ; i < to - 1 ; i++ )
+        {
+            target -= weights[i];
+            if( target <= 0 )
+            {
+                return data[i];
+            }
+        }
+        return data[to - 1];
+    }
+}
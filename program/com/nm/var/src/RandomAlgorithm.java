@@ -0,0 +1,59 @@
+package com.nm.var.src;
+
+/**
+ * Enumeration of the pseudo-random number generators a simulation can draw its scenarios from.
+ * Every stream of a run is derived from the seed of the run and the index of the stream.
+ */
+public enum RandomAlgorithm
+{
+    /** SplitMix64, the smallest state and cheapest to create, one per block of scenarios. */
+    SPLIT_MIX
+    {
+        @Override
+        public RandomGenerator newGenerator( long seed )
+        {
+            return new SplitMixRandom( seed );
+        }
+    },
+    /** xoshiro256**, the longest period. */
+    XOSHIRO
+    {
+        @Override
+        public RandomGenerator newGenerator( long seed )
+        {
+            return new XoshiroRandom( seed );
+        }
+    },
+    /** PCG32, whose outputs are a permutation of a linear congruential generator. */
+    PCG
+    {
+        @Override
+        public RandomGenerator newGenerator( long seed )
+        {
+            return new PcgRandom( seed );
+        }
+    };
+
+    /**
+     * @param seed any seed
+     * @return a new generator seeded with it
+     */
+    public abstract RandomGenerator newGenerator( long seed );
+
+    /**
+     * Creates the generator of one of the streams derived from a seed. Different streams of the
+     * same seed, and the same stream of different seeds, draw unrelated numbers.
+     *
+     * @param seed seed shared by every stream of a run
+     * @param stream index of the stream
+     * @return the generator of the stream
+     */
+    public RandomGenerator forStream( long seed, long stream )
+    {
+        if( this == SPLIT_MIX )
+        {
+            return SplitMixRandom.forStream( seed, stream );
+        }
+        return newGenerator( SplitMixRandom.forStream( seed, stream ).nextLong() );
+    }
+}
@@ -0,0 +1,31 @@
+package com.nm.var.src;
+
+/**
+ * Pseudo-random number generator for simulations. Unlike {@link java.util.Random}, generators are
+ * not synchronised: each thread, or each block of scenarios, draws from its own instance.
+ *
+ * @see RandomAlgorithm
+ */
+public interface RandomGenerator extends NormalGenerator
+{
+    /**
+     * @return the next uniformly distributed long
+     */
+    long nextLong();
+
+    /**
+     * @return the next uniformly distributed double in [0, 1)
+     */
+    double nextDouble();
+
+    /**
+     * @param bound the upper bound, positive
+     * @return the next uniformly distributed int in [0, bound)
+     */
+    int nextInt( int bound );
+
+    /**
+     * @return a new generator seeded from this one, which draws numbers unrelated to it
+     */
+    RandomGenerator split();
+}
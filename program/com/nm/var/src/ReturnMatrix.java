@@ -0,0 +1,311 @@
+package com.nm.var.src;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Daily returns of several assets aligned on the dates of their prices, so the return of every
+ * asset in a row belongs to the same day.
+ * <p>
+ * The dates of all price files are merge-joined once, and the closing prices of each asset are
+ * laid out on the common calendar following a {@link MissingDataPolicy}. Returns are held in one
+ * contiguous array, the days of each asset one after the other, most recent first.
+ */
+public class ReturnMatrix
+{
+    /** Date of each row, as days since 1970-01-01, most recent first. */
+    private int[]    dates;
+    /** Returns of every asset, numberOfDays values per asset. */
+    private double[] returns;
+    /** Number of assets. */
+    private int      numberOfAssets;
+    /** Number of days of returns. */
+    private int      numberOfDays;
+
+    /**
+     * Aligns the returns of the prices held in several csv files.
+     *
+     * @param files csv files with historical price data, one for each asset
+     * @param policy how to handle days on which some assets have no price
+     */
+    public ReturnMatrix( ArrayList<File> files, MissingDataPolicy policy )
+    {
+        int[][] priceDates = new int[files.size()][];
+        double[][] prices = new double[files.size()][];
+        for( int asset = 0 ; asset < prices.length ; asset++ )
+        {
+            readPrices( files.get( asset ), priceDates, prices, asset );
+        }
+        align( priceDates, prices, policy );
+    }
+
+    /**
+     * Aligns the returns of several series of prices.
+     *
+     * @param priceDates date of each price of each asset, as days since 1970-01-01
+     * @param prices closing prices of each asset, in the same order as their dates
+     * @param policy how to handle days on which some assets have no price
+     */
+    public ReturnMatrix( int[][] priceDates, double[][] prices, MissingDataPolicy policy )
+    {
+        align( priceDates.clone(), prices.clone(), policy );
+    }
+
+    /**
+     * Merges the dates of the assets and computes their returns on the dates kept.
+     */
+    private void align( int[][] priceDates, double[][] prices, MissingDataPolicy policy )
+    {
+        numberOfAssets = prices.length;
+        for( int asset = 0 ; asset < numberOfAssets ; asset++ )
+        {
+            sortMostRecentFirst( priceDates, prices, asset );
+        }
+
+        int[] calendar = mergeDates( priceDates, policy == MissingDataPolicy.INTERSECT );
+        double[][] alignedPrices = new double[numberOfAssets][];
+        int numberOfPrices = calendar.length;
+        for( int asset = 0 ; asset < numberOfAssets ; asset++ )
+        {
+            alignedPrices[asset] = alignPrices( calendar, priceDates[asset], prices[asset] );
+            if( policy == MissingDataPolicy.FORWARD_FILL )
+            {
+                numberOfPrices = Math.min( numberOfPrices,
+                                           getNumberOfKnownPrices( alignedPrices[asset] ) );
+            }
+        }
+
+        numberOfDays = Math.max( numberOfPrices - 1, 0 );
+        dates = Arrays.copyOf( calendar, numberOfDays );
+        returns = new double[numberOfAssets * numberOfDays];
+        for( int asset = 0 ; asset < numberOfAssets ; asset++ )
+        {
+            double[] assetPrices = alignedPrices[asset];
+            int offset = asset * numberOfDays;
+            for( int day = 0 ; day < numberOfDays ; day++ )
+            {
+                double dailyReturn = Math.log( assetPrices[day] / assetPrices[day + 1] );
+                // only ZERO_FILL keeps days outside the history of an asset
+                returns[offset + day] = Double.isNaN( dailyReturn ) ? 0.0 : dailyReturn;
+            }
+        }
+    }
+
+    /**
+     * Reads the dates and closing prices of a csv file, skipping rows whose date or price could
+     * not be read.
+     */
+    private static void readPrices( File file, int[][] priceDates, double[][] prices, int asset )
+    {
+        PriceHistory history = PriceStore.getInstance().load( file );
+        int numberOfPrices = history.getNumberOfDays();
+        int[] assetDates = new int[numberOfPrices];
+        double[] assetPrices = new double[numberOfPrices];
+        int known = 0;
+        for( int day = 0 ; day < numberOfPrices ; day++ )
+        {
+            int date = history.getDate( day );
+            double close = history.getClose( day );
+            if( date != PriceHistory.UNKNOWN_DATE && !Double.isNaN( close ) )
+            {
+                assetDates[known] = date;
+                assetPrices[known] = close;
+                known++;
+            }
+        }
+        priceDates[asset] = Arrays.copyOf( assetDates, known );
+        prices[asset] = Arrays.copyOf( assetPrices, known );
+    }
+
+    /**
+     * Puts the prices of an asset in order of date, most recent first, if they are not already,
+     * keeping the first price of any date listed twice.
+     */
+    private static void sortMostRecentFirst( int[][] priceDates, double[][] prices, int asset )
+    {
+        int[] assetDates = priceDates[asset];
+        boolean sorted = true;
+        for( int day = 1 ; day < assetDates.length && sorted ; day++ )
+        {
+            sorted = assetDates[day] < assetDates[day - 1];
+        }
+        if( sorted )
+        {
+            return;
+        }
+
+        // pack date and row into one long so a plain sort orders the rows by date
+        long[] keys = new long[assetDates.length];
+        for( int day = 0 ; day < keys.length ; day++ )
+        {
+            keys[day] = ( (long) -assetDates[day] << 32 ) | day;
+        }
+        Arrays.sort( keys );
+        int[] sortedDates = new int[keys.length];
+        double[] sortedPrices = new double[keys.length];
+        int count = 0;
+        for( long key : keys )
+        {
+            int day = (int) key;
+            if( count == 0 || sortedDates[count - 1] != assetDates[day] )
+            {
+                sortedDates[count] = assetDates[day];
+                sortedPrices[count] = prices[asset][day];
+                count++;
+            }
+        }
+        priceDates[asset] = Arrays.copyOf( sortedDates, count );
+        prices[asset] = Arrays.copyOf( sortedPrices, count );
+    }
+
+    /**
+     * Merges the dates of every asset, most recent first, walking through each list of dates once.
+     *
+     * @param priceDates dates of each asset, most recent first
+     * @param intersect true to keep only the dates of every asset, false to keep the dates of any
+     * @return the dates kept, most recent first
+     */
+    private static int[] mergeDates( int[][] priceDates, boolean intersect )
+    {
+        int numberOfAssets = priceDates.length;
+        int[] positions = new int[numberOfAssets];
+        int capacity = 0;
+        for( int[] assetDates : priceDates )
+        {
+            capacity = Math.max( capacity, assetDates.length );
+        }
+        int[] calendar = new int[capacity];
+        int count = 0;
+        while( true )
+        {
+            // the next date is the most recent one not yet merged
+            int next = Integer.MIN_VALUE;
+            int assetsWithDate = 0;
+            for( int asset = 0 ; asset < numberOfAssets ; asset++ )
+            {
+                if( positions[asset] < priceDates[asset].length )
+                {
+                    next = Math.max( next, priceDates[asset][positions[asset]] );
+                }
+                else if( intersect )
+                {
+                    return Arrays.copyOf( calendar, count );
+                }
+            }
+            if( next == Integer.MIN_VALUE )
+            {
+                return Arrays.copyOf( calendar, count );
+            }
+            for( int asset = 0 ; asset < numberOfAssets ; asset++ )
+            {
+                if( positions[asset] < priceDates[asset].length
+                    && priceDates[asset][positions[asset]] == next )
+                {
+                    positions[asset]++;
+                    assetsWithDate++;
+                }
+            }
+            if( !intersect || assetsWithDate == numberOfAssets )
+            {
+                if( count == calendar.length )
+                {
+                    calendar = Arrays.copyOf( calendar, count * 2 + 1 );
+                }
+                calendar[count++] = next;
+            }
+        }
+    }
+
+    /**
+     * Lays the prices of one asset out on the calendar, carrying its last price forward on dates
+     * it has none.
+     *
+     * @return a price for each date of the calendar, NaN before the history of the asset begins
+     */
+    private static double[] alignPrices( int[] calendar, int[] assetDates, double[] assetPrices )
+    {
+        double[] aligned = new double[calendar.length];
+        int position = 0;
+        for( int day = 0 ; day < calendar.length ; day++ )
+        {
+            while( position < assetDates.length && assetDates[position] > calendar[day] )
+            {
+                position++;
+            }
+            aligned[day] = position < assetDates.length ? assetPrices[position] : Double.NaN;
+        }
+        return aligned;
+    }
+
+    /**
+     * @return the number of prices, from the most recent, before the history of the asset begins
+     */
+    private static int getNumberOfKnownPrices( double[] aligned )
+    {
+        int known = aligned.length;
+        while( known > 0 && Double.isNaN( aligned[known - 1] ) )
+        {
+            known--;
+        }
+        return known;
+    }
+
+    /**
+     * @return the number of assets
+     */
+    public int getNumberOfAssets()
+    {
+        return numberOfAssets;
+    }
+
+    /**
+     * @return the number of days of returns
+     */
+    public int getNumberOfDays()
+    {
+        return numberOfDays;
+    }
+
+    /**
+     * @param day row of the matrix, 0 being the most recent day
+     * @return the date of the later price of the return, as days since 1970-01-01
+     */
+    public int getDate( int day )
+    {
+        return dates[day];
+    }
+
+    /**
+     * @param asset index of the asset
+     * @param day row of the matrix, 0 being the most recent day
+     * @return the return of the asset on that day
+     */
+    public double getReturn( int asset, int day )
+    {
+        return returns[asset * numberOfDays + day];
+    }
+
+    /**
+     * @param asset index of the asset
+     * @return a copy of the returns of the asset, most recent first
+     */
+    public double[] getReturns( int asset )
+    {
+        int offset = asset * numberOfDays;
+        return Arrays.copyOfRange( returns, offset, offset + numberOfDays );
+    }
+
+    /**
+     * @return the returns of each asset, most recent first, all of the same length
+     */
+    public ArrayList<double[]> getReturnList()
+    {
+        ArrayList<double[]> returnList = new ArrayList<double[]>( numberOfAssets );
+        for( int asset = 0 ; asset < numberOfAssets ; asset++ )
+        {
+            returnList.add( getReturns( asset ) );
+        }
+        return returnList;
+    }
+}
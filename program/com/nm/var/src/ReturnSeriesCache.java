@@ -0,0 +1,245 @@
+package com.nm.var.src;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Singleton cache of the daily returns computed from historical price data files, shared by every
+ * VaR model and dialog in the program.
+ * <p>
+ * Returns are kept per file until the memory budget is exceeded, at which point the least recently
+ * used series are evicted. A cached series is dropped when the size or last modified time of its
+ * file changes. Arrays handed out by {@link #getReturns(File)} are shared and must not be modified;
+ * {@link VarUtils#getReturnsFromFile(File)} returns a copy for callers which need one.
+ */
+public class ReturnSeriesCache
+{
+    /** Single instance of the cache used by all models. */
+    private static final ReturnSeriesCache instance       = new ReturnSeriesCache();
+    /** Default number of bytes of returns held before the least recently used are evicted. */
+    public static final long               DEFAULT_BUDGET = 64L * 1024 * 1024;
+    /** Approximate memory used by an entry on top of its array of returns. */
+    private static final long              ENTRY_OVERHEAD = 128;
+    /** Cached returns keyed by canonical file path, in least recently used order. */
+    private final LinkedHashMap<String, Entry> entries;
+    /** Number of bytes of returns the cache may hold. */
+    private long                           memoryBudget   = DEFAULT_BUDGET;
+    /** Approximate number of bytes currently held. */
+    private long                           memoryUsed;
+    /** Number of requests answered from the cache. */
+    private long                           hits;
+    /** Number of requests which had to read the file. */
+    private long                           misses;
+    /** Number of series removed to stay within the memory budget. */
+    private long                           evictions;
+
+    /**
+     * Returns of one file, along with the state of the file they were computed from.
+     */
+    private static class Entry
+    {
+        private final double[] returns;
+        private final long     lastModified;
+        private final long     length;
+
+        private Entry( double[] returns, long lastModified, long length )
+        {
+            this.returns = returns;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+
+        private long getMemoryUsed()
+        {
+            return ENTRY_OVERHEAD + 8L * returns.length;
+        }
+    }
+
+    /** Creates an empty cache. */
+    private ReturnSeriesCache()
+    {
+        entries = new LinkedHashMap<String, Entry>( 16, 0.75f, true );
+    }
+
+    /**
+     * @return the singleton instance of the cache.
+     */
+    public static ReturnSeriesCache getInstance()
+    {
+        return instance;
+    }
+
+    /**
+     * Gets the daily returns of a historical price data file, reading the file only if it is not
+     * already cached.
+     *
+     * @param file a csv file with historical price data.
+     * @return shared array of returns, most recent first, which must not be modified
+     */
+    public double[] getReturns( File file )
+    {
+        String key = getKey( file );
+        long lastModified = file.lastModified();
+        long length = file.length();
+        synchronized( this )
+        {
+            Entry entry = entries.get( key );
+            if( entry != null && entry.lastModified == lastModified && entry.length == length )
+            {
+                hits++;
+                return entry.returns;
+            }
+            misses++;
+        }
+
+        // read outside the lock so other files can be served meanwhile
+        double[] returns = PriceStore.getInstance().load( file ).getReturns();
+        put( key, new Entry( returns, lastModified, length ) );
+        return returns;
+    }
+
+    /**
+     * Gets the daily returns of several historical price data files.
+     *
+     * @param files List of csv files to get returns for.
+     * @return List of shared arrays containing returns for each input file.
+     */
+    public ArrayList<double[]> getReturns( ArrayList<File> files )
+    {
+        ArrayList<double[]> returns = new ArrayList<double[]>( files.size() );
+        for( File stockData : files )
+        {
+            returns.add( getReturns( stockData ) );
+        }
+        return returns;
+    }
+
+    /**
+     * Adds an entry, evicting the least recently used entries until the budget is respected.
+     */
+    private synchronized void put( String key, Entry entry )
+    {
+        Entry previous = entries.remove( key );
+        if( previous != null )
+        {
+            memoryUsed -= previous.getMemoryUsed();
+        }
+        if( entry.getMemoryUsed() > memoryBudget )
+        {
+            // would evict everything else and still not fit
+            return;
+        }
+        entries.put( key, entry );
+        memoryUsed += entry.getMemoryUsed();
+        evictToBudget();
+    }
+
+    /**
+     * Removes least recently used entries until the memory used is within the budget.
+     */
+    private void evictToBudget()
+    {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while( memoryUsed > memoryBudget && iterator.hasNext() )
+        {
+            memoryUsed -= iterator.next().getValue().getMemoryUsed();
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * @return the canonical path of the file, or the absolute path if it cannot be resolved.
+     */
+    private static String getKey( File file )
+    {
+        try
+        {
+            return file.getCanonicalPath();
+        }
+        catch( IOException e )
+        {
+            return file.getAbsolutePath();
+        }
+    }
+
+    /**
+     * Removes every cached series. Statistics are kept.
+     */
+    public synchronized void clear()
+    {
+        entries.clear();
+        memoryUsed = 0;
+    }
+
+    /**
+     * Sets the hit, miss and eviction counters back to zero.
+     */
+    public synchronized void resetStatistics()
+    {
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    /**
+     * @return the number of requests answered from the cache
+     */
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    /**
+     * @return the number of requests which had to read the file
+     */
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    /**
+     * @return the number of series removed to stay within the memory budget
+     */
+    public synchronized long getEvictions()
+    {
+        return evictions;
+    }
+
+    /**
+     * @return the number of series currently cached
+     */
+    public synchronized int getNumberOfEntries()
+    {
+        return entries.size();
+    }
+
+    /**
+     * @return the approximate number of bytes currently held
+     */
+    public synchronized long getMemoryUsed()
+    {
+        return memoryUsed;
+    }
+
+    /**
+     * @return the number of bytes of returns the cache may hold
+     */
+    public synchronized long getMemoryBudget()
+    {
+        return memoryBudget;
+    }
+
+    /**
+     * @param memoryBudget the number of bytes of returns the cache may hold
+     */
+    public synchronized void setMemoryBudget( long memoryBudget )
+    {
+        this.memoryBudget = memoryBudget;
+        evictToBudget();
+    }
+}
@@ -0,0 +1,82 @@
+package com.nm.var.src;
+
+import java.util.List;
+
+import org.apache.commons.math3.stat.StatUtils;
+
+/**
+ * Builds the sample covariance matrix of several series of returns, giving the same results as
+ * computing {@link VarUtils#getCovariance(double[], double[])} for every pair.
+ * <p>
+ * Each series is centred on its own mean once. Two series of different lengths are compared over
+ * the length of the shorter one, as before, by correcting the products of the centred series with
+ * running sums of the centred returns, so no pair needs its own copy or mean. The products of
+ * every pair come from {@link SymmetricProducts}.
+ */
+public class SampleCovariance
+{
+    /** Empty constructor. */
+    private SampleCovariance()
+    {
+    }
+
+    /**
+     * @param returnList series of returns, most recent first, one for each asset
+     * @return matrix where [x][y] is the covariance between asset x and asset y
+     */
+    public static double[][] getCovarianceMatrix( List<double[]> returnList )
+    {
+        int numberOfAssets = returnList.size();
+        int[] offsets = new int[numberOfAssets];
+        int[] lengths = new int[numberOfAssets];
+        int totalLength = 0;
+        for( int asset = 0 ; asset < numberOfAssets ; asset++ )
+        {
+            offsets[asset] = totalLength;
+            lengths[asset] = returnList.get( asset ).length;
+            totalLength += lengths[asset];
+        }
+
+        // centred returns of every asset, with the running sums of each series after them
+        double[] centred = new double[totalLength];
+        double[] runningSums = new double[totalLength + numberOfAssets];
+        boolean equalLengths = true;
+        for( int asset = 0 ; asset < numberOfAssets ; asset++ )
+        {
+            double[] series = returnList.get( asset );
+            double mean = StatUtils.mean( series );
+            int offset = offsets[asset];
+            int sumOffset = offset + asset;
+            double sum = 0.0;
+            for( int day = 0 ; day < series.length ; day++ )
+            {
+                double value = series[day] - mean;
+                centred[offset + day] = value;
+                sum += value;
+                runningSums[sumOffset + day + 1] = sum;
+            }
+            equalLengths &= lengths[asset] == lengths[0];
+        }
+
+        double[][] covariances = SymmetricProducts.compute( centred, offsets, lengths );
+        for( int x = 0 ; x < numberOfAssets ; x++ )
+        {
+            for( int y = x ; y < numberOfAssets ; y++ )
+            {
+                int length = Math.min( lengths[x], lengths[y] );
+                double products = covariances[x][y];
+                if( !equalLengths )
+                {
+                    // deviations from the means of the shorter range rather than the whole series
+                    double sumX = runningSums[offsets[x] + x + length];
+                    double sumY = runningSums[offsets[y] + y + length];
+                    products -= sumX * sumY / length;
+                }
+                double covariance = products / ( length - 1 );
+                covariances[x][y] = covariance;
+                covariances[y][x] = covariance;
+            }
+        }
+        return covariances;
+    }
+}
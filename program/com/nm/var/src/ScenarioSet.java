@@ -0,0 +1,202 @@
+package com.nm.var.src;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Market scenarios simulated once for a universe of assets, against which any portfolio of those
+ * assets can be revalued without sampling again. Each scenario holds the correlated growth of
+ * every asset over the time period, so the value of a portfolio in a scenario is the sum of its
+ * investments weighted by the growth of their assets.
+ * <p>
+ * Portfolios revalued against the same set share their random numbers, so the difference between
+ * their VaRs is much less noisy than between two independent simulations, and a portfolio can be
+ * edited and revalued at the cost of one pass over the scenarios of its assets. Growths are held
+ * as floats, asset after asset, which is accurate to about 1e-7 of the value of a portfolio.
+ */
+public class ScenarioSet
+{
+    /** Historical stock price data of each asset of the universe. */
+    private final ArrayList<File>          universe;
+    /** Index of each asset in the universe, by the canonical path of its data file. */
+    private final HashMap<String, Integer> indices;
+    /** Number of days the growths are simulated over. */
+    private final int                      timePeriod;
+    /** Number of scenarios. */
+    private final int                      numberOfScenarios;
+    /** Growth of asset a in scenario s at a * numberOfScenarios + s. */
+    private final float[]                  growths;
+
+    /**
+     * Simulates the scenarios of a universe, estimating the covariance of its assets from their
+     * returns with the sample covariance.
+     *
+     * @param universe historical stock price data of every asset portfolios may hold
+     * @param timePeriod number of days to simulate
+     * @param numberOfScenarios number of scenarios
+     * @param seed seed of the random numbers
+     */
+    public ScenarioSet( ArrayList<File> universe, int timePeriod, int numberOfScenarios, long seed )
+    {
+        this( universe, timePeriod, numberOfScenarios, seed, CovarianceMethod.SAMPLE, null,
+              RandomAlgorithm.SPLIT_MIX );
+    }
+
+    /**
+     * Simulates the scenarios of a universe.
+     *
+     * @param universe historical stock price data of every asset portfolios may hold
+     * @param timePeriod number of days to simulate
+     * @param numberOfScenarios number of scenarios
+     * @param seed seed of the random numbers
+     * @param covarianceMethod the way the covariances of the assets are estimated
+     * @param missingDataPolicy how returns are aligned on their dates, null to pair them by index
+     * @param randomAlgorithm the generator of the random numbers
+     */
+    public ScenarioSet( ArrayList<File> universe, int timePeriod, int numberOfScenarios, long seed,
+                        CovarianceMethod covarianceMethod, MissingDataPolicy missingDataPolicy,
+                        RandomAlgorithm randomAlgorithm )
+    {
+        this.universe = new ArrayList<File>( universe );
+        this.indices = new HashMap<String, Integer>();
+        for( int asset = 0 ; asset < universe.size() ; asset++ )
+        {
+            indices.put( getPath( universe.get( asset ) ), asset );
+        }
+        this.timePeriod = timePeriod;
+        this.numberOfScenarios = numberOfScenarios;
+        this.growths = new float[universe.size() * numberOfScenarios];
+
+        ArrayList<double[]> returns = VarUtils.getReturnsFromFiles( this.universe,
+                                                                     missingDataPolicy );
+        double[][] covarianceMatrix = VarUtils.generateCovarianceMatrix( returns, universe.size(),
+                                                                         covarianceMethod );
+        simulate( new CholeskyKernel( VarUtils.decomposeMatrix( covarianceMatrix ) ), seed,
+                  randomAlgorithm );
+    }
+
+    /**
+     * Draws the growth of every asset in each scenario. The cumulative return over the time period
+     * is the sum of independent daily returns, so it is drawn at once from the covariance scaled
+     * by the number of days.
+     */
+    private void simulate( final CholeskyKernel kernel, long seed, RandomAlgorithm randomAlgorithm )
+    {
+        final int numberOfAssets = universe.size();
+        final double rootOfDays = Math.sqrt( timePeriod );
+        SimulationBlocks.run( numberOfScenarios, randomAlgorithm, seed, new SimulationBlocks.Block()
+        {
+            @Override
+            public void simulate( RandomGenerator random, int from, int to )
+            {
+                int blockSize = to - from;
+                double[] shocks = new double[numberOfAssets * blockSize];
+                double[] returns = new double[numberOfAssets * blockSize];
+                random.nextGaussians( shocks, 0, shocks.length );
+                kernel.apply( shocks, returns, blockSize, blockSize );
+                for( int asset = 0 ; asset < numberOfAssets ; asset++ )
+                {
+                    int offset = asset * numberOfScenarios + from;
+                    for( int s = 0 ; s < blockSize ; s++ )
+                    {
+                        growths[offset + s] = (float) Math.exp( rootOfDays
+                                                                * returns[asset * blockSize + s] );
+                    }
+                }
+            }
+        } );
+    }
+
+    /**
+     * @param portfolio portfolio whose assets are all in the universe
+     * @return the value of the portfolio at the end of the time period in each scenario
+     */
+    public double[] getPortfolioValues( Portfolio portfolio )
+    {
+        return getPortfolioValues( portfolio.getStockPriceDataFiles(),
+                                   portfolio.getInvestments().toArray() );
+    }
+
+    /**
+     * @param stockPriceDataFiles historical stock price data of the assets held, all in the
+     *            universe
+     * @param investments the investments made in the assets, in the same order
+     * @return the value of the investments at the end of the time period in each scenario
+     * @throws IllegalArgumentException if an asset is not in the universe
+     */
+    public double[] getPortfolioValues( ArrayList<File> stockPriceDataFiles, double[] investments )
+    {
+        double[] values = new double[numberOfScenarios];
+        for( int held = 0 ; held < stockPriceDataFiles.size() ; held++ )
+        {
+            Integer asset = indices.get( getPath( stockPriceDataFiles.get( held ) ) );
+            if( asset == null )
+            {
+                throw new IllegalArgumentException( stockPriceDataFiles.get( held )
+                                                    + " is not in the universe of the scenarios" );
+            }
+            double investment = investments[held];
+            int offset = asset * numberOfScenarios;
+            for( int s = 0 ; s < numberOfScenarios ; s++ )
+            {
+                values[s] += investment * growths[offset + s];
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Computes the VaR of a portfolio from its final values in the scenarios.
+     *
+     * @param portfolio portfolio whose assets are all in the universe
+     * @param confidence the confidence level to compute VaR at
+     * @return the loss of the portfolio at the confidence level over the time period
+     */
+    public double getValueAtRisk( Portfolio portfolio, int confidence )
+    {
+        double[] values = getPortfolioValues( portfolio );
+        double portfolioValue = VarUtils.sumOf( portfolio.getInvestments() );
+        return portfolioValue - Quantiles.getPercentile( values, 100 - confidence );
+    }
+
+    /**
+     * @return the canonical path of the file, or the absolute path if it cannot be resolved.
+     */
+    private static String getPath( File file )
+    {
+        try
+        {
+            return file.getCanonicalPath();
+        }
+        catch( IOException e )
+        {
+            return file.getAbsolutePath();
+        }
+    }
+
+    /**
+     * @return a copy of the historical stock price data of the assets of the universe
+     */
+    public ArrayList<File> getUniverse()
+    {
+        return new ArrayList<File>( universe );
+    }
+
+    /**
+     * @return the number of days the scenarios are simulated over
+     */
+    public int getTimePeriod()
+    {
+        return timePeriod;
+    }
+
+    /**
+     * @return the number of scenarios
+     */
+    public int getNumberOfScenarios()
+    {
+        return numberOfScenarios;
+    }
+}
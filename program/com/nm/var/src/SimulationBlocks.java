@@ -0,0 +1,125 @@
+package com.nm.var.src;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs the scenarios of a Monte Carlo simulation in parallel on the {@link WorkerPool}.
+ * <p>
+ * Scenarios are cut into blocks of a fixed size and each block draws its random numbers from its
+ * own stream of the run's {@link RandomAlgorithm}, derived from the seed of the run and the index
+ * of the block. Blocks write their
+ * results into arrays indexed by scenario, so for a given seed the results are the same whatever
+ * the number of threads and the order the blocks run in.
+ */
+class SimulationBlocks extends RecursiveAction
+{
+    private static final long     serialVersionUID = 1L;
+    /** Number of scenarios simulated from one random stream. */
+    static final int              BLOCK_SIZE       = 256;
+    private final Block           block;
+    private final RandomAlgorithm algorithm;
+    private final long            seed;
+    private final int             numberOfSimulations;
+    /** Range of blocks run by this task. */
+    private final int             from, to;
+
+    /**
+     * Scenarios simulated by one block.
+     */
+    interface Block
+    {
+        /**
+         * Simulates a range of scenarios, storing the results of each scenario at its index.
+         *
+         * @param random stream of the block, to draw every random number of the range from
+         * @param from index of the first scenario
+         * @param to index after the last scenario
+         */
+        void simulate( RandomGenerator random, int from, int to );
+    }
+
+    private SimulationBlocks( Block block, RandomAlgorithm algorithm, long seed,
+                              int numberOfSimulations, int from, int to )
+    {
+        this.block = block;
+        this.algorithm = algorithm;
+        this.seed = seed;
+        this.numberOfSimulations = numberOfSimulations;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Simulates every scenario and waits for them to finish.
+     *
+     * @param numberOfSimulations number of scenarios
+     * @param algorithm generator of the streams
+     * @param seed seed of the run
+     * @param block simulation of a range of scenarios
+     */
+    static void run( int numberOfSimulations, RandomAlgorithm algorithm, long seed, Block block )
+    {
+        run( 0, numberOfSimulations, algorithm, seed, block );
+    }
+
+    /**
+     * Simulates a range of scenarios and waits for them to finish. Each block draws the same
+     * numbers as when every scenario is simulated at once, so a run can be continued in batches.
+     *
+     * @param first index of the first scenario, a multiple of BLOCK_SIZE
+     * @param numberOfSimulations index after the last scenario
+     * @param algorithm generator of the streams
+     * @param seed seed of the run
+     * @param block simulation of a range of scenarios
+     */
+    static void run( int first, int numberOfSimulations, RandomAlgorithm algorithm, long seed,
+                     Block block )
+    {
+        int numberOfBlocks = ( numberOfSimulations + BLOCK_SIZE - 1 ) / BLOCK_SIZE;
+        SimulationBlocks task = new SimulationBlocks( block, algorithm, seed, numberOfSimulations,
+                                                      first / BLOCK_SIZE, numberOfBlocks );
+        if( numberOfBlocks - first / BLOCK_SIZE <= 1 )
+        {
+            // not worth handing over to the pool
+            task.simulateBlocks();
+        }
+        else if( inForkJoinPool() )
+        {
+            task.invoke();
+        }
+        else
+        {
+            WorkerPool.getInstance().invoke( task );
+        }
+    }
+
+    @Override
+    protected void compute()
+    {
+        if( to - from <= 1 )
+        {
+            simulateBlocks();
+        }
+        else
+        {
+            int middle = ( from + to ) >>> 1;
+            invokeAll( new SimulationBlocks( block, algorithm, seed, numberOfSimulations, from,
+                                             middle ),
+                       new SimulationBlocks( block, algorithm, seed, numberOfSimulations, middle,
+                                             to ) );
+        }
+    }
+
+    /**
+     * Runs each block of this task's range with its own stream.
+     */
+    private void simulateBlocks()
+    {
+        for( int index = from ; index < to ; index++ )
+        {
+            int first = index * BLOCK_SIZE;
+            int last = Math.min( first + BLOCK_SIZE, numberOfSimulations );
+            block.simulate( algorithm.forStream( seed, index ), first, last );
+        }
+    }
+}
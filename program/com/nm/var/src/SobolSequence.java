@@ -0,0 +1,444 @@
+package com.nm.var.src;
+
+import java.util.Arrays;
+
+/**
+ * Low-discrepancy Sobol sequence of points in the unit hypercube, for quasi-Monte Carlo
+ * simulation. Each point gives one scenario: its coordinates are mapped to normal shocks through
+ * the inverse normal distribution function and handed out in order by {@link #nextGaussian()}.
+ * <p>
+ * The direction numbers of each dimension come from a primitive polynomial over GF(2), with
+ * initial values drawn once from a fixed seed. A scrambled sequence applies a random linear
+ * scrambling and a random digital shift to every dimension (Matousek's affine scrambling), which
+ * keeps the spread of the points while making estimates from different seeds independent.
+ * <p>
+ * Any point can be reached directly, so a block of scenarios can start at its own index with
+ * {@link #startingAt(long)} and the points do not depend on which thread simulates the block.
+ * A block needing every coordinate of many points at once can instead write them all into one
+ * buffer with {@link #fillPoints(long, int, int[])}.
+ */
+public class SobolSequence implements NormalGenerator
+{
+    /** Number of binary digits of each coordinate, at most 2^BITS - 1 points can be used. */
+    private static final int     BITS             = 32;
+    /** Scales a coordinate held as an unsigned integer to [0, 1). */
+    private static final double  SCALE            = 0x1.0p-32;
+    /** Seed of the initial direction numbers, so the unscrambled sequence never changes. */
+    private static final long    DIRECTION_SEED   = 0x50B01L;
+    /** Primitive polynomials found so far, in increasing degree, each held as its coefficients. */
+    private static int[]         polynomials      = new int[0];
+    /** Unscrambled direction numbers of the dimensions computed so far. */
+    private static int[][]       sharedDirections = new int[0][];
+    /** Number of dimensions, i.e. of coordinates in each point. */
+    private final int            dimension;
+    /** Direction numbers of each dimension, scrambled if the sequence is. */
+    private final int[][]        directions;
+    /** Current point, as unsigned binary fractions. */
+    private final int[]          point;
+    /** Index of the current point in the sequence. */
+    private long                 index;
+    /** Next coordinate of the current point handed out by nextGaussian. */
+    private int                  coordinate;
+
+    /**
+     * Creates an unscrambled sequence starting at the point of index 0.
+     *
+     * @param dimension number of coordinates of each point
+     */
+    public SobolSequence( int dimension )
+    {
+        this( dimension, getDirections( dimension ), new int[dimension] );
+    }
+
+    /**
+     * Creates a scrambled sequence starting at the point of index 0.
+     *
+     * @param dimension number of coordinates of each point
+     * @param seed seed of the scrambling
+     */
+    public SobolSequence( int dimension, long seed )
+    {
+        this( dimension, scramble( getDirections( dimension ), SplitMixRandom.forStream( seed, 0 ) ),
+              new int[dimension] );
+        SplitMixRandom random = SplitMixRandom.forStream( seed, 1 );
+        for( int d = 0 ; d < dimension ; d++ )
+        {
+            point[d] = (int) random.nextLong();
+        }
+    }
+
+    private SobolSequence( int dimension, int[][] directions, int[] shift )
+    {
+        this.dimension = dimension;
+        this.directions = directions;
+        this.point = shift;
+    }
+
+    /**
+     * @param start index of the first point
+     * @return a sequence with the same directions and shift, starting at a given point
+     */
+    public SobolSequence startingAt( long start )
+    {
+        SobolSequence sequence = new SobolSequence( dimension, directions, point.clone() );
+        sequence.moveTo( index, start );
+        return sequence;
+    }
+
+    /**
+     * Writes the coordinates of consecutive points into one buffer, without moving this sequence,
+     * so a block of scenarios can hold its points without a sequence for each. Coordinates are
+     * unsigned binary fractions, mapped to normal numbers by {@link #toGaussian(int)}.
+     *
+     * @param start index of the first point
+     * @param numberOfPoints number of points to write
+     * @param points buffer of at least numberOfPoints * getDimension() elements, receiving
+     *            coordinate d of the i-th point at i * getDimension() + d
+     */
+    public void fillPoints( long start, int numberOfPoints, int[] points )
+    {
+        if( numberOfPoints <= 0 )
+        {
+            return;
+        }
+        if( ( ( start + numberOfPoints - 1 ) >>> BITS ) != 0 )
+        {
+            throw new IllegalArgumentException( "Sobol sequence has no point "
+                                                + ( start + numberOfPoints - 1 ) );
+        }
+        // the first point is reached by the directions in which the Gray codes differ
+        System.arraycopy( point, 0, points, 0, dimension );
+        long difference = ( index ^ ( index >>> 1 ) ) ^ ( start ^ ( start >>> 1 ) );
+        for( int bit = 0 ; difference != 0 ; bit++, difference >>>= 1 )
+        {
+            if( ( difference & 1 ) != 0 )
+            {
+                for( int d = 0 ; d < dimension ; d++ )
+                {
+                    points[d] ^= directions[d][bit];
+                }
+            }
+        }
+        // and each next one by a single direction, as in next()
+        for( int i = 1 ; i < numberOfPoints ; i++ )
+        {
+            int bit = Long.numberOfTrailingZeros( ~( start + i - 1 ) );
+            int previous = ( i - 1 ) * dimension;
+            for( int d = 0 ; d < dimension ; d++ )
+            {
+                points[previous + dimension + d] = points[previous + d] ^ directions[d][bit];
+            }
+        }
+    }
+
+    /**
+     * @param fraction a coordinate written by {@link #fillPoints(long, int, int[])}
+     * @return the standard normal number of the coordinate, as given by {@link #nextGaussian()}
+     */
+    public static double toGaussian( int fraction )
+    {
+        return VarUtils.inverseCNDF( toUniform( fraction ) );
+    }
+
+    /**
+     * @return the number of coordinates of each point
+     */
+    public int getDimension()
+    {
+        return dimension;
+    }
+
+    /**
+     * Gives the coordinates of the next point.
+     *
+     * @param uniforms array of getDimension() elements receiving coordinates in (0, 1)
+     */
+    public void nextPoint( double[] uniforms )
+    {
+        if( coordinate > 0 )
+        {
+            next();
+        }
+        for( int d = 0 ; d < dimension ; d++ )
+        {
+            uniforms[d] = toUniform( point[d] );
+        }
+        coordinate = dimension;
+    }
+
+    /**
+     * Maps the next coordinate of the current point to a standard normal number, moving to the
+     * next point once every coordinate has been used.
+     *
+     * @return the normal number of the next coordinate
+     */
+    @Override
+    public double nextGaussian()
+    {
+        if( coordinate == dimension )
+        {
+            next();
+        }
+        return toGaussian( point[coordinate++] );
+    }
+
+    @Override
+    public void nextGaussians( double[] values, int from, int to )
+    {
+        for( int i = from ; i < to ; i++ )
+        {
+            values[i] = nextGaussian();
+        }
+    }
+
+    /**
+     * @return the centre of the interval of width 2^-BITS starting at the binary fraction, so
+     *         that neither 0 nor 1 is returned
+     */
+    private static double toUniform( int fraction )
+    {
+        return ( ( fraction & 0xffffffffL ) + 0.5 ) * SCALE;
+    }
+
+    /**
+     * Moves to the next point, which differs from the current one in the direction of the lowest
+     * zero bit of the current index (Antonov and Saleev's Gray code ordering).
+     */
+    private void next()
+    {
+        int bit = Long.numberOfTrailingZeros( ~index );
+        if( bit >= BITS )
+        {
+            throw new IllegalStateException( "Sobol sequence exhausted" );
+        }
+        for( int d = 0 ; d < dimension ; d++ )
+        {
+            point[d] ^= directions[d][bit];
+        }
+        index++;
+        coordinate = 0;
+    }
+
+    /**
+     * Moves directly from one point to another, by the directions in which their Gray codes
+     * differ.
+     */
+    private void moveTo( long from, long to )
+    {
+        long difference = ( from ^ ( from >>> 1 ) ) ^ ( to ^ ( to >>> 1 ) );
+        if( ( to >>> BITS ) != 0 )
+        {
+            throw new IllegalArgumentException( "Sobol sequence has no point " + to );
+        }
+        for( int bit = 0 ; difference != 0 ; bit++, difference >>>= 1 )
+        {
+            if( ( difference & 1 ) != 0 )
+            {
+                for( int d = 0 ; d < dimension ; d++ )
+                {
+                    point[d] ^= directions[d][bit];
+                }
+            }
+        }
+        index = to;
+        coordinate = 0;
+    }
+
+    /**
+     * Applies a random lower triangular binary matrix to the direction numbers of each
+     * dimension: each digit of a scrambled number is its own digit added to a random selection of
+     * the more significant ones.
+     */
+    private static int[][] scramble( int[][] directions, SplitMixRandom random )
+    {
+        int[][] scrambled = new int[directions.length][BITS];
+        int[] rows = new int[BITS];
+        for( int d = 0 ; d < directions.length ; d++ )
+        {
+            for( int digit = 0 ; digit < BITS ; digit++ )
+            {
+                int moreSignificant = digit == 0 ? 0 : -1 << ( BITS - digit );
+                rows[digit] = ( (int) random.nextLong() & moreSignificant )
+                              | ( 1 << ( BITS - 1 - digit ) );
+            }
+            for( int k = 0 ; k < BITS ; k++ )
+            {
+                int value = 0;
+                for( int digit = 0 ; digit < BITS ; digit++ )
+                {
+                    value |= ( Integer.bitCount( rows[digit] & directions[d][k] ) & 1 )
+                             << ( BITS - 1 - digit );
+                }
+                scrambled[d][k] = value;
+            }
+        }
+        return scrambled;
+    }
+
+    /**
+     * Gets the unscrambled direction numbers of the first dimensions, computing those of new
+     * dimensions from the next primitive polynomials.
+     *
+     * @param dimension number of dimensions needed
+     * @return direction numbers of each dimension, as binary fractions, shared by all sequences
+     */
+    private static synchronized int[][] getDirections( int dimension )
+    {
+        if( sharedDirections.length < dimension )
+        {
+            int computed = sharedDirections.length;
+            sharedDirections = Arrays.copyOf( sharedDirections, dimension );
+            for( int d = computed ; d < dimension ; d++ )
+            {
+                sharedDirections[d] = computeDirections( d );
+            }
+        }
+        return Arrays.copyOf( sharedDirections, dimension );
+    }
+
+    /**
+     * Computes the direction numbers of a dimension. The first dimension is the van der Corput
+     * sequence; the others follow the recurrence of a primitive polynomial from odd initial values
+     * m_k < 2^k.
+     */
+    private static int[] computeDirections( int d )
+    {
+        int[] v = new int[BITS];
+        if( d == 0 )
+        {
+            for( int k = 0 ; k < BITS ; k++ )
+            {
+                v[k] = 1 << ( BITS - 1 - k );
+            }
+            return v;
+        }
+
+        int polynomial = getPolynomial( d - 1 );
+        int degree = 31 - Integer.numberOfLeadingZeros( polynomial );
+        // initial values depend only on the dimension, whichever order dimensions are computed in
+        SplitMixRandom random = SplitMixRandom.forStream( DIRECTION_SEED, d );
+        for( int k = 0 ; k < Math.min( degree, BITS ) ; k++ )
+        {
+            int m = ( (int) random.nextLong() & ( ( 1 << ( k + 1 ) ) - 1 ) ) | 1;
+            v[k] = m << ( BITS - 1 - k );
+        }
+        for( int k = degree ; k < BITS ; k++ )
+        {
+            v[k] = v[k - degree] ^ ( v[k - degree] >>> degree );
+            for( int j = 1 ; j < degree ; j++ )
+            {
+                // coefficient of x^(degree - j)
+                if( ( ( polynomial >>> ( degree - j ) ) & 1 ) != 0 )
+                {
+                    v[k] ^= v[k - j];
+                }
+            }
+        }
+        return v;
+    }
+
+    /**
+     * @param n index of the polynomial, from 0
+     * @return the n-th primitive polynomial over GF(2) in increasing degree, bit i holding the
+     *         coefficient of x^i
+     */
+    private static int getPolynomial( int n )
+    {
+        if( n >= polynomials.length )
+        {
+            int found = polynomials.length;
+            polynomials = Arrays.copyOf( polynomials, Math.max( n + 1, 2 * found ) );
+            int candidate = found == 0 ? 2 : polynomials[found - 1];
+            while( found < polynomials.length )
+            {
+                // only polynomials with a constant term can be primitive
+                candidate++;
+                if( ( candidate & 1 ) != 0 && isPrimitive( candidate ) )
+                {
+                    polynomials[found++] = candidate;
+                }
+            }
+        }
+        return polynomials[n];
+    }
+
+    /**
+     * A polynomial of degree s is primitive if x has order 2^s - 1 modulo the polynomial.
+     */
+    private static boolean isPrimitive( int polynomial )
+    {
+        int degree = 31 - Integer.numberOfLeadingZeros( polynomial );
+        long order = ( 1L << degree ) - 1;
+        if( powerOfX( order, polynomial ) != 1 )
+        {
+            return false;
+        }
+        long remaining = order;
+        for( long factor = 2 ; factor * factor <= remaining ; factor++ )
+        {
+            if( remaining % factor == 0 )
+            {
+                if( powerOfX( order / factor, polynomial ) == 1 )
+                {
+                    return false;
+                }
+                while( remaining % factor == 0 )
+                {
+                    remaining /= factor;
+                }
+            }
+        }
+        // a factor larger than the square root of the order may be left
+        return remaining == 1 || powerOfX( order / remaining, polynomial ) != 1;
+    }
+
+    /**
+     * @return x^exponent modulo the polynomial
+     */
+    private static int powerOfX( long exponent, int polynomial )
+    {
+        int result = 1, base = reduce( 2, polynomial );
+        while( exponent > 0 )
+        {
+            if( ( exponent & 1 ) != 0 )
+            {
+                result = multiply( result, base, polynomial );
+            }
+            base = multiply( base, base, polynomial );
+            exponent >>>= 1;
+        }
+        return result;
+    }
+
+    /**
+     * @return the product of two polynomials modulo a third, without carries
+     */
+    private static int multiply( int a, int b, int polynomial )
+    {
+        long product = 0;
+        for( int bit = 0 ; ( b >>> bit ) != 0 ; bit++ )
+        {
+            if( ( ( b >>> bit ) & 1 ) != 0 )
+            {
+                product ^= (long) a << bit;
+            }
+        }
+        return reduce( product, polynomial );
+    }
+
+    /**
+     * @return the remainder of a polynomial divided by another
+     */
+    private static int reduce( long value, int polynomial )
+    {
+        int degree = 31 - Integer.numberOfLeadingZeros( polynomial );
+        for( int bit = 63 - Long.numberOfLeadingZeros( value ) ; bit >= degree ; bit-- )
+        {
+            if( ( ( value >>> bit ) & 1 ) != 0 )
+            {
+                value ^= (long) polynomial << ( bit - degree );
+            }
+        }
+        return (int) value;
+    }
+}
@@ -0,0 +1,64 @@
+package com.nm.var.src;
+
+/**
+ * Fast random number generator based on the SplitMix64 algorithm, which can be split into
+ * independent streams.
+ * <p>
+ * Unlike {@link java.util.Random} an instance is not shared between threads: each block of
+ * simulations gets its own stream, derived from a seed and the index of the block with
+ * {@link #forStream(long, long)}, so the numbers drawn by a block do not depend on which thread
+ * runs it or in which order.
+ */
+public class SplitMixRandom extends AbstractRandomGenerator
+{
+    /** Increment of the state, the odd integer closest to 2^64 divided by the golden ratio. */
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+    /** Current state, advanced by GOLDEN_GAMMA for every number drawn. */
+    private long              state;
+
+    /**
+     * Creates a generator.
+     *
+     * @param seed initial state
+     */
+    public SplitMixRandom( long seed )
+    {
+        this.state = seed;
+    }
+
+    /**
+     * Creates the generator of one of the streams derived from a seed. Different streams of the
+     * same seed, and the same stream of different seeds, draw unrelated numbers.
+     *
+     * @param seed seed shared by every stream of a run
+     * @param stream index of the stream
+     * @return the generator of the stream
+     */
+    public static SplitMixRandom forStream( long seed, long stream )
+    {
+        return new SplitMixRandom( mix64( seed + mix64( ( stream + 1 ) * GOLDEN_GAMMA ) ) );
+    }
+
+    @Override
+    public SplitMixRandom split()
+    {
+        return new SplitMixRandom( mix64( nextLong() ) );
+    }
+
+    @Override
+    public long nextLong()
+    {
+        state += GOLDEN_GAMMA;
+        return mix64( state );
+    }
+
+    /**
+     * Scrambles the bits of a long (variant 13 of Stafford's mixers).
+     */
+    static long mix64( long z )
+    {
+        z = ( z ^ ( z >>> 30 ) ) * 0xbf58476d1ce4e5b9L;
+        z = ( z ^ ( z >>> 27 ) ) * 0x94d049bb133111ebL;
+        return z ^ ( z >>> 31 );
+    }
+}
@@ -10,21 +10,21 @@ import java.util.Random;
 public class StressTester
 {
     /** The factor by which stock values must decline in the event of a crash. */
-    private double crashFactor = 0.50;
+    private double          crashFactor = 0.50;
     /** Array of portfolio values simulated before and after the crassh. */
-    double[]       simulatedValues;
+    double[]                simulatedValues;
     /** Array of losses occurring after portfolio values are simulated during the stress test. */
-    double[]       losses;
+    double[]                losses;
     /** The portfolio to stress test. */
-    Portfolio      portfolio;
+    Portfolio               portfolio;
     /** The number of days to conduct the stress test over. */
-    int            totalDays;
+    int                     totalDays;
     /** The day at which the crash should happen. */
-    int            crashDay;
+    int                     crashDay;
     /** Random number generator used to simulate changes in portfolio values from day to day. */
-    private Random rng;
+    private RandomGenerator rng         = new SplitMixRandom( new Random().nextLong() );
     /** The result of the stress test. */
-    private String output;
+    private String          output;
 
     /**
      * Initialise a stress tester using a portfolio.
@@ -34,7 +34,6 @@ public class StressTester
     public StressTester( Portfolio pf )
     {
         this.portfolio = pf;
-        rng = new Random();
     }
 
     /**
@@ -139,6 +138,14 @@ public class StressTester
         this.portfolio = pf;
     }
 
+    /**
+     * @param rng the generator of the daily changes, e.g. seeded to reproduce a stress test
+     */
+    public void setRandomGenerator( RandomGenerator rng )
+    {
+        this.rng = rng;
+    }
+
     /**
      * @param crashFactor the crashFactor to set
      */
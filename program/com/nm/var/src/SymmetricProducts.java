@@ -0,0 +1,156 @@
+package com.nm.var.src;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Computes the dot product of every pair of a set of series held one after the other in a single
+ * array, the common step of building covariance matrices.
+ * <p>
+ * Only the upper triangle of the matrix is computed and mirrored into the lower one. The triangle
+ * is cut into square tiles of series, so each task reads the series of a few rows and columns
+ * of the matrix rather than all of them, and the tiles are split across the {@link WorkerPool}.
+ * Full length return series do not fit in cache together, so the tiles bound the work of a task
+ * rather than its working set. Two series of different lengths are multiplied over the length of
+ * the shorter one.
+ */
+class SymmetricProducts extends RecursiveAction
+{
+    private static final long serialVersionUID = 1L;
+    /** Number of series in each side of a tile of the matrix. */
+    static final int          TILE             = 32;
+    /** Number of tiles computed by a task without splitting it further. */
+    private static final int  TILES_PER_TASK   = 4;
+    private final double[]    series;
+    private final int[]       offsets;
+    private final int[]       lengths;
+    private final double[][]  products;
+    /** First series of the row and column of each tile. */
+    private final int[]       tileRows, tileColumns;
+    /** Range of tiles computed by this task. */
+    private final int         from, to;
+
+    private SymmetricProducts( double[] series, int[] offsets, int[] lengths,
+                               double[][] products, int[] tileRows, int[] tileColumns,
+                               int from, int to )
+    {
+        this.series = series;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.products = products;
+        this.tileRows = tileRows;
+        this.tileColumns = tileColumns;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * @param series values of every series, one after the other
+     * @param offsets index of the first value of each series
+     * @param lengths number of values in each series
+     * @return symmetric matrix where [x][y] is the dot product of series x and series y
+     */
+    static double[][] compute( double[] series, int[] offsets, int[] lengths )
+    {
+        int numberOfSeries = offsets.length;
+        int tilesPerSide = ( numberOfSeries + TILE - 1 ) / TILE;
+        int numberOfTiles = tilesPerSide * ( tilesPerSide + 1 ) / 2;
+        int[] tileRows = new int[numberOfTiles];
+        int[] tileColumns = new int[numberOfTiles];
+        int tile = 0;
+        for( int row = 0 ; row < numberOfSeries ; row += TILE )
+        {
+            for( int column = row ; column < numberOfSeries ; column += TILE )
+            {
+                tileRows[tile] = row;
+                tileColumns[tile] = column;
+                tile++;
+            }
+        }
+
+        double[][] products = new double[numberOfSeries][numberOfSeries];
+        SymmetricProducts task = new SymmetricProducts( series, offsets, lengths, products,
+                                                        tileRows, tileColumns, 0, numberOfTiles );
+        if( numberOfTiles <= TILES_PER_TASK )
+        {
+            // not worth handing over to the pool
+            task.computeTiles();
+        }
+        else if( inForkJoinPool() )
+        {
+            // already on a worker, e.g. estimating covariances from a task, so fork from it
+            task.invoke();
+        }
+        else
+        {
+            WorkerPool.getInstance().invoke( task );
+        }
+        return products;
+    }
+
+    /**
+     * Computes the products of series of equal length.
+     *
+     * @param series numberOfSeries runs of length values
+     * @param numberOfSeries number of series in the array
+     * @param length number of values in each series
+     * @return symmetric matrix where [x][y] is the dot product of series x and series y
+     */
+    static double[][] compute( double[] series, int numberOfSeries, int length )
+    {
+        int[] offsets = new int[numberOfSeries];
+        int[] lengths = new int[numberOfSeries];
+        for( int x = 0 ; x < numberOfSeries ; x++ )
+        {
+            offsets[x] = x * length;
+            lengths[x] = length;
+        }
+        return compute( series, offsets, lengths );
+    }
+
+    @Override
+    protected void compute()
+    {
+        if( to - from <= TILES_PER_TASK )
+        {
+            computeTiles();
+        }
+        else
+        {
+            int middle = ( from + to ) >>> 1;
+            invokeAll( new SymmetricProducts( series, offsets, lengths, products, tileRows,
+                                              tileColumns, from, middle ),
+                       new SymmetricProducts( series, offsets, lengths, products, tileRows,
+                                              tileColumns, middle, to ) );
+        }
+    }
+
+    /**
+     * Computes the products of the series of each tile in this task's range.
+     */
+    private void computeTiles()
+    {
+        int numberOfSeries = products.length;
+        for( int tile = from ; tile < to ; tile++ )
+        {
+            int rowEnd = Math.min( tileRows[tile] + TILE, numberOfSeries );
+            int columnStart = tileColumns[tile];
+            int columnEnd = Math.min( columnStart + TILE, numberOfSeries );
+            for( int x = tileRows[tile] ; x < rowEnd ; x++ )
+            {
+                int xOffset = offsets[x];
+                for( int y = Math.max( x, columnStart ) ; y < columnEnd ; y++ )
+                {
+                    int yOffset = offsets[y];
+                    int length = Math.min( lengths[x], lengths[y] );
+                    double product = 0.0;
+                    for( int i = 0 ; i < length ; i++ )
+                    {
+                        product += series[xOffset + i] * series[yOffset + i];
+                    }
+                    products[x][y] = product;
+                    products[y][x] = product;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,372 @@
+package com.nm.var.src;
+
+import java.util.Arrays;
+
+/**
+ * Approximate distribution of a stream of weighted values in bounded memory (Dunning's merging
+ * t-digest). Values are gathered into centroids, each a mean and a total weight, and the
+ * centroids near either end of the distribution are kept small so the tails stay accurate.
+ * <p>
+ * Added values wait in a buffer and are merged into the centroids once it is full. Digests filled
+ * by different workers can be merged, but unlike {@link TailHeap} the result depends slightly on
+ * the order values arrive in.
+ */
+public class TDigest implements QuantileSketch
+{
+    /** Compression giving a few hundred centroids, accurate to about 1e-4 of rank in the tails. */
+    public static final double DEFAULT_COMPRESSION = 200;
+    /** Bounds the size of the centroids, about compression * pi / 2 of them being kept. */
+    private final double       compression;
+    /** Mean and weight of each centroid, in increasing order of mean. */
+    private double[]           means, weights;
+    /** Sum of the squares of the weights of the values in each centroid. */
+    private double[]           squaredWeights;
+    /** Number of centroids. */
+    private int                numberOfCentroids;
+    /** Values, weights and squared weights added since the centroids were last merged. */
+    private final double[]     bufferedValues, bufferedWeights, bufferedSquares;
+    /** Number of buffered values. */
+    private int                buffered;
+    /** True if some buffered value has a weight other than 1. */
+    private boolean            weightedBuffer;
+    /** Total weight of the values added. */
+    private double             totalWeight;
+    /** Number of values added. */
+    private long               count;
+    /** Smallest and largest values added. */
+    private double             minimum = Double.POSITIVE_INFINITY, maximum = Double.NEGATIVE_INFINITY;
+
+    /**
+     * Creates a digest with the default compression.
+     */
+    public TDigest()
+    {
+        this( DEFAULT_COMPRESSION );
+    }
+
+    /**
+     * @param compression larger values keep more centroids and give more accurate percentiles
+     */
+    public TDigest( double compression )
+    {
+        this.compression = compression;
+        int capacity = (int) Math.ceil( compression * Math.PI / 2 ) + 10;
+        this.means = new double[capacity];
+        this.weights = new double[capacity];
+        this.squaredWeights = new double[capacity];
+        this.bufferedValues = new double[5 * capacity];
+        this.bufferedWeights = new double[5 * capacity];
+        this.bufferedSquares = new double[5 * capacity];
+    }
+
+    @Override
+    public void add( double value )
+    {
+        add( value, 1.0 );
+    }
+
+    /**
+     * @param value the next value of the stream
+     * @param weight positive weight of the value, e.g. its likelihood ratio
+     */
+    public void add( double value, double weight )
+    {
+        add( value, weight, weight * weight );
+    }
+
+    private void add( double value, double weight, double squaredWeight )
+    {
+        if( buffered == bufferedValues.length )
+        {
+            compress();
+        }
+        bufferedValues[buffered] = value;
+        bufferedWeights[buffered] = weight;
+        bufferedSquares[buffered++] = squaredWeight;
+        weightedBuffer |= weight != 1.0;
+        totalWeight += weight;
+        count++;
+        minimum = Math.min( minimum, value );
+        maximum = Math.max( maximum, value );
+    }
+
+    /**
+     * Adds the centroids of another digest as weighted values.
+     *
+     * @param other digest of another part of the same stream
+     */
+    public void merge( TDigest other )
+    {
+        other.compress();
+        for( int i = 0 ; i < other.numberOfCentroids ; i++ )
+        {
+            add( other.means[i], other.weights[i], other.squaredWeights[i] );
+        }
+        count += other.count - other.numberOfCentroids;
+        minimum = Math.min( minimum, other.minimum );
+        maximum = Math.max( maximum, other.maximum );
+    }
+
+    /**
+     * Merges the buffered values into the centroids. Going through the values in order, each is
+     * merged into the current centroid as long as the centroid stays within one unit of the scale
+     * function k(q) = compression / (2 pi) * asin(2q - 1), which changes fastest near q = 0 and 1.
+     */
+    private void compress()
+    {
+        if( buffered == 0 )
+        {
+            return;
+        }
+        if( weightedBuffer )
+        {
+            // sort the positions of the values, so the weights and their squares follow them
+            double[] positions = new double[buffered];
+            for( int b = 0 ; b < buffered ; b++ )
+            {
+                positions[b] = b;
+            }
+            Quantiles.sort( bufferedValues, positions, 0, buffered );
+            double[] sortedWeights = new double[buffered], sortedSquares = new double[buffered];
+            for( int b = 0 ; b < buffered ; b++ )
+            {
+                sortedWeights[b] = bufferedWeights[(int) positions[b]];
+                sortedSquares[b] = bufferedSquares[(int) positions[b]];
+            }
+            System.arraycopy( sortedWeights, 0, bufferedWeights, 0, buffered );
+            System.arraycopy( sortedSquares, 0, bufferedSquares, 0, buffered );
+        }
+        else
+        {
+            // the weights are all 1, so only the values need sorting
+            Arrays.sort( bufferedValues, 0, buffered );
+        }
+        // merge the sorted buffer with the centroids, already in order
+        int length = numberOfCentroids + buffered;
+        double[] values = new double[length];
+        double[] valueWeights = new double[length];
+        double[] valueSquares = new double[length];
+        for( int i = 0, c = 0, b = 0 ; i < length ; i++ )
+        {
+            if( b == buffered || ( c < numberOfCentroids && means[c] <= bufferedValues[b] ) )
+            {
+                values[i] = means[c];
+                valueWeights[i] = weights[c];
+                valueSquares[i] = squaredWeights[c++];
+            }
+            else
+            {
+                values[i] = bufferedValues[b];
+                valueWeights[i] = bufferedWeights[b];
+                valueSquares[i] = bufferedSquares[b++];
+            }
+        }
+
+        int merged = 0;
+        double weightBefore = 0.0;
+        double weightLimit = getWeightLimit( 0.0 );
+        double mean = values[0], weight = valueWeights[0], squares = valueSquares[0];
+        for( int i = 1 ; i < length ; i++ )
+        {
+            double proposed = weight + valueWeights[i];
+            if( weightBefore + proposed <= weightLimit )
+            {
+                mean += ( values[i] - mean ) * valueWeights[i] / proposed;
+                weight = proposed;
+                squares += valueSquares[i];
+            }
+            else
+            {
+                weightBefore += weight;
+                weightLimit = getWeightLimit( weightBefore );
+                values[merged] = mean;
+                valueWeights[merged] = weight;
+                valueSquares[merged++] = squares;
+                mean = values[i];
+                weight = valueWeights[i];
+                squares = valueSquares[i];
+            }
+        }
+        values[merged] = mean;
+        valueWeights[merged] = weight;
+        valueSquares[merged++] = squares;
+
+        if( merged > means.length )
+        {
+            means = new double[merged];
+            weights = new double[merged];
+            squaredWeights = new double[merged];
+        }
+        System.arraycopy( values, 0, means, 0, merged );
+        System.arraycopy( valueWeights, 0, weights, 0, merged );
+        System.arraycopy( valueSquares, 0, squaredWeights, 0, merged );
+        numberOfCentroids = merged;
+        buffered = 0;
+        weightedBuffer = false;
+    }
+
+    /**
+     * @param weightBefore weight of the values before a centroid
+     * @return the cumulative weight the centroid may reach, one unit of the scale function on
+     */
+    private double getWeightLimit( double weightBefore )
+    {
+        double q = Math.min( weightBefore / totalWeight, 1.0 );
+        double k = compression / ( 2 * Math.PI ) * Math.asin( 2 * q - 1 ) + 1;
+        if( k >= compression / 4 )
+        {
+            return Double.POSITIVE_INFINITY;
+        }
+        return ( Math.sin( 2 * Math.PI * k / compression ) + 1 ) / 2 * totalWeight;
+    }
+
+    @Override
+    public long getCount()
+    {
+        return count;
+    }
+
+    /**
+     * @return the total weight of the values added
+     */
+    public double getTotalWeight()
+    {
+        return totalWeight;
+    }
+
+    @Override
+    public double getMinimum()
+    {
+        return count == 0 ? Double.NaN : minimum;
+    }
+
+    /**
+     * Estimates a percentile at the same position as {@link Quantiles}, p * (n + 1) / 100 with n
+     * the total weight, so that a digest of few unit weights gives the same percentiles.
+     */
+    @Override
+    public double getPercentile( double p )
+    {
+        return getValueAtPosition( p * ( totalWeight + 1 ) / 100 - 0.5 );
+    }
+
+    @Override
+    public double[] getPercentileInterval( double p, double z )
+    {
+        if( count == 0 )
+        {
+            return new double[] { Double.NaN, Double.NaN };
+        }
+        long[] indices = Quantiles.getIntervalIndices( Math.round( totalWeight ), p, z );
+        return new double[] { getValueAtPosition( indices[0] + 0.5 ),
+                getValueAtPosition( indices[1] + 0.5 ) };
+    }
+
+    /**
+     * Gets the smallest value at which the weight of the values at or below it reaches a given
+     * weight, like {@link Quantiles#getWeightedPercentile(double[], double[], double)}.
+     *
+     * @param weight cumulative weight from the smallest value
+     * @return the estimated value
+     */
+    public double getValueAtWeight( double weight )
+    {
+        return getValueAtPosition( weight - 0.5 );
+    }
+
+    /**
+     * Estimates the weight of the values at or below a given value.
+     *
+     * @param value any value
+     * @return the estimated cumulative weight, between 0 and the total weight
+     */
+    public double getWeightAtOrBelow( double value )
+    {
+        compress();
+        if( count == 0 || value < minimum )
+        {
+            return 0.0;
+        }
+        if( value >= maximum )
+        {
+            return totalWeight;
+        }
+        // the centroids are the knots of a piecewise linear distribution from the minimum at 0
+        // to the maximum at the total weight, each centroid at the middle of its weight
+        double previousValue = minimum, previousPosition = 0.0, weightBefore = 0.0;
+        for( int i = 0 ; i < numberOfCentroids ; i++ )
+        {
+            double position = weightBefore + weights[i] / 2;
+            if( value < means[i] )
+            {
+                return interpolate( value, previousValue, means[i], previousPosition, position );
+            }
+            previousValue = means[i];
+            previousPosition = position;
+            weightBefore += weights[i];
+        }
+        return interpolate( value, previousValue, maximum, previousPosition, totalWeight );
+    }
+
+    /**
+     * Estimates the sum of the squared weights of the values at or below a given value, the
+     * values of a centroid sharing its squared weights in proportion to their weight.
+     *
+     * @param value any value
+     * @return the estimated sum of squared weights
+     */
+    public double getSquaredWeightAtOrBelow( double value )
+    {
+        double weight = getWeightAtOrBelow( value );
+        double squares = 0.0, weightBefore = 0.0;
+        for( int i = 0 ; i < numberOfCentroids && weightBefore < weight ; i++ )
+        {
+            squares += squaredWeights[i] * Math.min( ( weight - weightBefore ) / weights[i], 1.0 );
+            weightBefore += weights[i];
+        }
+        return squares;
+    }
+
+    /**
+     * @param position cumulative weight from the smallest value, the i-th of n unit weights being
+     *            at i + 0.5
+     * @return the value at the position on the piecewise linear distribution of the centroids
+     */
+    private double getValueAtPosition( double position )
+    {
+        compress();
+        if( count == 0 )
+        {
+            return Double.NaN;
+        }
+        double previousValue = minimum, previousPosition = 0.0, weightBefore = 0.0;
+        for( int i = 0 ; i < numberOfCentroids ; i++ )
+        {
+            double centre = weightBefore + weights[i] / 2;
+            if( position < centre )
+            {
+                return interpolate( position, previousPosition, centre, previousValue, means[i] );
+            }
+            previousValue = means[i];
+            previousPosition = centre;
+            weightBefore += weights[i];
+        }
+        return interpolate( position, previousPosition, totalWeight, previousValue, maximum );
+    }
+
+    /**
+     * @return the value at x on the line through (x0, y0) and (x1, y1), clamped to the segment
+     */
+    private static double interpolate( double x, double x0, double x1, double y0, double y1 )
+    {
+        if( x <= x0 || x1 <= x0 )
+        {
+            return y0;
+        }
+        if( x >= x1 )
+        {
+            return y1;
+        }
+        return y0 + ( x - x0 ) / ( x1 - x0 ) * ( y1 - y0 );
+    }
+}
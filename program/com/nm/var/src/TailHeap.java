@@ -0,0 +1,231 @@
+package com.nm.var.src;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the smallest of a stream of values in a bounded max-heap, so that a lower percentile of
+ * any number of scenarios can be found exactly in memory proportional to the tail.
+ * <p>
+ * Percentiles and their confidence intervals are estimated the same way as by
+ * {@link Quantiles}, from the number of values added, as long as the ranks involved are held. Use
+ * {@link #forPercentile(long, double, double)} to size a heap for a known number of values. Heaps
+ * filled by different workers can be merged, and whatever the order values are added or heaps
+ * merged in, the same values are kept.
+ */
+public class TailHeap implements QuantileSketch
+{
+    /** Smallest values added so far, largest at the root. */
+    private final double[] heap;
+    /** Number of values held. */
+    private int            size;
+    /** Number of values added. */
+    private long           count;
+
+    /**
+     * @param capacity number of smallest values to keep
+     */
+    public TailHeap( int capacity )
+    {
+        this.heap = new double[Math.max( capacity, 1 )];
+    }
+
+    /**
+     * Creates a heap large enough to give a percentile of a number of values and its confidence
+     * interval.
+     *
+     * @param numberOfValues most values that will be added
+     * @param p the percentile, in (0, 100]
+     * @param z number of standard deviations covered by the interval
+     * @return an empty heap
+     */
+    public static TailHeap forPercentile( long numberOfValues, double p, double z )
+    {
+        return new TailHeap( (int) getCapacity( numberOfValues, p, z ) );
+    }
+
+    /**
+     * @param numberOfValues most values that will be added
+     * @param p the percentile, in (0, 100]
+     * @param z number of standard deviations covered by the interval
+     * @return the number of values a heap must keep to give the percentile and its interval
+     */
+    public static long getCapacity( long numberOfValues, double p, double z )
+    {
+        if( numberOfValues <= 0 )
+        {
+            return 1;
+        }
+        // the value after the tail is needed to interpolate
+        long tail = Quantiles.getTailSize( numberOfValues, p ) + 1;
+        long interval = Quantiles.getIntervalIndices( numberOfValues, p, z )[1] + 1;
+        return Math.min( Math.max( tail, interval ), numberOfValues );
+    }
+
+    @Override
+    public void add( double value )
+    {
+        count++;
+        if( size < heap.length )
+        {
+            // sift up from the end
+            int child = size++;
+            while( child > 0 && heap[( child - 1 ) / 2] < value )
+            {
+                heap[child] = heap[( child - 1 ) / 2];
+                child = ( child - 1 ) / 2;
+            }
+            heap[child] = value;
+        }
+        else if( value < heap[0] )
+        {
+            siftDown( value );
+        }
+    }
+
+    /**
+     * Replaces the root by a smaller value and moves it down to its place.
+     */
+    private void siftDown( double value )
+    {
+        int parent = 0;
+        while( true )
+        {
+            int child = 2 * parent + 1;
+            if( child >= size )
+            {
+                break;
+            }
+            if( child + 1 < size && heap[child + 1] > heap[child] )
+            {
+                child++;
+            }
+            if( heap[child] <= value )
+            {
+                break;
+            }
+            heap[parent] = heap[child];
+            parent = child;
+        }
+        heap[parent] = value;
+    }
+
+    /**
+     * Adds the values held by another heap, counting every value added to it.
+     *
+     * @param other heap of another part of the same stream
+     */
+    public void merge( TailHeap other )
+    {
+        for( int i = 0 ; i < other.size ; i++ )
+        {
+            add( other.heap[i] );
+        }
+        count += other.count - other.size;
+    }
+
+    @Override
+    public long getCount()
+    {
+        return count;
+    }
+
+    /**
+     * @return the number of values held, at most the capacity
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    @Override
+    public double getMinimum()
+    {
+        if( size == 0 )
+        {
+            return Double.NaN;
+        }
+        // the minimum is one of the leaves
+        double minimum = heap[size / 2];
+        for( int i = size / 2 + 1 ; i < size ; i++ )
+        {
+            minimum = Math.min( minimum, heap[i] );
+        }
+        return minimum;
+    }
+
+    @Override
+    public double getPercentile( double p )
+    {
+        return getTailStatistics( p ).getQuantile();
+    }
+
+    /**
+     * Gets the statistics of the lower tail of every value added, like
+     * {@link Quantiles#getTailStatistics(double[], double)}.
+     *
+     * @param p the percentile, in (0, 100]
+     * @return the value at the percentile, the mean of the values at or below it and the minimum
+     * @throws IllegalStateException if the heap does not hold the values needed
+     */
+    public TailStatistics getTailStatistics( double p )
+    {
+        if( count == 0 )
+        {
+            return new TailStatistics( Double.NaN, Double.NaN, Double.NaN, 0 );
+        }
+        double position = p * ( count + 1 ) / 100;
+        int tailSize = (int) Quantiles.getTailSize( count, p );
+        boolean interpolated = position >= 1 && position < count;
+        checkHeld( interpolated ? tailSize + 1 : tailSize );
+
+        double[] sorted = getSortedValues();
+        double sum = 0.0;
+        for( int i = 0 ; i < tailSize ; i++ )
+        {
+            sum += sorted[i];
+        }
+        double lower = sorted[tailSize - 1];
+        double quantile = lower;
+        if( position < 1 )
+        {
+            quantile = sorted[0];
+        }
+        else if( interpolated )
+        {
+            quantile = lower + ( position - Math.floor( position ) ) * ( sorted[tailSize] - lower );
+        }
+        return new TailStatistics( quantile, sum / tailSize, sorted[0], tailSize );
+    }
+
+    @Override
+    public double[] getPercentileInterval( double p, double z )
+    {
+        if( count == 0 )
+        {
+            return new double[] { Double.NaN, Double.NaN };
+        }
+        long[] indices = Quantiles.getIntervalIndices( count, p, z );
+        checkHeld( indices[1] + 1 );
+        double[] sorted = getSortedValues();
+        return new double[] { sorted[(int) indices[0]], sorted[(int) indices[1]] };
+    }
+
+    private void checkHeld( long needed )
+    {
+        if( needed > size )
+        {
+            throw new IllegalStateException( "Tail heap holds " + size + " of the " + needed
+                                             + " smallest values needed" );
+        }
+    }
+
+    /**
+     * @return a sorted copy of the values held
+     */
+    private double[] getSortedValues()
+    {
+        double[] sorted = Arrays.copyOf( heap, size );
+        Arrays.sort( sorted );
+        return sorted;
+    }
+}
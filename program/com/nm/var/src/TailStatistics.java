@@ -0,0 +1,64 @@
+package com.nm.var.src;
+
+/**
+ * Statistics of the lower tail of a set of simulated or historical values, as computed by
+ * {@link Quantiles#getTailStatistics(double[], double)}.
+ */
+public class TailStatistics
+{
+    /** Value at the requested percentile. */
+    private final double quantile;
+    /** Mean of the values in the tail. */
+    private final double tailMean;
+    /** Smallest value. */
+    private final double minimum;
+    /** Number of values in the tail. */
+    private final int    tailSize;
+
+    /**
+     * @param quantile value at the requested percentile
+     * @param tailMean mean of the values in the tail
+     * @param minimum smallest value
+     * @param tailSize number of values in the tail
+     */
+    public TailStatistics( double quantile, double tailMean, double minimum, int tailSize )
+    {
+        this.quantile = quantile;
+        this.tailMean = tailMean;
+        this.minimum = minimum;
+        this.tailSize = tailSize;
+    }
+
+    /**
+     * @return the value at the requested percentile
+     */
+    public double getQuantile()
+    {
+        return quantile;
+    }
+
+    /**
+     * @return the mean of the values in the tail, i.e. the expected value given the percentile is
+     *         reached
+     */
+    public double getTailMean()
+    {
+        return tailMean;
+    }
+
+    /**
+     * @return the smallest value
+     */
+    public double getMinimum()
+    {
+        return minimum;
+    }
+
+    /**
+     * @return the number of values in the tail
+     */
+    public int getTailSize()
+    {
+        return tailSize;
+    }
+}
@@ -3,16 +3,14 @@
  */
 package com.nm.var.src;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 
 import org.apache.commons.math3.linear.CholeskyDecomposition;
 import org.apache.commons.math3.linear.MatrixUtils;
 import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.special.Erf;
 import org.apache.commons.math3.stat.StatUtils;
 import org.apache.commons.math3.stat.correlation.Covariance;
 import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
@@ -34,27 +32,18 @@ public abstract class VarUtils
     public static final int     DAYS_IN_YEAR     = 252, DAYS_IN_MONTH = 21;
     /** Error value used to indicate something went wrong. */
     public static final int     ERROR_VAL        = -1;
-    /** Used to split the stock price data file contents into a array of strings. */
-    private static final String COMMA            = ",";
     /** The decay factor in the EWMA algorithm. */
     private static double       lambda           = 0.94;
     private static double       firstDayVariance = 0.01;
     private static double       firstDayReturn   = 0.02;
     /**
-     * Parameters for the GARCH(1,1) estimation of volatility.
+     * Parameters for the GARCH(1,1) estimation of volatility, used for series too short for
+     * {@link GarchEstimator} to fit their own.
      */
     static double               gamma            = 0.05;
     static double               alpha            = 0.13;
     static double               beta             = 0.90;
-
-    // TODO best backtest results for 99% confidence
-    // need to get MLE done for each set of returns to optimise parameters
-    /*
-     * static double gamma = 0.01;
-     * static double alpha = 0.02;
-     * static double beta = 0.97;
-     */
-    static double               omega            = 0.000002;
+    private static final double SQRT2            = Math.sqrt( 2 );
 
     /**
      * Helper method
@@ -105,87 +94,43 @@ public abstract class VarUtils
     }
 
     /**
-     * Reads through a csv file to extract the closing prices from each day of data.
+     * Gets the returns of several files, either paired by index as read from each file or aligned
+     * on their dates as a {@link ReturnMatrix}.
+     * 
+     * @param files List of csv files to get returns for.
+     * @param policy how to align the returns on their dates, or null to pair them by index
+     * @return List of arrays containing returns for each input file, which must not be modified.
+     */
+    public static ArrayList<double[]> getReturnsFromFiles( ArrayList<File> files,
+                                                           MissingDataPolicy policy )
+    {
+        if( policy == null )
+        {
+            return ReturnSeriesCache.getInstance().getReturns( files );
+        }
+        return new ReturnMatrix( files, policy ).getReturnList();
+    }
+
+    /**
+     * Gets the returns of the closing prices from each day of data in a csv file. The returns come
+     * from the {@link ReturnSeriesCache}, and are copied so the caller may modify them.
      * 
      * @param file a csv file with historical price data.
      * @return corresponding returns in an array
      */
     public static double[] getReturnsFromFile( File file )
     {
-        ArrayList<Double> closePrices = getClosingPrices( file );
-
-        double[] returns = computeDailyReturns( closePrices );
-
-        return returns;
+        return ReturnSeriesCache.getInstance().getReturns( file ).clone();
     }
     
     /**
      * Saves the series of closing prices from the historical stock data into a list of prices.
      * @param file historical stock data
-     * @return list of closing prices
+     * @return series of closing prices
      */
-    public static ArrayList<Double> getClosingPrices( File file )
+    public static DoubleSeries getClosingPrices( File file )
     {
-        ArrayList<Double> closePrices = new ArrayList<Double>();
-        try
-        {
-            BufferedReader reader = new BufferedReader( new FileReader( file ) );
-            String nextLine;
-            String comma = COMMA;
-            int counter = 0; // skip storing column heading
-            int closePriceColumn = 0;
-            while( ( nextLine = reader.readLine() ) != null )
-            {
-                if( counter == 0 )
-                {
-                    String[] line = nextLine.split( comma );
-                    for( int i = 0 ; i < line.length ; i++ )
-                    {
-                        if( line[i].contains( "Close" ) )
-                        {
-                            closePriceColumn = i;
-                            break;
-                        }
-                    }
-                }
-                else
-                {
-                    String[] line = nextLine.split( comma );
-                    closePrices.add( Double.parseDouble( line[closePriceColumn] ) );
-                }
-                counter++;
-            }
-            reader.close();
-        }
-        catch( IOException e )
-        {
-            System.out.println( "File" + file.getName() + " has a problem." );
-        }
-        return closePrices;
-    }
-
-    /**
-     * Computes the daily returns from a list of closing prices using natural logs.
-     * 
-     * @param prices the series of closing prices from the stock data.
-     * @return an array of returns
-     */
-    private static double[] computeDailyReturns( ArrayList<Double> prices )
-    {
-        int daysToCompute = prices.size() - 1;
-        double[] returns = new double[daysToCompute];
-
-        for( int i = 0 ; i < daysToCompute ; i++ )
-        {
-            // can't compute returns for last day in range
-            if( ! ( i + 1 > daysToCompute ) )
-            {
-                double day2 = prices.get( i );
-                double day1 = prices.get( i + 1 );
-                returns[i] = Math.log( day2 / day1 );
-            }
-        }
-        return returns;
+        return PriceStore.getInstance().load( file ).getClosingPrices();
     }
 
     /**
@@ -210,12 +155,12 @@ public abstract class VarUtils
     /**
      * Computes volatilities for each set of returns passed
      * @param returnsForMultipleStocks
-     * @return list of volatilities corresponding to the list of returns passed
+     * @return series of volatilities corresponding to the list of returns passed
      */
-    public static ArrayList<Double> computeVolatilitiesFromReturns(
-                                                                    ArrayList<double[]> returnsForMultipleStocks )
+    public static DoubleSeries computeVolatilitiesFromReturns(
+                                                               ArrayList<double[]> returnsForMultipleStocks )
     {
-        ArrayList<Double> volatilities = new ArrayList<Double>();
+        DoubleSeries volatilities = new DoubleSeries( returnsForMultipleStocks.size() );
         for( double[] returns : returnsForMultipleStocks )
         {
             volatilities.add( computeVolatility_EWMA( returns ) );
@@ -234,7 +179,7 @@ public abstract class VarUtils
      */
     public static double computeVolatility_EWMA( double[] returns )
     {
-        double varianceCurrentDay = getVariance_EWMA( 0, returns );
+        double varianceCurrentDay = getVariance_EWMA( returns ).getVariance();
         double ewma = ( lambda * varianceCurrentDay )
                       + ( ( 1 - lambda ) * Math.pow( returns[0], 2 ) );
         double volatility = Math.sqrt( ewma );
@@ -242,72 +187,21 @@ public abstract class VarUtils
     }
 
     /**
-     * Recursively computes the running variance using the EWMA formula.<br>
-     * today's variance = yesterdaysVariance^2 * lambda + yesterdaysReturn^2 * (
-     * 1 - lambda )
+     * Computes the running variance using the EWMA formula, from the oldest day to the most
+     * recent.<br>
+     * today's variance = yesterdaysVariance * lambda + yesterdaysReturn^2 * ( 1 - lambda )
      * 
-     * @param currentDay
-     *            the day we are estimating the variance for.
      * @param returns
-     * @return variance for the current day, based on yesterday's variance and
-     *         yesterday's return
+     * @return estimator holding the variance for the most recent day, based on the returns of the
+     *         days before it
      */
-    private static double getVariance_EWMA( int currentDay, double[] returns )
+    public static VolatilityEstimator getVariance_EWMA( double[] returns )
     {
+        VolatilityEstimator ewma = new EwmaVolatilityEstimator( lambda, firstDayVariance );
+        ewma.update( firstDayReturn );
         // day 0 is most recent day
-        double variance = 0.0;
-        // first day variance = lambda * firstDayVariance^2 + yesterdayReturn^2
-        // * ( 1 - lambda )
-        if( currentDay == returns.length - 1 )
-        {
-            double firstDayReturnSquared = Math.pow( firstDayReturn, 2 );
-            double weight = ( 1 - lambda ) * Math.pow( lambda, currentDay );
-            variance = ( lambda * firstDayVariance )
-                       + ( weight * firstDayReturnSquared );
-        }
-        // today's variance = yesterdaysVariance^2 * lambda + yesterdaysReturn^2
-        // * ( 1 - lambda )
-        else if( currentDay >= 0 )
-        {
-            // recursively work out variance for prior days
-            double yesterdayVariance = getVariance_EWMA( currentDay + 1, returns );
-            double yesterdayReturnSquared = Math
-                                                .pow( returns[currentDay + 1], 2 );
-            double weight = ( 1 - lambda ) * Math.pow( lambda, currentDay );
-            variance = ( lambda * yesterdayVariance )
-                       + ( weight * yesterdayReturnSquared );
-        }
-
-        return variance;
-    }
-
-    @SuppressWarnings("unused")
-    private double getCovariance_EWMA( int currentDay,
-                                       ArrayList<Double> returns1, ArrayList<Double> returns2 )
-    {
-        ArrayList<Double> covariances_EWMA = new ArrayList<Double>();
-        double covariance = 0;
-
-        if( currentDay == returns1.size() - 1 )
-        {
-            double firstDayReturnsProduct = Math.pow( firstDayReturn, 2 );
-            double weight = ( 1 - lambda ) * Math.pow( lambda, currentDay );
-            covariance = ( lambda * firstDayVariance )
-                         + ( weight * firstDayReturnsProduct );
-            covariances_EWMA.set( currentDay, covariance );
-        }
-        else if( currentDay >= 0 )
-        {
-            double yesterdayCovariance = getCovariance_EWMA( currentDay + 1,
-                                                             returns1, returns2 );
-            double yesterdayReturnsProduct = returns1.get( currentDay + 1 )
-                                             * returns2.get( currentDay + 1 );
-            double weight = ( 1 - lambda ) * Math.pow( lambda, currentDay );
-            covariance = ( lambda * yesterdayCovariance )
-                         + ( weight * yesterdayReturnsProduct );
-        }
-
-        return covariance;
+        ewma.update( returns, 1, returns.length );
+        return ewma;
     }
 
     /**
@@ -319,88 +213,88 @@ public abstract class VarUtils
      */
     public static double computeVolatility_GARCH( double[] returns )
     {
-        /**
-         * Accepted values for the weights of long run variance, previous return
-         * and variance.
-         */
-        double longRunVariance = 0.0;
-        DescriptiveStatistics stats = new DescriptiveStatistics();
-        for( int i = 0 ; i < returns.length ; i++ )
-        {
-            stats.addValue( (double) returns[i] );
-        }
-        longRunVariance = stats.getVariance();
-        // tune parameters for returns
-        double variance = getVariance_GARCH( 0, longRunVariance, returns );
-        // double variance = getVariance_GARCH2( 0, returns );
-        double volatility = Math.sqrt( variance );
-        return volatility;
+        return computeVolatility_GARCH( returns, returns.length );
     }
 
-    // TODO using finmath to get optimal params
-    @SuppressWarnings("unused")
-    private static double getVariance_GARCH2( int day, double[] returns )
+    /**
+     * Estimates volatility using GARCH from the most recent returns of a series, so backtests can
+     * use a growing number of returns without copying the series each day.
+     * 
+     * @param returns series of returns, most recent first
+     * @param numberOfReturns number of returns to use from the start of the series
+     * @return estimated volatility of the stock.
+     */
+    public static double computeVolatility_GARCH( double[] returns, int numberOfReturns )
     {
-        // values from Estimating Volatilities and Correlations, John Hull book.
-        double variance = 0.0;
-        if( day == returns.length - 1 )
+        double longRunVariance = StatUtils.variance( returns, 0, numberOfReturns );
+        // tune parameters for returns
+        GarchParameters parameters = GarchEstimator.getInstance().getParameters( returns,
+                                                                                 numberOfReturns );
+        VolatilityEstimator garch;
+        if( parameters == null )
         {
-            double firstDayReturnSquared = Math.pow( firstDayReturn, 2 );
-            variance = omega + ( alpha * firstDayReturnSquared )
-                       + ( beta * firstDayVariance );
+            garch = getVariance_GARCH( longRunVariance, returns, numberOfReturns );
         }
-        // variance = weightLRV*longRunVariance + weightPR*previousReturn +
-        // weightVariance*previousVariance
-        else if( day >= 0 )
+        else
         {
-            // recursively work out variance for prior days
-            double yesterdayVariance = getVariance_GARCH2( day + 1,
-                                                           returns );
-            double yesterdayReturnSquared = Math.pow( returns[day + 1], 2 );
-            variance = omega + ( alpha * yesterdayReturnSquared )
-                       + ( beta * yesterdayVariance );
+            garch = getVariance_GARCH( parameters, longRunVariance, returns, numberOfReturns );
         }
-        return variance;
+        double variance = garch.getVariance();
+        double volatility = Math.sqrt( variance );
+        return volatility;
     }
 
     // TODO long run average variance, at each variance calculation, calculate average to day and
     // use that in subsequent calculations
     /**
-     * Recursively computes the variance using the GARCH formula for daily
-     * returns.<br>
+     * Computes the variance using the GARCH formula for daily returns, from the oldest day to the
+     * most recent.<br>
      * variance = weightLRV*longRunVariance + weightPR*previousReturn +
      * weightVariance*previousVariance
      * 
-     * @param day
-     *            the day we are estimating the variance for
      * @param longRunVariance
      *            the overall variance of the whole series of returns.
-     * @param returns
-     * @return current day's variance.
+     * @param returns series of returns, most recent first
+     * @param numberOfReturns number of returns to use from the start of the series
+     * @return estimator holding the variance for the most recent day, which can be updated with
+     *         later returns.
      */
-    private static double getVariance_GARCH( int day, double longRunVariance,
-                                             double[] returns )
+    public static VolatilityEstimator getVariance_GARCH( double longRunVariance,
+                                                         double[] returns, int numberOfReturns )
     {
         // values from Estimating Volatilities and Correlations, John Hull book.
-        double variance = 0.0;
-        if( day == returns.length - 1 )
-        {
-            double firstDayReturnSquared = Math.pow( firstDayReturn, 2 );
-            variance = gamma * longRunVariance + alpha * firstDayReturnSquared
-                       + beta * firstDayVariance;
-        }
-        // variance = weightLRV*longRunVariance + weightPR*previousReturn +
-        // weightVariance*previousVariance
-        else if( day >= 0 )
-        {
-            // recursively work out variance for prior days
-            double yesterdayVariance = getVariance_GARCH( day + 1,
-                                                          longRunVariance, returns );
-            double yesterdayReturnSquared = Math.pow( returns[day + 1], 2 );
-            variance = gamma * longRunVariance + alpha * yesterdayReturnSquared
-                       + beta * yesterdayVariance;
-        }
-        return variance;
+        VolatilityEstimator garch = new GarchVolatilityEstimator( gamma * longRunVariance, alpha,
+                                                                  beta, firstDayVariance );
+        garch.update( firstDayReturn );
+        // the most recent return only affects tomorrow's variance
+        garch.update( returns, 1, numberOfReturns );
+        return garch;
+    }
+
+    /**
+     * Computes the variance using the GARCH formula with parameters fitted to the returns,
+     * starting from the long run variance as the fit does.
+     * 
+     * @param parameters weights fitted by {@link GarchEstimator}
+     * @param longRunVariance
+     *            the overall variance of the whole series of returns.
+     * @param returns series of returns, most recent first
+     * @param numberOfReturns number of returns to use from the start of the series
+     * @return estimator holding the variance for the most recent day, which can be updated with
+     *         later returns.
+     */
+    public static VolatilityEstimator getVariance_GARCH( GarchParameters parameters,
+                                                         double longRunVariance,
+                                                         double[] returns, int numberOfReturns )
+    {
+        VolatilityEstimator garch = new GarchVolatilityEstimator(
+                                                                  parameters.getOmega( longRunVariance ),
+                                                                  parameters.getAlpha(),
+                                                                  parameters.getBeta(),
+                                                                  longRunVariance );
+        // the most recent return only affects tomorrow's variance
+        garch.update( returns, 1, numberOfReturns );
+        return garch;
     }
 
     @SuppressWarnings("unused")
@@ -436,31 +330,36 @@ public abstract class VarUtils
      * 
      * @param returnList
      * @return
+     * @see SampleCovariance
      */
     public static double[][] generateCovarianceMatrix(
                                                        ArrayList<double[]> returnList,
                                                        int numberOfStocks )
     {
-        double[][] v = new double[numberOfStocks][numberOfStocks];
+        return SampleCovariance.getCovarianceMatrix( returnList.subList( 0, numberOfStocks ) );
+    }
 
-        for( int x = 0 ; x < v.length ; x++ )
+    /**
+     * Generates the covariance matrix of a list of returns using the estimation method given.
+     * 
+     * @param returnList series of returns, most recent first, one for each stock
+     * @param numberOfStocks number of stocks from the list to include
+     * @param method the way to estimate covariances
+     * @return matrix where [x][y] is the covariance between stock x and stock y
+     */
+    public static double[][] generateCovarianceMatrix( ArrayList<double[]> returnList,
+                                                       int numberOfStocks,
+                                                       CovarianceMethod method )
+    {
+        switch( method )
         {
-            for( int y = 0 ; y < v[0].length ; y++ )
-            {
-                if( x == y )
-                {
-                    v[x][y] = getCovariance( returnList.get( x ),
-                                             returnList.get( x ) );
-                }
-                else
-                {
-                    v[x][y] = getCovariance( returnList.get( x ),
-                                             returnList.get( y ) );
-                }
-            }
+            case EWMA:
+                ArrayList<double[]> stockReturns = new ArrayList<double[]>(
+                                                                            returnList.subList( 0, numberOfStocks ) );
+                return new EwmaCovariance( lambda ).getCovarianceMatrix( stockReturns );
+            default:
+                return generateCovarianceMatrix( returnList, numberOfStocks );
         }
-
-        return v;
     }
 
     /**
@@ -566,15 +465,16 @@ public abstract class VarUtils
     }
 
     /**
-     * Gets the percentile for the confidence level from the series of data provided.
+     * Gets the percentile for the confidence level from the series of data provided. The data is
+     * left untouched; callers owning the data can use {@link Quantiles} to avoid the copy.
      * 
-     * @param data Series of data.
+     * @param data Series of data, in any order.
      * @param confidence The confidence level for which to get the percentile.
      * @return value at the desired percentile from the data
      */
     public static double getPercentile( double[] data, int confidence )
     {
-        double percentile = StatUtils.percentile( data, 100 - confidence );
+        double percentile = Quantiles.getPercentile( data.clone(), 100 - confidence );
         return percentile;
     }
 
@@ -600,18 +500,11 @@ public abstract class VarUtils
     
     /**
      * @param values
-     * @return sum of numbers contained in the list of values provided
+     * @return sum of numbers contained in the series of values provided
      */
-    public static double sumOf( ArrayList<Double> values )
+    public static double sumOf( DoubleSeries values )
     {
-        double sum = 0.0;
-
-        for( Double value : values )
-        {
-            sum += value;
-        }
-
-        return sum;
+        return values.sum();
     }
     
     /**
@@ -624,16 +517,15 @@ public abstract class VarUtils
     {
         int numberOfReturns = returns.length - varHorizon + 1;
         double[] nDayHorizonReturns = new double[numberOfReturns];
+        // assuming return over n days = sum of returns on each day from start to start + horizon
         for( int i = 0 ; i < numberOfReturns ; i++ )
         {
-            ArrayList<Double> windowReturns = new ArrayList<Double>();
-            // assuming return over n days = sum of returns on each day from start to start +
-            // horizon
+            double windowSum = 0.0;
             for( int day = i ; day < i + varHorizon ; day++ )
             {
-                windowReturns.add( returns[day] );
+                windowSum += returns[day];
             }
-            nDayHorizonReturns[i] = VarUtils.sumOf( windowReturns );
+            nDayHorizonReturns[i] = windowSum;
         }
 
         return nDayHorizonReturns;
@@ -649,6 +541,18 @@ public abstract class VarUtils
      * @return
      */
     public static double CNDF( double x )
+    {
+        return CNDF( x, Math.exp( -0.5 * x * x ) );
+    }
+
+    /**
+     * Cumulative Normal Distribution Function, for callers which already know exp(-x^2 / 2).
+     * 
+     * @param x the number for which to compute the value
+     * @param density exp(-x^2 / 2), the unnormalised normal density at x
+     * @return the same value as {@link #CNDF(double)}
+     */
+    static double CNDF( double x, double density )
     {
         int neg = ( x < 0d ) ? 1 : 0;
         if( neg == 1 )
@@ -658,11 +562,23 @@ public abstract class VarUtils
         double y = ( ( ( ( 1.330274429 * k - 1.821255978 ) * k + 1.781477937 ) * k - 0.356563782 )
                      * k + 0.319381530 )
                    * k;
-        y = 1.0 - 0.398942280401 * Math.exp( -0.5 * x * x ) * y;
+        y = 1.0 - 0.398942280401 * density * y;
 
         return ( 1d - neg ) * y + neg * ( 1d - y );
     }
 
+    /**
+     * Inverse of the Cumulative Normal Distribution Function, mapping uniform numbers to normally
+     * distributed ones.
+     * 
+     * @param p probability, in (0, 1)
+     * @return the value below which a standard normal variable falls with probability p
+     */
+    public static double inverseCNDF( double p )
+    {
+        return SQRT2 * Erf.erfInv( 2 * p - 1 );
+    }
+
     public static double roundTwoDP( double n )
     {
         double rounded = Math.round( n * 100 );
@@ -0,0 +1,18 @@
+package com.nm.var.src;
+
+/**
+ * Enumeration of the ways the Gaussian shocks of a Monte Carlo simulation can be drawn to reduce
+ * the variance of its estimates.
+ */
+public enum VarianceReduction
+{
+    /** Independent shocks for every scenario. */
+    NONE,
+    /** Scenarios in pairs, the second using the opposite of the shocks of the first. */
+    ANTITHETIC,
+    /**
+     * Shocks of each stock and day rescaled over every block of scenarios to a mean of exactly 0
+     * and a variance of exactly 1.
+     */
+    MOMENT_MATCHING;
+}
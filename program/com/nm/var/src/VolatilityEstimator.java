@@ -0,0 +1,47 @@
+package com.nm.var.src;
+
+/**
+ * Running estimate of the daily variance of a series of returns, updated one return at a time so
+ * the estimate for a whole series is computed in a single pass, and an existing estimate can be
+ * carried forward as new returns become available.
+ * <p>
+ * Returns must be fed from the oldest to the most recent.
+ */
+public abstract class VolatilityEstimator
+{
+    /**
+     * Updates the estimate with the next daily return.
+     *
+     * @param dailyReturn the return of the day following the last return fed
+     */
+    public abstract void update( double dailyReturn );
+
+    /**
+     * @return the current estimate of the daily variance
+     */
+    public abstract double getVariance();
+
+    /**
+     * Updates the estimate with a range of returns held most recent first, as read from price
+     * files, i.e. from returns[end - 1] down to returns[start].
+     *
+     * @param returns series of returns, most recent first
+     * @param start index of the most recent return to feed
+     * @param end index after the oldest return to feed
+     */
+    public void update( double[] returns, int start, int end )
+    {
+        for( int day = end - 1 ; day >= start ; day-- )
+        {
+            update( returns[day] );
+        }
+    }
+
+    /**
+     * @return the current estimate of the daily volatility
+     */
+    public double getVolatility()
+    {
+        return Math.sqrt( getVariance() );
+    }
+}
@@ -0,0 +1,64 @@
+package com.nm.var.src;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * Singleton fork-join pool shared by the computations which split their work across cores, so
+ * the program never runs more worker threads than there are processors.
+ * <p>
+ * Workers are daemon threads and do not keep the program running once the GUI is closed.
+ */
+public class WorkerPool
+{
+    /** Single instance of the pool used by all models. */
+    private static final WorkerPool instance = new WorkerPool();
+    /** Pool running the tasks. */
+    private final ForkJoinPool      pool;
+
+    /** Creates a pool with one worker per processor. */
+    private WorkerPool()
+    {
+        ForkJoinPool.ForkJoinWorkerThreadFactory factory = new ForkJoinPool.ForkJoinWorkerThreadFactory()
+        {
+            @Override
+            public ForkJoinWorkerThread newThread( ForkJoinPool pool )
+            {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory
+                                                          .newThread( pool );
+                thread.setDaemon( true );
+                thread.setName( "ValueAtRisk-worker-" + thread.getPoolIndex() );
+                return thread;
+            }
+        };
+        pool = new ForkJoinPool( Runtime.getRuntime().availableProcessors(), factory, null, false );
+    }
+
+    /**
+     * @return the singleton instance of the pool.
+     */
+    public static WorkerPool getInstance()
+    {
+        return instance;
+    }
+
+    /**
+     * Runs a task in the pool and waits for it to finish.
+     *
+     * @param task the task to run
+     * @return the result of the task
+     */
+    public <T> T invoke( ForkJoinTask<T> task )
+    {
+        return pool.invoke( task );
+    }
+
+    /**
+     * @return the number of worker threads
+     */
+    public int getParallelism()
+    {
+        return pool.getParallelism();
+    }
+}
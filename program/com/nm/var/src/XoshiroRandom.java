@@ -0,0 +1,67 @@
+package com.nm.var.src;
+
+/**
+ * Random number generator based on Blackman and Vigna's xoshiro256** algorithm: 256 bits of state
+ * updated by shifts, rotations and xors, with a period of 2^256 - 1. It passes the usual
+ * statistical test suites and is among the fastest generators of 64-bit numbers.
+ */
+public class XoshiroRandom extends AbstractRandomGenerator
+{
+    /** State, never all zero. */
+    private long s0, s1, s2, s3;
+
+    /**
+     * Creates a generator whose state is filled from a seed by SplitMix64, as recommended by the
+     * authors, so that similar seeds give unrelated states.
+     *
+     * @param seed any seed
+     */
+    public XoshiroRandom( long seed )
+    {
+        SplitMixRandom seeder = new SplitMixRandom( seed );
+        this.s0 = seeder.nextLong();
+        this.s1 = seeder.nextLong();
+        this.s2 = seeder.nextLong();
+        this.s3 = seeder.nextLong();
+    }
+
+    /**
+     * Creates a generator from its state.
+     *
+     * @param s0 first word of the state
+     * @param s1 second word of the state
+     * @param s2 third word of the state
+     * @param s3 fourth word of the state, the four not all zero
+     */
+    public XoshiroRandom( long s0, long s1, long s2, long s3 )
+    {
+        if( ( s0 | s1 | s2 | s3 ) == 0 )
+        {
+            throw new IllegalArgumentException( "The state of xoshiro256** cannot be all zero" );
+        }
+        this.s0 = s0;
+        this.s1 = s1;
+        this.s2 = s2;
+        this.s3 = s3;
+    }
+
+    @Override
+    public long nextLong()
+    {
+        long result = Long.rotateLeft( s1 * 5, 7 ) * 9;
+        long t = s1 << 17;
+        s2 ^= s0;
+        s3 ^= s1;
+        s1 ^= s2;
+        s0 ^= s3;
+        s2 ^= t;
+        s3 = Long.rotateLeft( s3, 45 );
+        return result;
+    }
+
+    @Override
+    public XoshiroRandom split()
+    {
+        return new XoshiroRandom( nextLong() );
+    }
+}
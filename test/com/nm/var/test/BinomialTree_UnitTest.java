@@ -1,9 +1,19 @@
 package com.nm.var.test;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+
 import org.junit.Before;
 import org.junit.Test;
 
 import com.nm.var.src.BinomialTree;
+import com.nm.var.src.BlackScholes;
+import com.nm.var.src.LatticeType;
+import com.nm.var.src.Option;
 import com.nm.var.src.VarUtils;
 
 public class BinomialTree_UnitTest
@@ -21,6 +31,94 @@ public class BinomialTree_UnitTest
         double t = 5.0/12.0;
         BinomialTree bt = new BinomialTree( 50, 50, t, 0.4, 0.1, VarUtils.AMERICAN_PUT );
         bt.buildStockPriceTree();
+        // Hull's example of an American put, worth 4.49 on a tree of 5 steps and about 4.28
+        assertEquals( 4.28, bt.getOptionPrice(), 0.02 );
+        BinomialTree fiveSteps = new BinomialTree( 50, 50, t, 0.4, 0.1, VarUtils.AMERICAN_PUT, 5 );
+        assertEquals( 4.49, fiveSteps.getOptionPrice(), 0.01 );
+    }
+
+    @Test
+    public void shouldConvergeToBlackScholesForEuropeanOptions()
+    {
+        BlackScholes bs = new BlackScholes();
+        double call = new BinomialTree( 50, 52, 1.0, 0.4, 0.1, VarUtils.EUROPEAN_CALL ).getOptionPrice();
+        double put = new BinomialTree( 50, 52, 1.0, 0.4, 0.1, VarUtils.EUROPEAN_PUT ).getOptionPrice();
+        assertEquals( bs.compute( BlackScholes.CALL, 50, 52, 1.0, 0.1, 0.4 ), call, 0.02 );
+        assertEquals( bs.compute( BlackScholes.PUT, 50, 52, 1.0, 0.1, 0.4 ), put, 0.02 );
+        double americanPut = new BinomialTree( 50, 52, 1.0, 0.4, 0.1, VarUtils.AMERICAN_PUT ).getOptionPrice();
+        assertTrue( americanPut > put );
+    }
+
+    @Test
+    public void shouldAccelerateConvergenceOfAmericanOptions()
+    {
+        double t = 5.0/12.0;
+        double reference = new BinomialTree( 50, 50, t, 0.4, 0.1, VarUtils.AMERICAN_PUT, 10000 ).getOptionPrice();
+        BinomialTree accelerated = new BinomialTree( 50, 50, t, 0.4, 0.1, VarUtils.AMERICAN_PUT,
+                                                     BinomialTree.ACCELERATED_STEPS, true );
+        double plain = new BinomialTree( 50, 50, t, 0.4, 0.1, VarUtils.AMERICAN_PUT,
+                                         2 * BinomialTree.ACCELERATED_STEPS ).getOptionPrice();
+        assertEquals( reference, accelerated.getOptionPrice(), 0.002 );
+        assertTrue( Math.abs( accelerated.getOptionPrice() - reference ) < Math.abs( plain - reference ) );
+        assertEquals( BinomialTree.ACCELERATED_STEPS, accelerated.getNumberOfSteps() );
+    }
+
+    @Test
+    public void shouldExtrapolateEuropeanOptionsTowardsBlackScholes()
+    {
+        BlackScholes bs = new BlackScholes();
+        double call = new BinomialTree( 50, 52, 1.0, 0.4, 0.1, VarUtils.EUROPEAN_CALL, 50, true ).getOptionPrice();
+        assertEquals( bs.compute( BlackScholes.CALL, 50, 52, 1.0, 0.1, 0.4 ), call, 0.01 );
+    }
+
+    @Test
+    public void shouldPriceToACentOnALeisenReimerLattice()
+    {
+        double t = 5.0/12.0;
+        double reference = new BinomialTree( 50, 50, t, 0.4, 0.1, VarUtils.AMERICAN_PUT, 10000 ).getOptionPrice();
+        BinomialTree coarse = new BinomialTree( 50, 50, t, 0.4, 0.1, VarUtils.AMERICAN_PUT, 50,
+                                                LatticeType.LEISEN_REIMER, false );
+        BinomialTree fine = new BinomialTree( 50, 50, t, 0.4, 0.1, VarUtils.AMERICAN_PUT, 101,
+                                              LatticeType.LEISEN_REIMER, false );
+        assertEquals( 51, coarse.getNumberOfSteps() );
+        assertEquals( reference, coarse.getOptionPrice(), 0.005 );
+        assertTrue( Math.abs( fine.getOptionPrice() - reference ) < Math.abs( coarse.getOptionPrice() - reference ) );
+
+        double bs = new BlackScholes().compute( BlackScholes.CALL, 50, 52, 1.0, 0.1, 0.4 );
+        double call = new BinomialTree( 50, 52, 1.0, 0.4, 0.1, VarUtils.EUROPEAN_CALL, 51,
+                                        LatticeType.LEISEN_REIMER, false ).getOptionPrice();
+        assertEquals( bs, call, 0.001 );
+    }
+
+    @Test
+    public void shouldCapStepsAndPrintNothing()
+    {
+        PrintStream console = System.out;
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        System.setOut( new PrintStream( printed ) );
+        BinomialTree bt, shortOption, longerOption;
+        try
+        {
+            // maturity in days, which used to give a tree of 750 * 252 steps
+            Option option = new Option( 100, 1, 100, 0.0002, 0.02, 750, "MSFT",
+                                        VarUtils.AMERICAN_PUT, new File( "testing/APPLE.csv" ),
+                                        "put" );
+            bt = new BinomialTree( option );
+            option.setTimeToMaturity( 200 );
+            longerOption = new BinomialTree( option );
+            option.setTimeToMaturity( 10 );
+            shortOption = new BinomialTree( option );
+        }
+        finally
+        {
+            System.setOut( console );
+        }
+        assertEquals( BinomialTree.MAXIMUM_STEPS, bt.getNumberOfSteps() );
+        // one step per day, but never fewer than the minimum
+        assertEquals( 200, longerOption.getNumberOfSteps() );
+        assertEquals( BinomialTree.MINIMUM_STEPS, shortOption.getNumberOfSteps() );
+        assertEquals( 0, printed.size() );
+        assertTrue( bt.getOptionPrice() > 0 );
     }
 
 }
@@ -37,4 +37,31 @@ public class BlackScholes_UnitTest
         assertEquals( 21.85, putPrice, 0.01 );
     }
 
+    @Test
+    public void shouldPriceBatchLikeSingleOptions()
+    {
+        // large enough to be split across threads
+        int n = 40000;
+        double[] spots = new double[n], maturities = new double[n], volatilities = new double[n];
+        for( int i = 0 ; i < n ; i++ )
+        {
+            spots[i] = 60 + 80.0 * i / n;
+            maturities[i] = 0.5 + i / 10000;
+            volatilities[i] = 0.03 * Math.sqrt( 252 );
+        }
+        for( int flag : new int[] { BlackScholes.CALL, BlackScholes.PUT } )
+        {
+            double[] prices = new double[n];
+            bs.compute( flag, spots, 100, maturities, 0.07, volatilities, prices );
+            for( int i = 0 ; i < n ; i++ )
+            {
+                double price = bs.compute( flag, spots[i], 100, maturities[i], 0.07, volatilities[i] );
+                assertEquals( price, prices[i], 1e-12 * Math.max( price, 1 ) );
+            }
+        }
+        double[] prices = new double[n];
+        bs.compute( 2, spots, 100, maturities, 0.07, volatilities, prices );
+        assertEquals( -1.0, prices[n - 1], 0.0 );
+    }
+
 }
@@ -0,0 +1,81 @@
+package com.nm.var.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.junit.Test;
+
+import com.nm.var.src.CholeskyKernel;
+import com.nm.var.src.VarUtils;
+
+public class CholeskyKernel_UnitTest
+{
+    private final double[][] covariance = { { 4.0, 1.2, -0.6 }, { 1.2, 2.0, 0.3 },
+            { -0.6, 0.3, 1.5 } };
+
+    @Test
+    public void shouldCorrelateEachScenarioLikeTheFactorMatrix()
+    {
+        double[][] factor = VarUtils.decomposeMatrix( covariance );
+        CholeskyKernel kernel = new CholeskyKernel( factor );
+        assertEquals( 3, kernel.getDimension() );
+        checkAgainstMatrix( kernel, new Array2DRowRealMatrix( factor ), 7, 7 );
+    }
+
+    @Test
+    public void shouldOnlyCorrelateTheScenariosAskedFor()
+    {
+        double[][] factor = VarUtils.decomposeMatrix( covariance );
+        CholeskyKernel kernel = new CholeskyKernel( factor );
+        RealMatrix matrix = new Array2DRowRealMatrix( factor );
+        checkAgainstMatrix( kernel, matrix, 8, 5 );
+        // one scenario in a block of one, as when correlating a single shift
+        checkAgainstMatrix( kernel, matrix, 1, 1 );
+        // one scenario at the start of a larger block
+        checkAgainstMatrix( kernel, matrix, 16, 1 );
+    }
+
+    /**
+     * Correlates a block of random shocks and compares each scenario with RealMatrix.operate,
+     * checking that the scenarios after numberOfScenarios are left untouched.
+     */
+    private void checkAgainstMatrix( CholeskyKernel kernel, RealMatrix matrix, int blockSize,
+                                     int numberOfScenarios )
+    {
+        int dimension = kernel.getDimension();
+        Random rng = new Random( blockSize * 31 + numberOfScenarios );
+        double[] shocks = new double[dimension * blockSize];
+        for( int i = 0 ; i < shocks.length ; i++ )
+        {
+            shocks[i] = rng.nextGaussian();
+        }
+        double[] correlated = new double[shocks.length];
+        Arrays.fill( correlated, Double.NaN );
+        kernel.apply( shocks, correlated, blockSize, numberOfScenarios );
+
+        for( int s = 0 ; s < blockSize ; s++ )
+        {
+            double[] scenario = new double[dimension];
+            for( int i = 0 ; i < dimension ; i++ )
+            {
+                scenario[i] = shocks[i * blockSize + s];
+            }
+            double[] expected = matrix.operate( scenario );
+            for( int i = 0 ; i < dimension ; i++ )
+            {
+                if( s < numberOfScenarios )
+                {
+                    assertEquals( expected[i], correlated[i * blockSize + s], 1e-12 );
+                }
+                else
+                {
+                    assertEquals( Double.NaN, correlated[i * blockSize + s], 0.0 );
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.nm.var.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import com.nm.var.src.DoubleSeries;
+
+public class DoubleSeries_UnitTest
+{
+    @Test
+    public void shouldGrowWhenValuesAreAdded()
+    {
+        DoubleSeries series = new DoubleSeries( 1 );
+        for( int i = 0 ; i < 100 ; i++ )
+        {
+            series.add( i );
+        }
+        assertEquals( 100, series.size() );
+        assertEquals( 99.0, series.get( 99 ), 0.0 );
+        assertEquals( 4950.0, series.sum(), 0.0 );
+        try
+        {
+            series.get( 100 );
+            fail( "Index past the end of the series should not be readable" );
+        }
+        catch( IndexOutOfBoundsException e )
+        {
+        }
+    }
+
+    @Test
+    public void shouldGrowFromAnEmptySeries()
+    {
+        DoubleSeries series = new DoubleSeries( new double[0] );
+        series.add( 1.0 );
+        assertEquals( 1, series.size() );
+        assertEquals( 1.0, series.get( 0 ), 0.0 );
+
+        DoubleSeries scaled = new DoubleSeries().scale( 2.0 );
+        assertEquals( 0, scaled.size() );
+        scaled.add( 3.0 );
+        assertEquals( 3.0, scaled.sum(), 0.0 );
+    }
+
+    @Test
+    public void shouldHoldSameValuesAsList()
+    {
+        ArrayList<Double> list = new ArrayList<Double>();
+        list.add( 100.0 );
+        list.add( 200.0 );
+        list.add( 50.0 );
+        DoubleSeries series = DoubleSeries.valueOf( list );
+        assertArrayEquals( new double[] { 100.0, 200.0, 50.0 }, series.toArray(), 0.0 );
+        assertEquals( 350.0, series.sum(), 0.0 );
+        assertEquals( 100.0 * 2 + 200.0 * 3 + 50.0 * 4,
+                      series.dot( new double[] { 2.0, 3.0, 4.0 } ), 0.0 );
+        assertArrayEquals( new double[] { 50.0, 100.0, 25.0 }, series.scale( 0.5 ).toArray(), 0.0 );
+    }
+
+    @Test
+    public void shouldComputeReturnsFromPrices()
+    {
+        DoubleSeries prices = new DoubleSeries( new double[] { 110.0, 100.0, 125.0 } );
+        double[] returns = prices.logDiff();
+        assertEquals( 2, returns.length );
+        assertEquals( Math.log( 1.1 ), returns[0], 1e-15 );
+        assertEquals( Math.log( 0.8 ), returns[1], 1e-15 );
+    }
+}
@@ -0,0 +1,81 @@
+package com.nm.var.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.nm.var.src.CovarianceMethod;
+import com.nm.var.src.EwmaCovariance;
+import com.nm.var.src.ModelBuilding;
+import com.nm.var.src.MonteCarloSimulation;
+
+public class EwmaCovariance_UnitTest
+{
+    @Test
+    public void shouldMatchWeightedSumOfProducts()
+    {
+        Random rng = new Random( 7 );
+        int numberOfAssets = 70, numberOfDays = 120;
+        double lambda = 0.94;
+        double[][] returns = new double[numberOfAssets][numberOfDays + 5];
+        for( double[] series : returns )
+        {
+            for( int day = 0 ; day < series.length ; day++ )
+            {
+                series[day] = 0.02 * rng.nextGaussian();
+            }
+        }
+        double[][] covariances = new EwmaCovariance( lambda ).getCovarianceMatrix( returns,
+                                                                                  numberOfDays );
+
+        double totalWeight = ( 1 - Math.pow( lambda, numberOfDays ) );
+        for( int x = 0 ; x < numberOfAssets ; x++ )
+        {
+            for( int y = 0 ; y < numberOfAssets ; y++ )
+            {
+                double expected = 0.0;
+                for( int day = 0 ; day < numberOfDays ; day++ )
+                {
+                    expected += ( 1 - lambda ) * Math.pow( lambda, day ) * returns[x][day]
+                                * returns[y][day];
+                }
+                expected /= totalWeight;
+                assertEquals( expected, covariances[x][y], 1e-15 );
+            }
+        }
+
+        double[][] correlations = EwmaCovariance.getCorrelationMatrix( covariances );
+        assertEquals( 1.0, correlations[5][5], 0.0 );
+        assertEquals( correlations[3][40], correlations[40][3], 0.0 );
+        assertTrue( Math.abs( correlations[3][40] ) <= 1.0 );
+    }
+
+    @Test
+    public void shouldComputeVaRUsingEwmaCovariances()
+    {
+        ArrayList<Double> stockValues = new ArrayList<Double>();
+        stockValues.add( 100000.0 );
+        stockValues.add( 200000.0 );
+        ArrayList<File> files = new ArrayList<File>();
+        files.add( new File( "testing/MSFT_Apr2012_Apr2013.csv" ) );
+        files.add( new File( "testing/APPLE.csv" ) );
+
+        ModelBuilding modelBuilding = new ModelBuilding( stockValues, files, 99, 10 );
+        double sampleVaR = modelBuilding.computeForMultipleStocks();
+        modelBuilding.setCovarianceMethod( CovarianceMethod.EWMA );
+        double ewmaVaR = modelBuilding.computeForMultipleStocks();
+        assertTrue( ewmaVaR > 0 );
+        assertTrue( ewmaVaR != sampleVaR );
+
+        MonteCarloSimulation monteCarlo = new MonteCarloSimulation( stockValues, files, 99, 10 );
+        monteCarlo.setCovarianceMethod( CovarianceMethod.EWMA );
+        monteCarlo.computeValueAtRisk();
+        assertTrue( monteCarlo.getMonteCarloFinalVar() > 0 );
+        assertTrue( monteCarlo.getMonteCarloMaximumVar() >= monteCarlo.getMonteCarloFinalVar() );
+    }
+}
@@ -0,0 +1,105 @@
+package com.nm.var.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.nm.var.src.GarchEstimator;
+import com.nm.var.src.GarchParameters;
+import com.nm.var.src.VarUtils;
+
+public class GarchEstimator_UnitTest
+{
+    private final GarchEstimator estimator = GarchEstimator.getInstance();
+
+    /**
+     * @return returns simulated from a GARCH(1,1) model, most recent first
+     */
+    private double[] simulate( double alpha, double beta, int numberOfReturns, long seed )
+    {
+        Random rng = new Random( seed );
+        double longRunVariance = 0.0002;
+        double omega = ( 1 - alpha - beta ) * longRunVariance;
+        double variance = longRunVariance;
+        double[] returns = new double[numberOfReturns];
+        for( int day = numberOfReturns - 1 ; day >= 0 ; day-- )
+        {
+            returns[day] = Math.sqrt( variance ) * rng.nextGaussian();
+            variance = omega + alpha * returns[day] * returns[day] + beta * variance;
+        }
+        return returns;
+    }
+
+    @Test
+    public void shouldRecoverParametersOfSimulatedReturns()
+    {
+        double[] returns = simulate( 0.10, 0.85, 5000, 17 );
+        GarchParameters parameters = estimator.getParameters( returns, returns.length );
+        System.out.println( "Fitted GARCH: " + parameters );
+        assertEquals( 0.10, parameters.getAlpha(), 0.04 );
+        assertEquals( 0.85, parameters.getBeta(), 0.06 );
+        assertEquals( 1.0, parameters.getGamma() + parameters.getAlpha() + parameters.getBeta(),
+                      1e-12 );
+    }
+
+    @Test
+    public void shouldReuseParametersOfSameReturns()
+    {
+        double[] returns = VarUtils.getReturnsFromFile( new File( "testing/GOOG_Tester.csv" ) );
+        GarchParameters first = estimator.getParameters( returns, 300 );
+        long hits = estimator.getHits();
+        assertSame( first, estimator.getParameters( returns.clone(), 300 ) );
+        assertEquals( hits + 1, estimator.getHits() );
+        assertTrue( first != estimator.getParameters( returns, 301 ) );
+    }
+
+    @Test
+    public void shouldNotFitShortSeries()
+    {
+        double[] returns = VarUtils.getReturnsFromFile( new File( "testing/GOOG_190913_181013.csv" ) );
+        assertEquals( null, estimator.getParameters( returns, returns.length ) );
+        // falls back to the standard parameters
+        assertTrue( VarUtils.computeVolatility_GARCH( returns ) > 0 );
+    }
+
+    @Test
+    public void shouldNotFitConstantReturns()
+    {
+        double[] flat = new double[100];
+        double[] constant = new double[100];
+        Arrays.fill( constant, 0.01 );
+        assertEquals( null, estimator.getParameters( flat, flat.length ) );
+        assertEquals( null, estimator.getParameters( constant, constant.length ) );
+        // falls back to the standard parameters instead of failing the search
+        double volatility = VarUtils.computeVolatility_GARCH( flat );
+        assertFalse( Double.isNaN( volatility ) || Double.isInfinite( volatility ) );
+        assertTrue( VarUtils.computeVolatility_GARCH( constant ) >= 0 );
+    }
+
+    @Test
+    public void shouldFitSeveralSeries()
+    {
+        List<double[]> returnList = new ArrayList<double[]>();
+        for( int series = 0 ; series < 8 ; series++ )
+        {
+            returnList.add( simulate( 0.08, 0.9, 500, series ) );
+        }
+        List<GarchParameters> fits = estimator.getParameters( returnList );
+        assertEquals( 8, fits.size() );
+        for( int series = 0 ; series < 8 ; series++ )
+        {
+            assertNotNull( fits.get( series ) );
+            assertTrue( fits.get( series ).getAlpha() + fits.get( series ).getBeta() < 1 );
+        }
+    }
+}
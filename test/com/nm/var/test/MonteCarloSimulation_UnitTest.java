@@ -1,5 +1,6 @@
 package com.nm.var.test;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
@@ -9,7 +10,13 @@ import java.util.ArrayList;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.nm.var.src.ModelBuilding;
 import com.nm.var.src.MonteCarloSimulation;
+import com.nm.var.src.Option;
+import com.nm.var.src.Portfolio;
+import com.nm.var.src.RandomAlgorithm;
+import com.nm.var.src.VarUtils;
+import com.nm.var.src.VarianceReduction;
 
 public class MonteCarloSimulation_UnitTest
 {
@@ -61,4 +68,283 @@ public class MonteCarloSimulation_UnitTest
         System.out.println( "Monte Carlo finished." );
     }
 
+    @Test
+    public void shouldReproduceVaRForTheSameSeed()
+    {
+        stockFiles.clear();
+        stockFiles.add( new File( "testing/APPLE.csv" ) );
+        stockFiles.add( new File( "testing/MSFT_15082013_15112013.csv" ) );
+        values.clear();
+        values.add( 1000.0 );
+        values.add( 2000.0 );
+        MonteCarloSimulation first = new MonteCarloSimulation( values, stockFiles, 99, 10 );
+        first.setNumberOfSimulations( 5000 );
+        first.setSeed( 42 );
+        first.computeValueAtRisk();
+        MonteCarloSimulation second = new MonteCarloSimulation( values, stockFiles, 99, 10 );
+        second.setNumberOfSimulations( 5000 );
+        second.setSeed( 42 );
+        second.computeValueAtRisk();
+        assertEquals( first.getMonteCarloFinalVar(), second.getMonteCarloFinalVar(), 0.0 );
+        assertEquals( first.getMonteCarloMaximumVar(), second.getMonteCarloMaximumVar(), 0.0 );
+        assertTrue( first.getMonteCarloMaximumVar() >= first.getMonteCarloFinalVar() );
+    }
+
+    @Test
+    public void shouldReproduceOneStockVaRForTheSameSeed()
+    {
+        MonteCarloSimulation first = new MonteCarloSimulation( 99, 10 );
+        first.setSeed( 7 );
+        double[] firstVaRs = first.computeForOneStock( 1000.0, 0.02 );
+        MonteCarloSimulation second = new MonteCarloSimulation( 99, 10 );
+        second.setSeed( 7 );
+        double[] secondVaRs = second.computeForOneStock( 1000.0, 0.02 );
+        assertArrayEquals( firstVaRs, secondVaRs, 0.0 );
+    }
+
+    @Test
+    public void shouldKeepVaRCloseWithVarianceReduction()
+    {
+        MonteCarloSimulation plain = newTwoStockSimulation();
+        plain.computeValueAtRisk();
+        assertEquals( 0.0, plain.getVarianceReduction(), 0.0 );
+        for( VarianceReduction reduction : VarianceReduction.values() )
+        {
+            MonteCarloSimulation sim = newTwoStockSimulation();
+            sim.setVarianceReduction( reduction );
+            sim.computeValueAtRisk();
+            assertEquals( plain.getMonteCarloFinalVar(), sim.getMonteCarloFinalVar(),
+                          0.1 * plain.getMonteCarloFinalVar() );
+            assertTrue( sim.getMonteCarloMaximumVar() >= sim.getMonteCarloFinalVar() );
+        }
+    }
+
+    @Test
+    public void shouldRemoveMostVarianceWithControlVariate()
+    {
+        MonteCarloSimulation plain = newTwoStockSimulation();
+        plain.computeValueAtRisk();
+        MonteCarloSimulation controlled = newTwoStockSimulation();
+        controlled.setControlVariate( true );
+        controlled.computeValueAtRisk();
+        assertTrue( controlled.getVarianceReduction() > 0.5 );
+        assertEquals( plain.getMonteCarloFinalVar(), controlled.getMonteCarloFinalVar(),
+                      0.1 * plain.getMonteCarloFinalVar() );
+    }
+
+    @Test
+    public void shouldKeepVaRCloseWithQuasiRandomScenarios()
+    {
+        MonteCarloSimulation plain = newTwoStockSimulation();
+        plain.computeValueAtRisk();
+        MonteCarloSimulation quasiRandom = newTwoStockSimulation();
+        quasiRandom.setQuasiRandom( true );
+        quasiRandom.computeValueAtRisk();
+        assertEquals( plain.getMonteCarloFinalVar(), quasiRandom.getMonteCarloFinalVar(),
+                      0.1 * plain.getMonteCarloFinalVar() );
+        assertTrue( quasiRandom.getMonteCarloMaximumVar() >= quasiRandom.getMonteCarloFinalVar() );
+
+        MonteCarloSimulation again = newTwoStockSimulation();
+        again.setQuasiRandom( true );
+        again.computeValueAtRisk();
+        assertEquals( quasiRandom.getMonteCarloFinalVar(), again.getMonteCarloFinalVar(), 0.0 );
+    }
+
+    @Test
+    public void shouldNotStopQuasiRandomRunsAtATargetPrecision()
+    {
+        MonteCarloSimulation fixed = newTwoStockSimulation();
+        fixed.setQuasiRandom( true );
+        fixed.computeValueAtRisk();
+        MonteCarloSimulation adaptive = newTwoStockSimulation();
+        adaptive.setQuasiRandom( true );
+        adaptive.setTargetPrecision( 1e-9, 0 );
+        adaptive.computeValueAtRisk();
+        // the order statistics do not measure the error of a Sobol sequence
+        assertTrue( Double.isNaN( adaptive.getPrecision() ) );
+        assertEquals( fixed.getMonteCarloFinalVar(), adaptive.getMonteCarloFinalVar(), 0.0 );
+    }
+
+    @Test
+    public void shouldNotRoundUnmeasuredPrecisionOfPortfolio()
+    {
+        stockFiles.clear();
+        stockFiles.add( new File( "testing/APPLE.csv" ) );
+        stockFiles.add( new File( "testing/MSFT_15082013_15112013.csv" ) );
+        values.clear();
+        values.add( 1000.0 );
+        values.add( 2000.0 );
+        Portfolio portfolio = new Portfolio( new ArrayList<Option>(), stockFiles, values );
+        MonteCarloSimulation plain = new MonteCarloSimulation( portfolio, 99, 10 );
+        plain.setSeed( 11 );
+        assertTrue( plain.computeForPortfolio()[2] > 0 );
+        MonteCarloSimulation quasiRandom = new MonteCarloSimulation( portfolio, 99, 10 );
+        quasiRandom.setSeed( 11 );
+        quasiRandom.setQuasiRandom( true );
+        double[] results = quasiRandom.computeForPortfolio();
+        assertTrue( results[0] > 0 );
+        // the precision of a Sobol sequence is not measured, rather than reported as exact
+        assertTrue( Double.isNaN( results[2] ) );
+    }
+
+    @Test
+    public void shouldNarrowTailVaRWithImportanceSampling()
+    {
+        MonteCarloSimulation reference = newTwoStockSimulation();
+        reference.setNumberOfSimulations( 200000 );
+        reference.computeValueAtRisk();
+        MonteCarloSimulation plain = newTwoStockSimulation();
+        plain.computeValueAtRisk();
+        MonteCarloSimulation sampled = newTwoStockSimulation();
+        sampled.setImportanceSampling( true );
+        sampled.computeValueAtRisk();
+        assertEquals( reference.getMonteCarloFinalVar(), sampled.getMonteCarloFinalVar(),
+                      0.02 * reference.getMonteCarloFinalVar() );
+        assertTrue( sampled.getPrecision() < plain.getPrecision() / 3 );
+        assertTrue( sampled.getVarianceReduction() > 0.5 );
+        assertTrue( sampled.getMonteCarloMaximumVar() >= sampled.getMonteCarloFinalVar() );
+    }
+
+    @Test
+    public void shouldCumulateCorrelatedDailyReturnsOverThePath()
+    {
+        MonteCarloSimulation tenDays = newTwoStockSimulation();
+        tenDays.computeValueAtRisk();
+        double linearVaR = new ModelBuilding( values, stockFiles, 99, 10 ).computeForMultipleStocks();
+        // values are lognormal, so the loss is a little less than the first order one
+        assertEquals( linearVaR, tenDays.getMonteCarloFinalVar(), 0.1 * linearVaR );
+        assertTrue( tenDays.getMonteCarloMaximumVar() >= tenDays.getMonteCarloFinalVar() );
+
+        MonteCarloSimulation oneDay = newTwoStockSimulation();
+        oneDay.setTimePeriod( 1 );
+        oneDay.computeValueAtRisk();
+        assertEquals( Math.sqrt( 10 ), tenDays.getMonteCarloFinalVar() / oneDay.getMonteCarloFinalVar(),
+                      0.1 * Math.sqrt( 10 ) );
+    }
+
+    @Test
+    public void shouldGiveCloseVaRWithEveryRandomAlgorithm()
+    {
+        MonteCarloSimulation plain = newTwoStockSimulation();
+        plain.setNumberOfSimulations( 50000 );
+        plain.computeValueAtRisk();
+        for( RandomAlgorithm algorithm : RandomAlgorithm.values() )
+        {
+            MonteCarloSimulation sim = newTwoStockSimulation();
+            sim.setNumberOfSimulations( 50000 );
+            sim.setRandomAlgorithm( algorithm );
+            sim.computeValueAtRisk();
+            assertEquals( plain.getMonteCarloFinalVar(), sim.getMonteCarloFinalVar(),
+                          2 * plain.getPrecision() );
+            // the same seed and algorithm draw the same scenarios
+            MonteCarloSimulation again = newTwoStockSimulation();
+            again.setNumberOfSimulations( 50000 );
+            again.setRandomAlgorithm( algorithm );
+            again.computeValueAtRisk();
+            assertEquals( sim.getMonteCarloFinalVar(), again.getMonteCarloFinalVar(), 0.0 );
+        }
+    }
+
+    @Test
+    public void shouldStreamScenariosWithoutChangingVaR()
+    {
+        MonteCarloSimulation kept = newTwoStockSimulation();
+        kept.setNumberOfSimulations( 100000 );
+        kept.setControlVariate( true );
+        kept.computeValueAtRisk();
+        MonteCarloSimulation streamed = newTwoStockSimulation();
+        streamed.setNumberOfSimulations( 100000 );
+        streamed.setControlVariate( true );
+        streamed.setStreaming( true );
+        streamed.computeValueAtRisk();
+        assertEquals( kept.getMonteCarloFinalVar(), streamed.getMonteCarloFinalVar(), 0.0 );
+        assertEquals( kept.getMonteCarloMaximumVar(), streamed.getMonteCarloMaximumVar(), 0.0 );
+        assertEquals( kept.getPrecision(), streamed.getPrecision(), 0.0 );
+
+        MonteCarloSimulation sampled = newTwoStockSimulation();
+        sampled.setImportanceSampling( true );
+        sampled.computeValueAtRisk();
+        MonteCarloSimulation streamedSample = newTwoStockSimulation();
+        streamedSample.setImportanceSampling( true );
+        streamedSample.setStreaming( true );
+        streamedSample.computeValueAtRisk();
+        assertEquals( sampled.getMonteCarloFinalVar(), streamedSample.getMonteCarloFinalVar(),
+                      sampled.getPrecision() );
+        assertEquals( sampled.getPrecision(), streamedSample.getPrecision(),
+                      0.2 * sampled.getPrecision() );
+    }
+
+    @Test
+    public void shouldRunScenariosUntilTargetPrecision()
+    {
+        MonteCarloSimulation fixed = newTwoStockSimulation();
+        fixed.setNumberOfSimulations( 1000 );
+        fixed.computeValueAtRisk();
+        assertTrue( fixed.getPrecision() > 1.0 );
+
+        MonteCarloSimulation adaptive = newTwoStockSimulation();
+        adaptive.setNumberOfSimulations( 1000 );
+        adaptive.setTargetPrecision( 1.0, 0 );
+        adaptive.computeValueAtRisk();
+        assertTrue( adaptive.getPrecision() <= 1.0 );
+        assertTrue( adaptive.getMonteCarloMaximumVar() >= adaptive.getMonteCarloFinalVar() );
+    }
+
+    @Test
+    public void shouldStopAtTimeBudget()
+    {
+        MonteCarloSimulation adaptive = newTwoStockSimulation();
+        adaptive.setNumberOfSimulations( 1000 );
+        adaptive.setTargetPrecision( 1e-9, 1 );
+        long start = System.currentTimeMillis();
+        adaptive.computeValueAtRisk();
+        assertTrue( System.currentTimeMillis() - start < 2000 );
+        assertTrue( adaptive.getPrecision() > 1e-9 );
+
+        // the budget is checked within batches, which grow to over a million scenarios
+        MonteCarloSimulation longer = newTwoStockSimulation();
+        longer.setNumberOfSimulations( 1000 );
+        longer.setTargetPrecision( 1e-9, 300 );
+        start = System.currentTimeMillis();
+        longer.computeValueAtRisk();
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue( elapsed >= 300 );
+        assertTrue( elapsed < 1500 );
+        assertTrue( longer.getPrecision() < adaptive.getPrecision() );
+    }
+
+    @Test
+    public void shouldRevalueOptionsOnAPriceSurface()
+    {
+        Option put = new Option( 100, 1, 100, 0.0002, 0.02, 60, "MSFT", VarUtils.AMERICAN_PUT,
+                                 new File( "testing/APPLE.csv" ), "put" );
+        MonteCarloSimulation trees = new MonteCarloSimulation();
+        trees.setNumberOfSimulations( 200 );
+        trees.setSeed( 5 );
+        double[] treePrices = trees.priceOptionUsingBinomialTree( put );
+        MonteCarloSimulation surface = new MonteCarloSimulation();
+        surface.setNumberOfSimulations( 200 );
+        surface.setSeed( 5 );
+        surface.setPriceSurface( true );
+        double[] surfacePrices = surface.priceOptionUsingBinomialTree( put );
+        assertEquals( 0.0, trees.getPriceSurfaceError(), 0.0 );
+        assertTrue( surface.getPriceSurfaceError() > 0 );
+        assertTrue( surface.getPriceSurfaceError() < 0.01 );
+        assertArrayEquals( treePrices, surfacePrices, surface.getPriceSurfaceError() );
+    }
+
+    private MonteCarloSimulation newTwoStockSimulation()
+    {
+        stockFiles.clear();
+        stockFiles.add( new File( "testing/APPLE.csv" ) );
+        stockFiles.add( new File( "testing/MSFT_15082013_15112013.csv" ) );
+        values.clear();
+        values.add( 1000.0 );
+        values.add( 2000.0 );
+        MonteCarloSimulation sim = new MonteCarloSimulation( values, stockFiles, 99, 10 );
+        sim.setNumberOfSimulations( 10000 );
+        sim.setSeed( 11 );
+        return sim;
+    }
+
 }
@@ -0,0 +1,66 @@
+package com.nm.var.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Test;
+
+import com.nm.var.src.BinomialTree;
+import com.nm.var.src.Option;
+import com.nm.var.src.OptionPriceSurface;
+import com.nm.var.src.VarUtils;
+
+public class OptionPriceSurface_UnitTest
+{
+    private Option put = new Option( 100, 1, 100, 0.0002, 0.02, 60, "MSFT", VarUtils.AMERICAN_PUT,
+                                     new File( "testing/APPLE.csv" ), "put" );
+
+    @Test
+    public void shouldInterpolateTreePricesWithinTheErrorBound()
+    {
+        OptionPriceSurface surface = new OptionPriceSurface( put, new double[] { 80, 85 },
+                                                             new double[] { 120, 115 },
+                                                             OptionPriceSurface.DEFAULT_NODES );
+        assertEquals( 2, surface.getNumberOfDays() );
+        assertTrue( surface.getInterpolationError() < 0.01 );
+        for( int day = 0 ; day < 2 ; day++ )
+        {
+            for( double spot = 86.3 ; spot < 115 ; spot += 3.7 )
+            {
+                double tree = new BinomialTree( spot, 100, 60 - day, 0.02, 0.0002,
+                                                VarUtils.AMERICAN_PUT,
+                                                BinomialTree.ACCELERATED_STEPS, true ).getOptionPrice();
+                assertEquals( tree, surface.getPrice( day, spot ),
+                              surface.getInterpolationError() + 1e-9 );
+            }
+        }
+    }
+
+    @Test
+    public void shouldKeepThePriceOfAPutMonotone()
+    {
+        OptionPriceSurface surface = new OptionPriceSurface( put, new double[] { 50 },
+                                                             new double[] { 150 }, 9 );
+        double previous = Double.POSITIVE_INFINITY;
+        for( double spot = 50 ; spot <= 150 ; spot += 0.25 )
+        {
+            double price = surface.getPrice( 0, spot );
+            assertTrue( price <= previous );
+            assertTrue( price >= 0 );
+            previous = price;
+        }
+    }
+
+    @Test
+    public void shouldPriceASingleStockPriceExactly()
+    {
+        OptionPriceSurface surface = new OptionPriceSurface( put, new double[] { 95 },
+                                                             new double[] { 95 }, 65 );
+        double tree = new BinomialTree( 95, 100, 60, 0.02, 0.0002, VarUtils.AMERICAN_PUT,
+                                        BinomialTree.ACCELERATED_STEPS, true ).getOptionPrice();
+        assertEquals( tree, surface.getPrice( 0, 95 ), 1e-12 );
+        assertEquals( 0.0, surface.getInterpolationError(), 0.0 );
+    }
+}
@@ -0,0 +1,105 @@
+package com.nm.var.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.nm.var.src.PriceFileParser;
+import com.nm.var.src.PriceHistory;
+
+public class PriceFileParser_UnitTest
+{
+    private PriceFileParser parser;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        parser = new PriceFileParser();
+    }
+
+    @Test
+    public void shouldReadSameClosingPricesAsStringParsing() throws IOException
+    {
+        String[] files = { "testing/APPLE.csv", "testing/GOOG_Tester.csv",
+                "testing/MSFT_Apr2012_Apr2013.csv", "testing/CENTRICA_FEB2013_MARCH2014.csv" };
+        for( String name : files )
+        {
+            File file = new File( name );
+            parser.parse( file );
+            BufferedReader reader = new BufferedReader( new FileReader( file ) );
+            String[] header = reader.readLine().split( "," );
+            int closeColumn = 0;
+            while( !header[closeColumn].contains( "Close" ) )
+            {
+                closeColumn++;
+            }
+            String line;
+            int day = 0;
+            while( ( line = reader.readLine() ) != null )
+            {
+                double expected = Double.parseDouble( line.split( "," )[closeColumn] );
+                assertEquals( expected, parser.getClose()[day], 0.0 );
+                day++;
+            }
+            reader.close();
+            assertEquals( day, parser.getNumberOfDays() );
+        }
+    }
+
+    @Test
+    public void shouldReadEachDateFormat() throws IOException
+    {
+        parse( "Date,Close\n2013-12-03,1\n03/12/2013,2\n3-Dec-13,3\n25-Aug-06,4\n31/02/2013,5\n" );
+        assertEquals( 16042, parser.getDates()[0] );
+        assertEquals( 16042, parser.getDates()[1] );
+        assertEquals( 16042, parser.getDates()[2] );
+        assertEquals( 13385, parser.getDates()[3] );
+        assertEquals( PriceHistory.UNKNOWN_DATE, parser.getDates()[4] );
+    }
+
+    @Test
+    public void shouldDetectHeaderVariants() throws IOException
+    {
+        parse( "\u00EF\u00BB\u00BFDate, Open, High, Low, Close, Volume\r\n1-Apr-13,28.64,28.66,28.36,28.61,2\r\n" );
+        assertEquals( 1, parser.getNumberOfDays() );
+        assertEquals( 15796, parser.getDates()[0] );
+        assertEquals( 28.64, parser.getOpen()[0], 0.0 );
+        assertEquals( 28.61, parser.getClose()[0], 0.0 );
+
+        parse( "Date,Open,High,Low,Close,Volume,Adj Close\n2014-03-25,330.90,335.00,329.50,332.50,1,320.42\n" );
+        assertEquals( 332.50, parser.getClose()[0], 0.0 );
+
+        parse( "Date,Adj Close\n2014-03-25,320.42\n\n2014-03-24,319.46" );
+        assertEquals( 2, parser.getNumberOfDays() );
+        assertEquals( 319.46, parser.getClose()[1], 0.0 );
+        assertTrue( Double.isNaN( parser.getOpen()[1] ) );
+    }
+
+    @Test
+    public void shouldRejectMissingClosingPrice() throws IOException
+    {
+        try
+        {
+            parse( "Date,Close\n2013-12-03,\n" );
+            fail( "Missing closing price was accepted." );
+        }
+        catch( NumberFormatException e )
+        {
+            // expected
+        }
+    }
+
+    private void parse( String content ) throws IOException
+    {
+        parser.parse( new ByteArrayInputStream( content.getBytes( "ISO-8859-1" ) ) );
+    }
+}
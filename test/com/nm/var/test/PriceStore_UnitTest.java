@@ -0,0 +1,82 @@
+package com.nm.var.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.nm.var.src.PriceHistory;
+import com.nm.var.src.PriceStore;
+
+public class PriceStore_UnitTest
+{
+    private PriceStore store;
+    private File       storeDirectory;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        store = PriceStore.getInstance();
+        storeDirectory = new File( System.getProperty( "java.io.tmpdir" ), "PriceStore_UnitTest" );
+        store.setStoreDirectory( storeDirectory );
+    }
+
+    @Test
+    public void shouldReadSameReturnsFromStoreAsFromFile()
+    {
+        File file = new File( "testing/MSFT_15082013_15112013.csv" );
+        double[] parsed = store.load( file ).getReturns();
+        double[] stored = store.load( file ).getReturns();
+        assertEquals( 67, stored.length );
+        for( int i = 0 ; i < parsed.length ; i++ )
+        {
+            assertEquals( parsed[i], stored[i], 0.0 );
+        }
+    }
+
+    @Test
+    public void shouldReadDatesAndPricesOfEachDay()
+    {
+        PriceHistory prices = store.load( new File( "testing/APPLE.csv" ) );
+        // 2013-12-03 is 16042 days after 1970-01-01
+        assertEquals( 16042, prices.getDate( 0 ) );
+        assertEquals( 558.30, prices.getOpen( 0 ), 0.0 );
+        assertEquals( 566.38, prices.getHigh( 0 ), 0.0 );
+        assertEquals( 557.68, prices.getLow( 0 ), 0.0 );
+        assertEquals( 566.32, prices.getClose( 0 ), 0.0 );
+
+        PriceHistory closeOnly = store.load( new File( "testing/testingFile.csv" ) );
+        assertEquals( 3, closeOnly.getNumberOfDays() );
+        assertEquals( 15708, closeOnly.getDate( 0 ) );
+        assertTrue( Double.isNaN( closeOnly.getOpen( 0 ) ) );
+
+        PriceHistory withSpaces = store.load( new File( "testing/MSFT_Apr2012_Apr2013.csv" ) );
+        assertEquals( 15796, withSpaces.getDate( 0 ) );
+        assertEquals( 28.61, withSpaces.getClose( 0 ), 0.0 );
+    }
+
+    @Test
+    public void shouldRebuildStoreWhenFileChanges() throws IOException
+    {
+        File file = File.createTempFile( "prices", ".csv" );
+        file.deleteOnExit();
+        writePrices( file, "31/01/2013,100.00\n" );
+        assertEquals( 2, store.load( file ).getNumberOfDays() );
+
+        writePrices( file, "31/01/2013,100.00\n30/01/2013,99.00\n" );
+        file.setLastModified( file.lastModified() + 2000 );
+        assertEquals( 3, store.load( file ).getNumberOfDays() );
+    }
+
+    private void writePrices( File file, String olderPrices ) throws IOException
+    {
+        FileWriter writer = new FileWriter( file );
+        writer.write( "Date,Close\n01/02/2013,101.00\n" + olderPrices );
+        writer.close();
+    }
+}
@@ -0,0 +1,110 @@
+package com.nm.var.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.math3.stat.StatUtils;
+import org.junit.Test;
+
+import com.nm.var.src.Quantiles;
+import com.nm.var.src.TailStatistics;
+
+public class Quantiles_UnitTest
+{
+    @Test
+    public void shouldSelectSameValueAsSorting()
+    {
+        Random rng = new Random( 3 );
+        for( int trial = 0 ; trial < 200 ; trial++ )
+        {
+            double[] data = new double[1 + rng.nextInt( 500 )];
+            for( int i = 0 ; i < data.length ; i++ )
+            {
+                // plenty of repeated values
+                data[i] = trial % 2 == 0 ? rng.nextGaussian() : rng.nextInt( 4 );
+            }
+            double[] sorted = data.clone();
+            Arrays.sort( sorted );
+            int k = rng.nextInt( data.length );
+            assertEquals( sorted[k], Quantiles.select( data, k ), 0.0 );
+        }
+    }
+
+    @Test
+    public void shouldEstimatePercentileLikeCommonsMath()
+    {
+        Random rng = new Random( 5 );
+        double[] percentiles = { 0.5, 1, 5, 10, 50, 99, 100 };
+        for( int trial = 0 ; trial < 500 ; trial++ )
+        {
+            double[] data = new double[1 + rng.nextInt( 1000 )];
+            for( int i = 0 ; i < data.length ; i++ )
+            {
+                data[i] = rng.nextGaussian();
+            }
+            double p = percentiles[trial % percentiles.length];
+            assertEquals( StatUtils.percentile( data, p ), Quantiles.getPercentile( data.clone(), p ),
+                          0.0 );
+        }
+    }
+
+    @Test
+    public void shouldComputeTailMeanAndMinimum()
+    {
+        double[] data = new double[99];
+        for( int i = 0 ; i < data.length ; i++ )
+        {
+            data[i] = ( i * 37 ) % 99 + 1;
+        }
+        // 10th percentile of 1..99 is the 10th value
+        TailStatistics tail = Quantiles.getTailStatistics( data, 10 );
+        assertEquals( 10.0, tail.getQuantile(), 0.0 );
+        assertEquals( 10, tail.getTailSize() );
+        assertEquals( 5.5, tail.getTailMean(), 1e-12 );
+        assertEquals( 1.0, tail.getMinimum(), 0.0 );
+    }
+
+    @Test
+    public void shouldBoundPercentileByOrderStatistics()
+    {
+        double[] data = new double[1000];
+        for( int i = 0 ; i < data.length ; i++ )
+        {
+            data[data.length - 1 - i] = i + 1;
+        }
+        // expected rank 10, standard deviation sqrt(9.9)
+        double[] interval = Quantiles.getPercentileInterval( data, 1, 1.96 );
+        assertEquals( 3.0, interval[0], 0.0 );
+        assertEquals( 17.0, interval[1], 0.0 );
+
+        double[] narrower = Quantiles.getPercentileInterval( data, 1, 1.0 );
+        assertTrue( narrower[0] >= interval[0] && narrower[1] <= interval[1] );
+    }
+
+    @Test
+    public void shouldWeightPercentileByLikelihoodRatio()
+    {
+        double[] data = new double[1000];
+        double[] unitWeights = new double[data.length];
+        double[] weights = new double[data.length];
+        for( int i = 0 ; i < data.length ; i++ )
+        {
+            data[i] = ( i * 37 ) % 1000 + 1;
+            unitWeights[i] = 1.0;
+            // values from the tail weigh twice as much, the others nothing
+            weights[i] = data[i] <= 100 ? 2.0 : 0.0;
+        }
+        assertEquals( 10.0, Quantiles.getWeightedPercentile( data.clone(), unitWeights, 1 ), 0.0 );
+
+        double[] values = data.clone();
+        assertEquals( 5.0, Quantiles.getWeightedPercentile( values, weights, 1 ), 0.0 );
+        // the weights moved along with their values
+        for( int i = 0 ; i < values.length ; i++ )
+        {
+            assertEquals( values[i] <= 100 ? 2.0 : 0.0, weights[i], 0.0 );
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.nm.var.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.nm.var.src.PcgRandom;
+import com.nm.var.src.RandomAlgorithm;
+import com.nm.var.src.RandomGenerator;
+import com.nm.var.src.XoshiroRandom;
+
+public class RandomAlgorithm_UnitTest
+{
+    @Test
+    public void shouldDrawTheReferenceNumbers()
+    {
+        XoshiroRandom xoshiro = new XoshiroRandom( 1, 2, 3, 4 );
+        assertEquals( 11520L, xoshiro.nextLong() );
+        assertEquals( 0L, xoshiro.nextLong() );
+        assertEquals( 1509978240L, xoshiro.nextLong() );
+        assertEquals( 1215971899390074240L, xoshiro.nextLong() );
+
+        // the first outputs of the pcg32 demonstration program
+        PcgRandom pcg = new PcgRandom( 42, 54 );
+        assertEquals( 0xa15c02b7, pcg.nextInt() );
+        assertEquals( 0x7b47f409, pcg.nextInt() );
+        assertEquals( 0xba1d3330, pcg.nextInt() );
+        assertEquals( 0x83d2f293, pcg.nextInt() );
+    }
+
+    @Test
+    public void shouldDrawReproducibleAndIndependentStreams()
+    {
+        for( RandomAlgorithm algorithm : RandomAlgorithm.values() )
+        {
+            RandomGenerator first = algorithm.forStream( 123, 0 );
+            RandomGenerator again = algorithm.forStream( 123, 0 );
+            RandomGenerator second = algorithm.forStream( 123, 1 );
+            RandomGenerator otherSeed = algorithm.forStream( 124, 0 );
+            for( int i = 0 ; i < 100 ; i++ )
+            {
+                long value = first.nextLong();
+                assertEquals( value, again.nextLong() );
+                assertTrue( value != second.nextLong() );
+                assertTrue( value != otherSeed.nextLong() );
+            }
+        }
+    }
+
+    @Test
+    public void shouldDrawUniformNumbers()
+    {
+        for( RandomAlgorithm algorithm : RandomAlgorithm.values() )
+        {
+            RandomGenerator random = algorithm.newGenerator( 5 ).split();
+            int n = 100000;
+            double sum = 0.0;
+            int[] counts = new int[5];
+            for( int i = 0 ; i < n ; i++ )
+            {
+                double value = random.nextDouble();
+                assertTrue( value >= 0.0 && value < 1.0 );
+                sum += value;
+                counts[random.nextInt( 5 )]++;
+            }
+            assertEquals( 0.5, sum / n, 0.01 );
+            for( int count : counts )
+            {
+                assertEquals( n / 5.0, count, 0.02 * n );
+            }
+        }
+    }
+}
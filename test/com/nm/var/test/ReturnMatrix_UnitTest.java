@@ -0,0 +1,104 @@
+package com.nm.var.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import com.nm.var.src.HistoricalSimulation;
+import com.nm.var.src.MissingDataPolicy;
+import com.nm.var.src.ModelBuilding;
+import com.nm.var.src.PriceHistory;
+import com.nm.var.src.PriceStore;
+import com.nm.var.src.ReturnMatrix;
+
+public class ReturnMatrix_UnitTest
+{
+    /** Prices of two assets; the second has no price on day 3 and no history before day 1. */
+    private final int[][]    dates  = { { 5, 4, 3, 2, 1, 0 }, { 5, 4, 2, 1 } };
+    private final double[][] prices = { { 6, 5, 4, 3, 2, 1 }, { 60, 50, 30, 20 } };
+
+    @Test
+    public void shouldKeepOnlyCommonDaysWhenIntersecting()
+    {
+        ReturnMatrix matrix = new ReturnMatrix( dates, prices, MissingDataPolicy.INTERSECT );
+        assertEquals( 3, matrix.getNumberOfDays() );
+        assertEquals( 2, matrix.getDate( 2 ) );
+        // return from day 2 to day 4 spans the missing day 3
+        assertArrayEquals( new double[] { Math.log( 6.0 / 5 ), Math.log( 5.0 / 3 ), Math.log( 3.0 / 2 ) },
+                           matrix.getReturns( 0 ), 1e-15 );
+        assertArrayEquals( new double[] { Math.log( 60.0 / 50 ), Math.log( 50.0 / 30 ),
+                Math.log( 30.0 / 20 ) }, matrix.getReturns( 1 ), 1e-15 );
+    }
+
+    @Test
+    public void shouldCarryLastPriceForwardOnMissingDays()
+    {
+        ReturnMatrix matrix = new ReturnMatrix( dates, prices, MissingDataPolicy.FORWARD_FILL );
+        // day 0 comes before the history of the second asset begins
+        assertEquals( 4, matrix.getNumberOfDays() );
+        assertEquals( 3, matrix.getDate( 2 ) );
+        assertArrayEquals( new double[] { Math.log( 60.0 / 50 ), Math.log( 50.0 / 30 ), 0.0,
+                Math.log( 30.0 / 20 ) }, matrix.getReturns( 1 ), 1e-15 );
+        assertEquals( Math.log( 4.0 / 3 ), matrix.getReturn( 0, 2 ), 1e-15 );
+    }
+
+    @Test
+    public void shouldUseZeroReturnsOutsideHistory()
+    {
+        ReturnMatrix matrix = new ReturnMatrix( dates, prices, MissingDataPolicy.ZERO_FILL );
+        assertEquals( 5, matrix.getNumberOfDays() );
+        assertEquals( 0.0, matrix.getReturn( 1, 4 ), 0.0 );
+        assertEquals( Math.log( 2.0 / 1 ), matrix.getReturn( 0, 4 ), 1e-15 );
+    }
+
+    @Test
+    public void shouldSortPricesByDate()
+    {
+        int[][] unsorted = { { 1, 3, 2 } };
+        double[][] unsortedPrices = { { 10, 30, 20 } };
+        ReturnMatrix matrix = new ReturnMatrix( unsorted, unsortedPrices, MissingDataPolicy.INTERSECT );
+        assertEquals( 3, matrix.getDate( 0 ) );
+        assertEquals( Math.log( 30.0 / 20 ), matrix.getReturn( 0, 0 ), 1e-15 );
+    }
+
+    @Test
+    public void shouldAlignFilesWithDifferentHolidays()
+    {
+        // US and UK markets close on different days
+        ArrayList<File> files = new ArrayList<File>();
+        files.add( new File( "testing/APPLE.csv" ) );
+        files.add( new File( "testing/BARCLAYS_MAR2013_MAR2014.csv" ) );
+        ReturnMatrix matrix = new ReturnMatrix( files, MissingDataPolicy.INTERSECT );
+        assertTrue( matrix.getNumberOfDays() > 150 );
+
+        PriceHistory apple = PriceStore.getInstance().load( files.get( 0 ) );
+        PriceHistory barclays = PriceStore.getInstance().load( files.get( 1 ) );
+        // every date kept is found in both files
+        int appleDay = 0, barclaysDay = 0;
+        for( int day = 0 ; day < matrix.getNumberOfDays() ; day++ )
+        {
+            while( apple.getDate( appleDay ) != matrix.getDate( day ) )
+            {
+                appleDay++;
+            }
+            while( barclays.getDate( barclaysDay ) != matrix.getDate( day ) )
+            {
+                barclaysDay++;
+            }
+        }
+
+        ArrayList<Double> values = new ArrayList<Double>();
+        values.add( 1000.0 );
+        values.add( 2000.0 );
+        HistoricalSimulation hs = new HistoricalSimulation( values, files, 99 );
+        assertTrue( hs.computeForMultipleStocks( matrix.getReturnList() ) > 0 );
+        ModelBuilding mb = new ModelBuilding( values, files, 99, 1 );
+        mb.setMissingDataPolicy( MissingDataPolicy.FORWARD_FILL );
+        assertTrue( mb.computeForMultipleStocks() > 0 );
+    }
+}
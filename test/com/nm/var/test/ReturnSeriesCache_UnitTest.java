@@ -0,0 +1,63 @@
+package com.nm.var.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.nm.var.src.ReturnSeriesCache;
+import com.nm.var.src.VarUtils;
+
+public class ReturnSeriesCache_UnitTest
+{
+    private ReturnSeriesCache cache;
+    private File              msft = new File( "testing/MSFT_15082013_15112013.csv" );
+    private File              goog = new File( "testing/GOOG_Tester.csv" );
+
+    @Before
+    public void setUp() throws Exception
+    {
+        cache = ReturnSeriesCache.getInstance();
+        cache.setMemoryBudget( ReturnSeriesCache.DEFAULT_BUDGET );
+        cache.clear();
+        cache.resetStatistics();
+    }
+
+    @Test
+    public void shouldReadFileOnceAndShareReturns()
+    {
+        double[] first = cache.getReturns( msft );
+        double[] second = cache.getReturns( msft );
+        assertTrue( first == second );
+        assertEquals( 1, cache.getMisses() );
+        assertEquals( 1, cache.getHits() );
+    }
+
+    @Test
+    public void shouldGiveCopiesThroughVarUtils()
+    {
+        double[] cached = cache.getReturns( msft );
+        double[] copy = VarUtils.getReturnsFromFile( msft );
+        assertTrue( cached != copy );
+        assertEquals( cached[0], copy[0], 0.0 );
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedSeriesOverBudget()
+    {
+        // GOOG_Tester has more returns than the MSFT file
+        cache.getReturns( goog );
+        cache.setMemoryBudget( cache.getMemoryUsed() );
+
+        cache.getReturns( msft );
+        assertEquals( 1, cache.getEvictions() );
+        assertEquals( 1, cache.getNumberOfEntries() );
+        assertTrue( cache.getMemoryUsed() <= cache.getMemoryBudget() );
+
+        cache.getReturns( goog );
+        assertEquals( 3, cache.getMisses() );
+    }
+}
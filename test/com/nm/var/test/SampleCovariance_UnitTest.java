@@ -0,0 +1,77 @@
+package com.nm.var.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.RecursiveTask;
+
+import org.junit.Test;
+
+import com.nm.var.src.SampleCovariance;
+import com.nm.var.src.VarUtils;
+import com.nm.var.src.WorkerPool;
+
+public class SampleCovariance_UnitTest
+{
+    /**
+     * @return the returns of the test files and enough random series of different lengths to be
+     *         split across several tiles
+     */
+    private ArrayList<double[]> getReturnList()
+    {
+        ArrayList<double[]> returnList = new ArrayList<double[]>();
+        returnList.add( VarUtils.getReturnsFromFile( new File( "testing/GOOG_Tester.csv" ) ) );
+        returnList.add( VarUtils.getReturnsFromFile( new File( "testing/APPLE.csv" ) ) );
+        returnList.add( VarUtils.getReturnsFromFile( new File( "testing/MSFT_15082013_15112013.csv" ) ) );
+        Random rng = new Random( 11 );
+        for( int asset = 0 ; asset < 100 ; asset++ )
+        {
+            double[] returns = new double[20 + rng.nextInt( 300 )];
+            for( int day = 0 ; day < returns.length ; day++ )
+            {
+                returns[day] = 0.001 + 0.02 * rng.nextGaussian();
+            }
+            returnList.add( returns );
+        }
+        return returnList;
+    }
+
+    @Test
+    public void shouldMatchCovarianceOfEachPair()
+    {
+        ArrayList<double[]> returnList = getReturnList();
+        double[][] covariances = SampleCovariance.getCovarianceMatrix( returnList );
+        for( int x = 0 ; x < returnList.size() ; x++ )
+        {
+            for( int y = 0 ; y < returnList.size() ; y++ )
+            {
+                double expected = VarUtils.getCovariance( returnList.get( x ), returnList.get( y ) );
+                assertEquals( expected, covariances[x][y], 1e-15 );
+            }
+        }
+    }
+
+    @Test
+    public void shouldComputeCovariancesFromATaskOfTheWorkerPool()
+    {
+        final ArrayList<double[]> returnList = getReturnList();
+        double[][] expected = SampleCovariance.getCovarianceMatrix( returnList );
+        double[][] covariances = WorkerPool.getInstance().invoke( new RecursiveTask<double[][]>()
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected double[][] compute()
+            {
+                return SampleCovariance.getCovarianceMatrix( returnList );
+            }
+        } );
+        for( int x = 0 ; x < returnList.size() ; x++ )
+        {
+            assertArrayEquals( expected[x], covariances[x], 0.0 );
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.nm.var.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import org.apache.commons.math3.stat.StatUtils;
+import org.junit.Test;
+
+import com.nm.var.src.Asset;
+import com.nm.var.src.ModelBuilding;
+import com.nm.var.src.Portfolio;
+import com.nm.var.src.ScenarioSet;
+
+public class ScenarioSet_UnitTest
+{
+    private static final File APPLE = new File( "testing/APPLE.csv" );
+    private static final File MSFT  = new File( "testing/MSFT_15082013_15112013.csv" );
+    private static final File GOOG  = new File( "testing/GOOG_190913_181013.csv" );
+
+    @Test
+    public void shouldGiveVaRCloseToModelBuilding()
+    {
+        ScenarioSet scenarios = new ScenarioSet( getUniverse(), 10, 50000, 3 );
+        Portfolio portfolio = getPortfolio( 1000.0, 2000.0 );
+        ArrayList<Double> values = new ArrayList<Double>();
+        values.add( 1000.0 );
+        values.add( 2000.0 );
+        ModelBuilding model = new ModelBuilding( values, portfolio.getStockPriceDataFiles(), 99, 10 );
+        double linearVaR = model.computeForMultipleStocks();
+        assertEquals( linearVaR, scenarios.getValueAtRisk( portfolio, 99 ), 0.1 * linearVaR );
+    }
+
+    @Test
+    public void shouldRevaluePortfoliosAgainstTheSameScenarios()
+    {
+        ScenarioSet scenarios = new ScenarioSet( getUniverse(), 10, 20000, 5 );
+        double[] values = scenarios.getPortfolioValues( getPortfolio( 1000.0, 2000.0 ) );
+        double[] doubled = scenarios.getPortfolioValues( getPortfolio( 2000.0, 4000.0 ) );
+        for( int s = 0 ; s < values.length ; s++ )
+        {
+            assertEquals( 2 * values[s], doubled[s], 1e-9 * values[s] );
+        }
+
+        Portfolio outside = getPortfolio( 1000.0, 2000.0 );
+        outside.addAsset( new Asset( new File( "testing/GOOG_Tester.csv" ), "GOOG", 500.0 ) );
+        try
+        {
+            scenarios.getPortfolioValues( outside );
+            fail( "An asset outside the universe cannot be revalued" );
+        }
+        catch( IllegalArgumentException e )
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void shouldCompareVaRsWithLessNoiseThanIndependentRuns()
+    {
+        Portfolio portfolio = getPortfolio( 1000.0, 2000.0 );
+        Portfolio edited = getPortfolio( 1100.0, 2000.0 );
+        int runs = 8;
+        double[] commonDifferences = new double[runs], independentDifferences = new double[runs];
+        for( int run = 0 ; run < runs ; run++ )
+        {
+            ScenarioSet scenarios = new ScenarioSet( getUniverse(), 10, 5000, run );
+            ScenarioSet other = new ScenarioSet( getUniverse(), 10, 5000, run + runs );
+            double varOfPortfolio = scenarios.getValueAtRisk( portfolio, 99 );
+            commonDifferences[run] = scenarios.getValueAtRisk( edited, 99 ) - varOfPortfolio;
+            independentDifferences[run] = other.getValueAtRisk( edited, 99 ) - varOfPortfolio;
+        }
+        assertTrue( StatUtils.variance( commonDifferences )
+                    < 0.1 * StatUtils.variance( independentDifferences ) );
+    }
+
+    @Test
+    public void shouldFindAssetsByTheirCanonicalPath()
+    {
+        ScenarioSet scenarios = new ScenarioSet( getUniverse(), 10, 2000, 7 );
+        double[] values = scenarios.getPortfolioValues( getPortfolio( 1000.0, 2000.0 ) );
+        ArrayList<File> files = new ArrayList<File>();
+        files.add( APPLE.getAbsoluteFile() );
+        files.add( new File( "testing/../testing/MSFT_15082013_15112013.csv" ) );
+        double[] sameValues = scenarios.getPortfolioValues( files, new double[] { 1000.0, 2000.0 } );
+        for( int s = 0 ; s < values.length ; s++ )
+        {
+            assertEquals( values[s], sameValues[s], 0.0 );
+        }
+
+        scenarios.getUniverse().clear();
+        assertEquals( 3, scenarios.getUniverse().size() );
+    }
+
+    private ArrayList<File> getUniverse()
+    {
+        ArrayList<File> universe = new ArrayList<File>();
+        universe.add( GOOG );
+        universe.add( APPLE );
+        universe.add( MSFT );
+        return universe;
+    }
+
+    private Portfolio getPortfolio( double appleInvestment, double microsoftInvestment )
+    {
+        Portfolio portfolio = new Portfolio();
+        portfolio.addAsset( new Asset( APPLE, "AAPL", appleInvestment ) );
+        portfolio.addAsset( new Asset( MSFT, "MSFT", microsoftInvestment ) );
+        return portfolio;
+    }
+}
@@ -0,0 +1,100 @@
+package com.nm.var.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import com.nm.var.src.SobolSequence;
+
+public class SobolSequence_UnitTest
+{
+    @Test
+    public void shouldStartWithVanDerCorputSequenceInFirstDimension()
+    {
+        SobolSequence sequence = new SobolSequence( 2 );
+        double[] point = new double[2];
+        double[] expected = { 0.0, 0.5, 0.75, 0.25, 0.375, 0.875, 0.625, 0.125 };
+        for( double value : expected )
+        {
+            sequence.nextPoint( point );
+            assertEquals( value, point[0], 1e-9 );
+        }
+    }
+
+    @Test
+    public void shouldPutOnePointInEachIntervalOfEveryDimension()
+    {
+        checkStratified( new SobolSequence( 100 ) );
+        checkStratified( new SobolSequence( 100, 42 ) );
+    }
+
+    @Test
+    public void shouldStartAtAnyPoint()
+    {
+        SobolSequence sequence = new SobolSequence( 10, 3 );
+        SobolSequence skipped = sequence.startingAt( 777 );
+        double[] point = new double[10];
+        double[] skippedPoint = new double[10];
+        for( int i = 0 ; i <= 777 ; i++ )
+        {
+            sequence.nextPoint( point );
+        }
+        skipped.nextPoint( skippedPoint );
+        assertArrayEquals( point, skippedPoint, 0.0 );
+    }
+
+    @Test
+    public void shouldFillConsecutivePointsIntoOneBuffer()
+    {
+        SobolSequence sequence = new SobolSequence( 6, 11 );
+        int[] points = new int[5 * 6];
+        sequence.fillPoints( 300, 5, points );
+        SobolSequence cursor = sequence.startingAt( 300 );
+        for( int i = 0 ; i < points.length ; i++ )
+        {
+            assertEquals( cursor.nextGaussian(), SobolSequence.toGaussian( points[i] ), 0.0 );
+        }
+        // the sequence filled from is not moved
+        assertEquals( sequence.startingAt( 0 ).nextGaussian(), sequence.nextGaussian(), 0.0 );
+    }
+
+    @Test
+    public void shouldGenerateStandardNormalNumbers()
+    {
+        SobolSequence sequence = new SobolSequence( 3, 7 );
+        int n = 3 * 4096;
+        double sum = 0.0, sumOfSquares = 0.0;
+        for( int i = 0 ; i < n ; i++ )
+        {
+            double value = sequence.nextGaussian();
+            sum += value;
+            sumOfSquares += value * value;
+        }
+        assertEquals( 0.0, sum / n, 0.001 );
+        assertEquals( 1.0, sumOfSquares / n, 0.01 );
+    }
+
+    private void checkStratified( SobolSequence sequence )
+    {
+        int n = 1024;
+        int dimension = sequence.getDimension();
+        int[][] counts = new int[dimension][n];
+        double[] point = new double[dimension];
+        for( int i = 0 ; i < n ; i++ )
+        {
+            sequence.nextPoint( point );
+            for( int d = 0 ; d < dimension ; d++ )
+            {
+                counts[d][(int) ( point[d] * n )]++;
+            }
+        }
+        for( int d = 0 ; d < dimension ; d++ )
+        {
+            for( int interval = 0 ; interval < n ; interval++ )
+            {
+                assertEquals( 1, counts[d][interval] );
+            }
+        }
+    }
+}
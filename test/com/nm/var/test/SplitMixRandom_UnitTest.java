@@ -0,0 +1,66 @@
+package com.nm.var.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.nm.var.src.SplitMixRandom;
+
+public class SplitMixRandom_UnitTest
+{
+    @Test
+    public void shouldDrawTheSameNumbersFromTheSameSeed()
+    {
+        SplitMixRandom first = new SplitMixRandom( 123 );
+        SplitMixRandom second = new SplitMixRandom( 123 );
+        for( int i = 0 ; i < 100 ; i++ )
+        {
+            assertEquals( first.nextLong(), second.nextLong() );
+            assertEquals( first.nextGaussian(), second.nextGaussian(), 0.0 );
+        }
+    }
+
+    @Test
+    public void shouldDrawDifferentNumbersInDifferentStreams()
+    {
+        SplitMixRandom first = SplitMixRandom.forStream( 123, 0 );
+        SplitMixRandom second = SplitMixRandom.forStream( 123, 1 );
+        SplitMixRandom otherSeed = SplitMixRandom.forStream( 124, 0 );
+        long value = first.nextLong();
+        assertTrue( value != second.nextLong() );
+        assertTrue( value != otherSeed.nextLong() );
+    }
+
+    @Test
+    public void shouldDrawUniformDoublesBetweenZeroAndOne()
+    {
+        SplitMixRandom random = new SplitMixRandom( 5 );
+        double sum = 0.0;
+        int n = 100000;
+        for( int i = 0 ; i < n ; i++ )
+        {
+            double value = random.nextDouble();
+            assertTrue( value >= 0.0 && value < 1.0 );
+            sum += value;
+        }
+        assertEquals( 0.5, sum / n, 0.01 );
+    }
+
+    @Test
+    public void shouldDrawStandardNormalGaussians()
+    {
+        SplitMixRandom random = new SplitMixRandom( 9 ).split();
+        double sum = 0.0, sumOfSquares = 0.0;
+        int n = 100000;
+        for( int i = 0 ; i < n ; i++ )
+        {
+            double value = random.nextGaussian();
+            sum += value;
+            sumOfSquares += value * value;
+        }
+        double mean = sum / n;
+        assertEquals( 0.0, mean, 0.02 );
+        assertEquals( 1.0, sumOfSquares / n - mean * mean, 0.02 );
+    }
+}
@@ -1,5 +1,7 @@
 package com.nm.var.test;
 
+import static org.junit.Assert.assertArrayEquals;
+
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -9,6 +11,7 @@ import org.junit.Test;
 
 import com.nm.var.src.Asset;
 import com.nm.var.src.Portfolio;
+import com.nm.var.src.SplitMixRandom;
 import com.nm.var.src.StressTester;
 
 public class StressTester_UnitTest
@@ -39,6 +42,17 @@ public class StressTester_UnitTest
         compareValues( st );
     }
 
+    @Test
+    public void shouldRepeatStressTestWithSeededGenerator()
+    {
+        st.setRandomGenerator( new SplitMixRandom( 8 ) );
+        st.run();
+        StressTester again = new StressTester( getPortfolioWithOneStock() );
+        again.setRandomGenerator( new SplitMixRandom( 8 ) );
+        again.run();
+        assertArrayEquals( st.getSimulatedValues(), again.getSimulatedValues(), 0.0 );
+    }
+
     /**
      * @param simulatedValues
      */
@@ -0,0 +1,82 @@
+package com.nm.var.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.nm.var.src.Quantiles;
+import com.nm.var.src.TDigest;
+
+public class TDigest_UnitTest
+{
+    @Test
+    public void shouldGiveExactPercentilesOfFewValues()
+    {
+        double[] data = { 5, 3, 9, 1, 7 };
+        TDigest digest = new TDigest();
+        for( double value : data )
+        {
+            digest.add( value );
+        }
+        for( double p : new double[] { 1, 10, 30, 50, 70, 99 } )
+        {
+            assertEquals( Quantiles.getPercentile( data.clone(), p ), digest.getPercentile( p ),
+                          1e-12 );
+        }
+        assertEquals( 1.0, digest.getMinimum(), 0.0 );
+    }
+
+    @Test
+    public void shouldEstimateTailPercentilesOfLargeStream()
+    {
+        Random rng = new Random( 3 );
+        double[] data = new double[200000];
+        TDigest digest = new TDigest( 1000 );
+        TDigest first = new TDigest( 1000 ), second = new TDigest( 1000 );
+        for( int i = 0 ; i < data.length ; i++ )
+        {
+            data[i] = rng.nextGaussian();
+            digest.add( data[i] );
+            ( i % 2 == 0 ? first : second ).add( data[i] );
+        }
+        first.merge( second );
+        assertEquals( data.length, first.getCount() );
+        for( double p : new double[] { 0.1, 1, 5, 50 } )
+        {
+            double exact = Quantiles.getPercentile( data.clone(), p );
+            double[] interval = Quantiles.getPercentileInterval( data.clone(), p, 1.96 );
+            // well within the sampling error of the percentile itself
+            double tolerance = ( interval[1] - interval[0] ) / 4;
+            assertEquals( exact, digest.getPercentile( p ), tolerance );
+            assertEquals( exact, first.getPercentile( p ), tolerance );
+        }
+    }
+
+    @Test
+    public void shouldFindValueAtCumulativeWeight()
+    {
+        Random rng = new Random( 5 );
+        double[] data = new double[50000];
+        double[] weights = new double[data.length];
+        TDigest digest = new TDigest( 1000 );
+        for( int i = 0 ; i < data.length ; i++ )
+        {
+            data[i] = rng.nextGaussian();
+            weights[i] = 0.5 + rng.nextDouble();
+            digest.add( data[i], weights[i] );
+        }
+        double exact = Quantiles.getWeightedPercentile( data.clone(), weights.clone(), 1 );
+        assertEquals( exact, digest.getValueAtWeight( data.length / 100.0 ), 0.02 );
+        double below = digest.getWeightAtOrBelow( exact );
+        assertTrue( Math.abs( below - data.length / 100.0 ) < 0.05 * data.length / 100.0 );
+        double squaresBelow = 0.0;
+        for( int i = 0 ; i < data.length ; i++ )
+        {
+            squaresBelow += data[i] <= exact ? weights[i] * weights[i] : 0.0;
+        }
+        assertEquals( squaresBelow, digest.getSquaredWeightAtOrBelow( exact ), 0.05 * squaresBelow );
+    }
+}
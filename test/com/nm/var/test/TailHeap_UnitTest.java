@@ -0,0 +1,86 @@
+package com.nm.var.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.nm.var.src.Quantiles;
+import com.nm.var.src.TailHeap;
+import com.nm.var.src.TailStatistics;
+
+public class TailHeap_UnitTest
+{
+    @Test
+    public void shouldGiveSamePercentilesAsKeepingEveryValue()
+    {
+        Random rng = new Random( 7 );
+        double[] percentiles = { 0.5, 1, 5, 10 };
+        for( int trial = 0 ; trial < 40 ; trial++ )
+        {
+            double[] data = new double[1 + rng.nextInt( 5000 )];
+            for( int i = 0 ; i < data.length ; i++ )
+            {
+                data[i] = trial % 2 == 0 ? rng.nextGaussian() : rng.nextInt( 20 );
+            }
+            double p = percentiles[trial % percentiles.length];
+            TailHeap heap = TailHeap.forPercentile( data.length, p, 1.96 );
+            for( double value : data )
+            {
+                heap.add( value );
+            }
+            TailStatistics expected = Quantiles.getTailStatistics( data.clone(), p );
+            TailStatistics tail = heap.getTailStatistics( p );
+            assertEquals( expected.getQuantile(), tail.getQuantile(), 0.0 );
+            assertEquals( expected.getMinimum(), heap.getMinimum(), 0.0 );
+            assertEquals( expected.getTailSize(), tail.getTailSize() );
+            assertEquals( expected.getTailMean(), tail.getTailMean(), 1e-9 );
+            assertArrayEquals( Quantiles.getPercentileInterval( data.clone(), p, 1.96 ),
+                               heap.getPercentileInterval( p, 1.96 ), 0.0 );
+        }
+    }
+
+    @Test
+    public void shouldKeepSameValuesWhenMerged()
+    {
+        Random rng = new Random( 9 );
+        TailHeap whole = TailHeap.forPercentile( 10000, 1, 1.96 );
+        TailHeap first = TailHeap.forPercentile( 10000, 1, 1.96 );
+        TailHeap second = TailHeap.forPercentile( 10000, 1, 1.96 );
+        for( int i = 0 ; i < 10000 ; i++ )
+        {
+            double value = rng.nextGaussian();
+            whole.add( value );
+            ( i % 3 == 0 ? first : second ).add( value );
+        }
+        first.merge( second );
+        assertEquals( 10000, first.getCount() );
+        assertEquals( whole.getPercentile( 1 ), first.getPercentile( 1 ), 0.0 );
+        assertArrayEquals( whole.getPercentileInterval( 1, 1.96 ),
+                           first.getPercentileInterval( 1, 1.96 ), 0.0 );
+    }
+
+    @Test
+    public void shouldRefusePercentileBeyondValuesHeld()
+    {
+        TailHeap heap = new TailHeap( 5 );
+        for( int i = 0 ; i < 100 ; i++ )
+        {
+            heap.add( i );
+        }
+        assertEquals( 0.0, heap.getMinimum(), 0.0 );
+        assertEquals( 3.04, heap.getPercentile( 4 ), 1e-12 );
+        try
+        {
+            heap.getPercentile( 50 );
+            fail( "Percentile outside the heap" );
+        }
+        catch( IllegalStateException e )
+        {
+            // expected
+        }
+    }
+}
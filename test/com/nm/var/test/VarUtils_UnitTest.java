@@ -188,4 +188,12 @@ public class VarUtils_UnitTest
         // tested by hand
     }
 
+    @Test
+    public void shouldInvertCumulativeNormalDistribution()
+    {
+        assertEquals( 0.0, VarUtils.inverseCNDF( 0.5 ), delta );
+        assertEquals( 1.959964, VarUtils.inverseCNDF( 0.975 ), delta );
+        assertEquals( -2.326348, VarUtils.inverseCNDF( 0.01 ), delta );
+        assertEquals( 0.3, VarUtils.CNDF( VarUtils.inverseCNDF( 0.3 ) ), delta );
+    }
 }
@@ -0,0 +1,62 @@
+package com.nm.var.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.nm.var.src.EwmaVolatilityEstimator;
+import com.nm.var.src.GarchVolatilityEstimator;
+import com.nm.var.src.VarUtils;
+import com.nm.var.src.VolatilityEstimator;
+
+public class VolatilityEstimator_UnitTest
+{
+    @Test
+    public void shouldGiveSameVarianceWhenFedOneReturnAtATime()
+    {
+        double[] returns = VarUtils.getReturnsFromFile( new File( "testing/GOOG_Tester.csv" ) );
+        VolatilityEstimator whole = new GarchVolatilityEstimator( 0.000002, 0.13, 0.86, 0.0001 );
+        whole.update( returns, 0, returns.length );
+
+        // feed the older half, then carry the estimate forward a day at a time
+        VolatilityEstimator carried = new GarchVolatilityEstimator( 0.000002, 0.13, 0.86, 0.0001 );
+        int half = returns.length / 2;
+        carried.update( returns, half, returns.length );
+        for( int day = half - 1 ; day >= 0 ; day-- )
+        {
+            carried.update( returns[day] );
+        }
+        assertEquals( whole.getVariance(), carried.getVariance(), 0.0 );
+    }
+
+    @Test
+    public void shouldDecayInitialVarianceWithEachReturn()
+    {
+        VolatilityEstimator ewma = new EwmaVolatilityEstimator( 0.94, 0.01 );
+        assertEquals( 0.01, ewma.getVariance(), 0.0 );
+        ewma.update( 0.0 );
+        ewma.update( 0.0 );
+        assertEquals( 0.01 * 0.94 * 0.94, ewma.getVariance(), 1e-15 );
+        ewma.update( 0.1 );
+        assertEquals( 0.01 * 0.94 * 0.94 * 0.94 + 0.06 * 0.01, ewma.getVariance(), 1e-15 );
+    }
+
+    @Test
+    public void shouldEstimateVolatilityOfLongSeries()
+    {
+        Random rng = new Random( 42 );
+        double[] returns = new double[1000000];
+        for( int i = 0 ; i < returns.length ; i++ )
+        {
+            returns[i] = 0.01 * rng.nextGaussian();
+        }
+        double ewma = VarUtils.computeVolatility_EWMA( returns );
+        double garch = VarUtils.computeVolatility_GARCH( returns );
+        assertTrue( ewma > 0 && ewma < 0.1 );
+        assertTrue( garch > 0 && garch < 0.1 );
+    }
+}
@@ -0,0 +1,56 @@
+package com.nm.var.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.commons.math3.distribution.NormalDistribution;
+import org.junit.Test;
+
+import com.nm.var.src.SplitMixRandom;
+import com.nm.var.src.XoshiroRandom;
+import com.nm.var.src.ZigguratNormal;
+
+public class ZigguratNormal_UnitTest
+{
+    @Test
+    public void shouldMatchNormalProbabilitiesInEveryBand()
+    {
+        // bands of 0.25 from -4 to 4, plus both tails
+        int bands = 34, n = 2000000;
+        long[] counts = new long[bands];
+        XoshiroRandom random = new XoshiroRandom( 21 );
+        for( int i = 0 ; i < n ; i++ )
+        {
+            double value = ZigguratNormal.next( random );
+            int band = (int) Math.floor( value * 4 ) + 17;
+            counts[Math.min( Math.max( band, 0 ), bands - 1 )]++;
+        }
+        NormalDistribution normal = new NormalDistribution();
+        double chiSquare = 0.0;
+        for( int band = 0 ; band < bands ; band++ )
+        {
+            double lower = band == 0 ? Double.NEGATIVE_INFINITY : ( band - 17 ) / 4.0;
+            double upper = band == bands - 1 ? Double.POSITIVE_INFINITY : ( band - 16 ) / 4.0;
+            double expected = n * ( normal.cumulativeProbability( upper )
+                                    - normal.cumulativeProbability( lower ) );
+            chiSquare += ( counts[band] - expected ) * ( counts[band] - expected ) / expected;
+        }
+        // the 99.9th percentile of the chi-square distribution with 33 degrees of freedom
+        assertTrue( "chi-square " + chiSquare, chiSquare < 63.9 );
+    }
+
+    @Test
+    public void shouldFillArraysWithTheNumbersDrawnOneByOne()
+    {
+        SplitMixRandom single = new SplitMixRandom( 4 );
+        SplitMixRandom filled = new SplitMixRandom( 4 );
+        double[] values = new double[1000];
+        filled.nextGaussians( values, 10, 990 );
+        for( int i = 10 ; i < 990 ; i++ )
+        {
+            assertEquals( single.nextGaussian(), values[i], 0.0 );
+        }
+        assertEquals( 0.0, values[0], 0.0 );
+        assertEquals( 0.0, values[999], 0.0 );
+    }
+}